@@ -0,0 +1,107 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import com.example.PatientWriter;
+import com.example.QueueManager;
+import com.example.TokenAllocator;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// The backend wired by hand the way QueueConfig wires it, with a journal in a
+// temp directory, so benchmarks exercise the real classes without a Spring
+// context. The database is picked by name:
+//   memory    in-memory H2 (MySQL mode), the default
+//   embedded  an H2 file, as with kiosk.persistence=embedded
+//   mysql     -Dbench.mysql.url (user/password: bench.mysql.user, bench.mysql.password)
+final class BenchmarkStack implements AutoCloseable {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    final HikariDataSource dataSource;
+    final DBConnection db;
+    final TokenAllocator tokens;
+    final Path dir;
+    final Journal journal;
+    final PatientWriter writer;
+    final QueueManager manager;
+    final IdentityService identity;
+    final TemplateIndex templates;
+    final PaymentReconciler reconciler;
+    final PatientController patients;
+
+    BenchmarkStack(boolean writeBehind, int tokenBlockSize) throws IOException {
+        this(jdbcUrl("memory", null), writeBehind, tokenBlockSize);
+    }
+
+    BenchmarkStack(String jdbcUrl, boolean writeBehind, int tokenBlockSize) throws IOException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(jdbcUrl);
+        if (jdbcUrl.startsWith("jdbc:mysql:")) {
+            dataSource.setUsername(System.getProperty("bench.mysql.user", "root"));
+            dataSource.setPassword(System.getProperty("bench.mysql.password", ""));
+        }
+        dataSource.setMaximumPoolSize(10);
+        db = new DBConnection(dataSource);
+        db.initSchema();
+        tokens = new TokenAllocator(new JdbcTokenBlockSource(db, registry), tokenBlockSize, false);
+
+        dir = Files.createTempDirectory("kiosk-bench");
+        journal = new Journal(dir.resolve("queue.journal"), 16 * 1024 * 1024, Journal.FsyncPolicy.INTERVAL, 100);
+        writer = writeBehind
+                ? new WriteBehindPatientWriter(db, journal, 100, 50, 10_000, 200, registry)
+                : new AsyncPatientWriter(db, journal, 5_000, registry);
+        manager = new QueueManager(new JdbcPatientRepository(db), tokens, writer);
+        manager.loadWaiting();
+
+        identity = new IdentityService(new SimulatedUidaiResolver(), 10_000, 600, 60);
+        templates = new TemplateIndex();
+        reconciler = new PaymentReconciler(db, registry, 10_000, 2, 100, 50_000);
+        patients = new PatientController(manager, identity, reconciler, templates, 0.85, "");
+        patients.enrollDemoPatients();
+    }
+
+    // A fresh database for each call (except mysql), so trials do not see each
+    // other's rows; `dir` holds the embedded file
+    static String jdbcUrl(String backend, Path dir) {
+        return switch (backend) {
+            case "memory" -> TestDatabases.h2Url("bench");
+            case "embedded" -> "jdbc:h2:file:" + dir.resolve("kiosk" + DATABASES.incrementAndGet()).toAbsolutePath()
+                    + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE";
+            case "mysql" -> System.getProperty("bench.mysql.url",
+                    "jdbc:mysql://localhost:3306/hospital_queue_bench?createDatabaseIfNotExist=true&rewriteBatchedStatements=true");
+            default -> throw new IllegalArgumentException("Unknown backend " + backend);
+        };
+    }
+
+    // Empties the in-memory waiting queue between iterations
+    void drainQueue() {
+        while (manager.callNext() != null) {
+            // discard
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (writer instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        reconciler.close();
+        journal.close();
+        dataSource.close();
+        deleteTree(dir);
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.QueueEvent;
+
+// Time from publishing one queue event until every one of `displays`
+// subscribers has been handed it, with no coalescing delay. Sinks do no I/O,
+// so this is the broadcaster's own fan-out cost (one queue hop, then a virtual
+// thread per display).
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+
+    @Param({ "100", "1000", "5000" })
+    public int displays;
+
+    private QueueEventBroadcaster broadcaster;
+    private final AtomicReference<CountDownLatch> pending = new AtomicReference<>(new CountDownLatch(0));
+    private long n;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        broadcaster = new QueueEventBroadcaster(256, 0, 60_000);
+        for (int i = 0; i < displays; i++) {
+            broadcaster.subscribe(new QueueEventBroadcaster.Sink() {
+                @Override
+                public void send(List<QueueEvent> events, boolean resync) throws IOException {
+                    for (int e = 0; e < events.size(); e++) {
+                        pending.get().countDown();
+                    }
+                }
+
+                @Override
+                public void heartbeat() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        broadcaster.close();
+    }
+
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(displays);
+        pending.set(latch);
+        n++;
+        broadcaster.onEvent(new QueueEvent(QueueEvent.Type.ADDED, "HOS" + n, "HOS", "Bench", 40, 1,
+                System.currentTimeMillis()));
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Fan-out did not reach every display");
+        }
+    }
+}
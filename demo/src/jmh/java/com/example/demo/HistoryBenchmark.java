@@ -0,0 +1,132 @@
+package com.example.demo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.Patient;
+
+// Registration cost on a database holding a year of served patients, `perDay`
+// a day with tokens restarting daily (queue.token.reset-daily), either left in
+// the patients table (layout=kept, as before PatientArchiver) or moved to
+// patients_history (layout=archived, how long the move took is printed).
+//   register    the statements one registration costs: the INSERT, then the
+//               UPDATE marking it called, looked up by token and date
+//   loadWaiting the startup reload of today's queue (empty here, so this is
+//               the cost of finding today's waiting rows among the rest)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+
+    private static final int DAYS = 365;
+
+    @Param({ "memory", "embedded" })
+    public String backend;
+
+    @Param({ "kept", "archived" })
+    public String layout;
+
+    @Param({ "1000" })
+    public int perDay;
+
+    private Path dir;
+    private BenchmarkStack stack;
+    private JdbcPatientRepository repository;
+    private final AtomicLong next = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        dir = Files.createTempDirectory("kiosk-bench-db");
+        stack = new BenchmarkStack(BenchmarkStack.jdbcUrl(backend, dir), false, 20);
+        repository = new JdbcPatientRepository(stack.db);
+        LocalDate today = LocalDate.now();
+        try (Connection conn = stack.db.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO patients (name, age, token, visit_date, status) VALUES (?, ?, ?, ?, 'CALLED')")) {
+                for (int day = DAYS; day > 0; day--) {
+                    Date date = Date.valueOf(today.minusDays(day));
+                    for (int i = 1; i <= perDay; i++) {
+                        stmt.setString(1, "History " + i);
+                        stmt.setInt(2, 1 + i % 90);
+                        stmt.setString(3, "HOS" + i);
+                        stmt.setDate(4, date);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    conn.commit();
+                }
+            }
+            conn.setAutoCommit(true);
+        }
+        if (layout.equals("archived")) {
+            long start = System.nanoTime();
+            PatientArchiver archiver = new PatientArchiver(stack.db, 1000, LocalTime.MIDNIGHT,
+                    Clock.systemDefaultZone(), stack.registry);
+            int moved = archiver.archiveBefore(today);
+            System.out.printf("%nArchived %d rows in %d ms%n", moved, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        stack.close();
+        BenchmarkStack.deleteTree(dir);
+    }
+
+    @Benchmark
+    public int register() throws SQLException {
+        // Today's numbers are the ones every past day used too
+        String token = "HOS" + (1 + next.getAndIncrement() % perDay);
+        LocalDate today = LocalDate.now();
+        try (Connection conn = stack.db.getConnection();
+             PreparedStatement insert = conn.prepareStatement(PatientStatements.INSERT);
+             PreparedStatement called = conn.prepareStatement(PatientStatements.CALLED)) {
+            insert.setString(1, "Bench Patient");
+            insert.setInt(2, 42);
+            insert.setString(3, token);
+            insert.setObject(4, today);
+            insert.setLong(5, System.currentTimeMillis());
+            insert.executeUpdate();
+            called.setString(1, token);
+            called.setObject(2, today);
+            return called.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Patient> loadWaiting() throws SQLException {
+        return repository.loadWaiting();
+    }
+}
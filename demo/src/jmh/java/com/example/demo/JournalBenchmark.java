@@ -0,0 +1,62 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.Patient;
+
+// Cost of journaling one registration under each fsync policy. Every record is
+// checkpointed right away, as if the database had taken it, so the journal
+// compacts instead of filling up.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    @Param({ "ALWAYS", "INTERVAL", "NEVER" })
+    public Journal.FsyncPolicy fsync;
+
+    private static final Patient PATIENT = new Patient("Bench Patient", 42, "HOS12345");
+
+    private Path file;
+    private Journal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("kiosk-bench", ".journal");
+        journal = new Journal(file, 4 * 1024 * 1024, fsync, 100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long appendAdd() throws IOException {
+        long seq = journal.appendAdd(PATIENT, LocalDate.now());
+        journal.checkpoint(seq);
+        return seq;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Cold start of the packaged app the way a rebooted kiosk sees it: the time
+// from launching the process until /api/queue/departments answers, and its
+// resident memory (VmRSS from /proc, so Linux only) at that moment and after
+// 50 registrations. Every launch gets a fresh embedded database, so no MySQL
+// is needed. Variants, each run `runs` times:
+//   jar     java -jar target/demo-0.0.1-SNAPSHOT.jar, the fat jar as shipped today
+//   cds     the -Pcds layout in target/kiosk: extracted jar, AppCDS archive,
+//           Spring AOT initializers
+//   native  target/demo from -Pnative, when it has been built
+// Build with mvn -Pcds package (and -Pnative native:compile), then
+//   mvn -Pbenchmarks test-compile exec:exec -Dbench.main=com.example.demo.LaunchBenchmark -Dbench.args="5"
+// A variant whose files are missing is skipped; name variants after the run
+// count to pick some: -Dbench.args="5 jar cds".
+public class LaunchBenchmark {
+
+    private static final Duration READY_TIMEOUT = Duration.ofMinutes(2);
+    private static final String PAYLOAD = "{\"name\":\"Launch Bench\",\"age\":42}";
+
+    record Launch(long readyMs, long readyRssKb, long busyRssKb) {
+    }
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+    private final String java = ProcessHandle.current().info().command().orElse("java");
+
+    private Map<String, List<String>> variants() {
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        if (Files.exists(Path.of("target/demo-0.0.1-SNAPSHOT.jar"))) {
+            variants.put("jar", List.of(java, "-jar", "target/demo-0.0.1-SNAPSHOT.jar"));
+        }
+        if (Files.exists(Path.of("target/kiosk/demo.jsa"))) {
+            variants.put("cds", List.of(java, "-XX:SharedArchiveFile=target/kiosk/demo.jsa", "-Dspring.aot.enabled=true",
+                    "-jar", "target/kiosk/demo-0.0.1-SNAPSHOT.jar"));
+        }
+        if (Files.isExecutable(Path.of("target/demo"))) {
+            variants.put("native", List.of("target/demo"));
+        }
+        return variants;
+    }
+
+    private Launch launch(List<String> command) throws Exception {
+        Path dir = Files.createTempDirectory("kiosk-launch");
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<String> full = new ArrayList<>(command);
+        full.addAll(List.of("--server.port=" + port, "--kiosk.persistence=embedded",
+                "--kiosk.embedded.path=" + dir.resolve("kiosk"), "--queue.journal.path=" + dir.resolve("queue.journal")));
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(full).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            URI ready = URI.create("http://localhost:" + port + "/api/queue/departments");
+            long deadline = start + READY_TIMEOUT.toNanos();
+            while (!answers(ready)) {
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    throw new IllegalStateException("App did not come up: " + String.join(" ", command));
+                }
+                Thread.sleep(10);
+            }
+            long readyMs = (System.nanoTime() - start) / 1_000_000;
+            long readyRss = rssKb(process.pid());
+            URI add = URI.create("http://localhost:" + port + "/api/add-patient");
+            for (int i = 0; i < 50; i++) {
+                client.send(HttpRequest.newBuilder(add).header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(PAYLOAD)).build(), HttpResponse.BodyHandlers.discarding());
+            }
+            return new Launch(readyMs, readyRss, rssKb(process.pid()));
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            BenchmarkStack.deleteTree(dir);
+        }
+    }
+
+    private boolean answers(URI uri) {
+        try {
+            return client.send(HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(1)).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static long rssKb(long pid) throws IOException {
+        Path status = Path.of("/proc", Long.toString(pid), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return -1;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        LaunchBenchmark bench = new LaunchBenchmark();
+        Map<String, List<String>> variants = bench.variants();
+        if (args.length > 1) {
+            variants.keySet().retainAll(List.of(args).subList(1, args.length));
+        }
+        System.out.printf("%-8s %6s %10s %10s %10s %12s %12s%n", "variant", "runs", "ready ms", "min ms", "max ms",
+                "ready RSS MB", "busy RSS MB");
+        for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+            long[] ready = new long[runs], readyRss = new long[runs], busyRss = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                Launch launch = bench.launch(variant.getValue());
+                ready[i] = launch.readyMs();
+                readyRss[i] = launch.readyRssKb();
+                busyRss[i] = launch.busyRssKb();
+            }
+            System.out.printf("%-8s %6d %10d %10d %10d %12d %12d%n", variant.getKey(), runs, median(ready),
+                    Arrays.stream(ready).min().orElse(0), Arrays.stream(ready).max().orElse(0),
+                    median(readyRss) / 1024, median(busyRss) / 1024);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.demo;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop HTTP load against a running backend, for the whole stack
+// (Tomcat, Jackson, Hikari, MySQL) that the JMH benchmarks leave out. Each of
+// `-c` virtual-thread clients sends its next request as soon as the previous
+// one returns, picking the endpoint by the weights in `-m`. After a warm-up,
+// prints throughput, status codes and latency percentiles per endpoint.
+//
+//   -u  base URL                          (http://localhost:8080)
+//   -c  concurrent clients                (64)
+//   -d  measured seconds                  (30)
+//   -w  warm-up seconds                   (5)
+//   -m  endpoint weights                  (fetch=40,biometric=30,register=20,verify=10)
+//       fetch, biometric, register, verify, order (order needs the stub-gateway profile)
+//
+// Example: start the app with --spring.profiles.active=stub-gateway, then
+//   mvn -Pbenchmarks test-compile exec:exec -Dbench.main=com.example.demo.LoadGenerator -Dbench.args="-c 128 -d 60"
+public class LoadGenerator {
+
+    enum Endpoint { FETCH, BIOMETRIC, REGISTER, VERIFY, ORDER }
+
+    private static final String[] AADHAAR = {
+            "123456789012", "9876 5432 1098", "1111-2222-3333", "444455556666", "12345" };
+
+    // Latency in microseconds, 8 sub-buckets per power of two (about 12% resolution)
+    static final class Histogram {
+        private static final int SUB = 8;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+        private final AtomicLong maxMicros = new AtomicLong();
+        private final LongAdder count = new LongAdder();
+
+        void record(long nanos) {
+            long micros = Math.max(1, nanos / 1_000);
+            buckets.incrementAndGet(bucket(micros));
+            maxMicros.accumulateAndGet(micros, Math::max);
+            count.increment();
+        }
+
+        private static int bucket(long micros) {
+            if (micros < SUB) {
+                return (int) micros;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exp - 3)) & (SUB - 1);
+            return (exp - 2) * SUB + sub;
+        }
+
+        // Upper bound of a bucket, in microseconds
+        private static long upper(int bucket) {
+            if (bucket < SUB) {
+                return bucket;
+            }
+            int exp = bucket / SUB + 2;
+            long sub = bucket % SUB;
+            return ((SUB + sub + 1) << (exp - 3)) - 1;
+        }
+
+        long percentileMicros(double p) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * p), seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upper(i), maxMicros.get());
+                }
+            }
+            return maxMicros.get();
+        }
+    }
+
+    static final class Stats {
+        final Histogram latency = new Histogram();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder errors = new LongAdder();
+
+        void record(int status, long nanos) {
+            latency.record(nanos);
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+    }
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Endpoint[] wheel;
+    private final byte[] template = new byte[512];
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile Map<Endpoint, Stats> stats = newStats();
+
+    LoadGenerator(String baseUrl, Map<Endpoint, Integer> weights) {
+        this.baseUrl = baseUrl;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        List<Endpoint> slots = new ArrayList<>();
+        weights.forEach((endpoint, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                slots.add(endpoint);
+            }
+        });
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("No endpoint has a positive weight");
+        }
+        this.wheel = slots.toArray(new Endpoint[0]);
+        new SplittableRandom(7).nextBytes(template);
+    }
+
+    private static Map<Endpoint, Stats> newStats() {
+        Map<Endpoint, Stats> m = new LinkedHashMap<>();
+        for (Endpoint e : Endpoint.values()) {
+            m.put(e, new Stats());
+        }
+        return m;
+    }
+
+    private HttpRequest request(Endpoint endpoint, SplittableRandom random, int client) {
+        long n = sequence.incrementAndGet();
+        HttpRequest.Builder b = HttpRequest.newBuilder().timeout(Duration.ofSeconds(10));
+        return switch (endpoint) {
+            case FETCH -> b.uri(URI.create(baseUrl + "/api/fetch-aadhar/"
+                    + AADHAAR[random.nextInt(AADHAAR.length)].replace(" ", "%20"))).GET().build();
+            case BIOMETRIC -> b.uri(URI.create(baseUrl + "/api/biometric/authenticate?mode=mock"))
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(template)).build();
+            case REGISTER -> b.uri(URI.create(baseUrl + "/api/add-patient"))
+                    .header("Content-Type", "application/json")
+                    .header("X-Kiosk-Id", "load-" + client)
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"name\":\"Load " + n + "\",\"age\":" + (18 + random.nextInt(70)) + "}")).build();
+            case VERIFY -> b.uri(URI.create(baseUrl + "/api/razorpay/verify"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"razorpay_order_id\":\"order_" + n
+                            + "\",\"razorpay_payment_id\":\"pay_" + n
+                            + "\",\"razorpay_signature\":\"0000000000000000000000000000000000000000000000000000000000000000\"}"))
+                    .build();
+            case ORDER -> b.uri(URI.create(baseUrl + "/api/razorpay/create-order"))
+                    .header("Content-Type", "application/json")
+                    .header("Idempotency-Key", "load-" + n)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"amount\":500,\"currency\":\"INR\"}")).build();
+        };
+    }
+
+    private void runClient(int id, long deadline) {
+        SplittableRandom random = new SplittableRandom(id);
+        while (System.nanoTime() - deadline < 0) {
+            Endpoint endpoint = wheel[random.nextInt(wheel.length)];
+            HttpRequest req = request(endpoint, random, id);
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> resp = client.send(req, HttpResponse.BodyHandlers.discarding());
+                stats.get(endpoint).record(resp.statusCode(), System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                stats.get(endpoint).errors.increment();
+            }
+        }
+    }
+
+    void run(int clients, int warmupSeconds, int seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long warmupEnd = start + Duration.ofSeconds(warmupSeconds).toNanos();
+        long end = warmupEnd + Duration.ofSeconds(seconds).toNanos();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                int id = i;
+                pool.execute(() -> runClient(id, end));
+            }
+            Thread.sleep(Duration.ofSeconds(warmupSeconds));
+            // Drop warm-up samples; in-flight requests land in the new set
+            stats = newStats();
+            long measuredFrom = System.nanoTime();
+            Thread.sleep(Duration.ofNanos(Math.max(0, end - measuredFrom)));
+            report((System.nanoTime() - measuredFrom) / 1e9, clients);
+        }
+    }
+
+    private void report(double seconds, int clients) {
+        System.out.printf("%d clients, %.1f s measured against %s%n", clients, seconds, baseUrl);
+        System.out.printf("%-10s %10s %9s %9s %9s %9s %9s %7s  %s%n",
+                "endpoint", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "errors", "status");
+        long total = 0;
+        for (Map.Entry<Endpoint, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue();
+            long count = s.latency.count.sum();
+            if (count == 0 && s.errors.sum() == 0) {
+                continue;
+            }
+            total += count;
+            Map<Integer, Long> statuses = new TreeMap<>();
+            s.statuses.forEach((status, n) -> statuses.put(status, n.sum()));
+            System.out.printf("%-10s %10d %9.1f %9.2f %9.2f %9.2f %9.2f %7d  %s%n",
+                    e.getKey().name().toLowerCase(), count, count / seconds,
+                    s.latency.percentileMicros(0.50) / 1000.0, s.latency.percentileMicros(0.90) / 1000.0,
+                    s.latency.percentileMicros(0.99) / 1000.0, s.latency.maxMicros.get() / 1000.0,
+                    s.errors.sum(), statuses);
+        }
+        System.out.printf("total      %10d %9.1f%n", total, total / seconds);
+    }
+
+    static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Bad mix entry: " + part);
+            }
+            weights.put(Endpoint.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080";
+        int clients = 64, seconds = 30, warmup = 5;
+        String mix = "fetch=40,biometric=30,register=20,verify=10";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-u" -> url = args[i + 1];
+                case "-c" -> clients = Integer.parseInt(args[i + 1]);
+                case "-d" -> seconds = Integer.parseInt(args[i + 1]);
+                case "-w" -> warmup = Integer.parseInt(args[i + 1]);
+                case "-m" -> mix = args[i + 1];
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        new LoadGenerator(url, parseMix(mix)).run(clients, warmup, seconds);
+    }
+}
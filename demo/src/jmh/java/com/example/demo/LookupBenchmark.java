@@ -0,0 +1,165 @@
+package com.example.demo;
+
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.example.Patient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+// Read-only kiosk requests: /api/fetch-aadhar and /api/biometric/authenticate.
+// The JSON biometric case includes parsing the request body, since that is
+// what the binary variant saves; both call the same matcher afterwards. The
+// setup also prints the bytes each variant puts on the wire per capture, for
+// the scanner bridge's reply (/capture vs /capture.bin) and the request body.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    // Templates enrolled besides the six demo patients
+    @Param({ "1000", "100000" })
+    public int enrolled;
+
+    private BenchmarkStack stack;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] template;
+    private byte[] jsonBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stack = new BenchmarkStack(false, 20);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < enrolled; i++) {
+            long[] code = new long[TemplateIndex.WORDS];
+            for (int w = 0; w < code.length; w++) {
+                code[w] = random.nextLong();
+            }
+            stack.templates.enroll(new Patient("P" + i, 30, "PENDING"), code);
+        }
+        // A typical ISO/ANSI minutiae template is a few hundred bytes
+        template = new byte[512];
+        random.nextBytes(template);
+        jsonBody = mapper.writeValueAsBytes(Map.of("template", Base64.getEncoder().encodeToString(template), "mode", "mock"));
+        reportWireBytes();
+        // Resolve once so the cached lookup below really is a cache hit
+        stack.patients.getAadharDetails("2222 3333 4444");
+    }
+
+    // Bodies only; headers are about the same either way
+    private void reportWireBytes() {
+        // ScannerBridge's /capture reply: {"template":"<base64>"}
+        int bridgeJson = "{\"template\":\"\"}".length() + Base64.getEncoder().encode(template).length;
+        System.out.printf("%n%-24s %8s %8s %7s%n", "bytes per capture", "json", "binary", "saved");
+        System.out.printf("%-24s %8d %8d %6.0f%%%n", "bridge -> kiosk", bridgeJson, template.length,
+                100.0 * (bridgeJson - template.length) / bridgeJson);
+        System.out.printf("%-24s %8d %8d %6.0f%%%n", "kiosk -> server", jsonBody.length, template.length,
+                100.0 * (jsonBody.length - template.length) / jsonBody.length);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        stack.close();
+    }
+
+    @Benchmark
+    public Patient fetchAadharIndexed() {
+        return stack.patients.getAadharDetails("1234 5678 9012");
+    }
+
+    @Benchmark
+    public Patient fetchAadharCached() {
+        return stack.patients.getAadharDetails("2222-3333-4444");
+    }
+
+    @Benchmark
+    public Patient fetchAadharInvalid() {
+        return stack.patients.getAadharDetails("12345");
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> authenticateJson() throws Exception {
+        Map<String, String> payload = mapper.readValue(jsonBody, Map.class);
+        return stack.patients.authenticateBiometric(payload);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> authenticateBinary() throws Exception {
+        return stack.patients.authenticateBiometricBinary(new BodyRequest(template), "mock");
+    }
+
+    // Octet-stream request whose body can be read once; cheaper than building a
+    // full MockHttpServletRequest per call
+    private static final class BodyRequest extends HttpServletRequestWrapper {
+        private static final HttpServletRequest BASE = new MockHttpServletRequest();
+        private final byte[] body;
+
+        BodyRequest(byte[] body) {
+            super(BASE);
+            this.body = body;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+// Payment signature checks. `legacy` is verifyPayment as it was before
+// SignatureVerifier (new Mac per call, String.format hex, string compare);
+// `pooled` is SignatureVerifier; `endpoint` is RazorpayController.verifyPayment.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class PaymentBenchmark {
+
+    private static final String SECRET = "bench_key_secret";
+    private static final String ORDER_ID = "order_Nf3kXcVq8sY2mZ";
+    private static final String PAYMENT_ID = "pay_Nf3lAb9cDe7fGh";
+
+    private String signature;
+    private SignatureVerifier verifier;
+    private BenchmarkStack stack;
+    private RazorpayController controller;
+    private Map<String, String> body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        signature = HexFormat.of().formatHex(mac.doFinal((ORDER_ID + "|" + PAYMENT_ID).getBytes(StandardCharsets.UTF_8)));
+        verifier = new SignatureVerifier(SECRET);
+
+        stack = new BenchmarkStack(false, 20);
+        PaymentGatewayClient gateway = new PaymentGatewayClient(stack.registry, "http://localhost:1", "", "",
+                1_000, 1_000, 0, 10, 5, 1_000);
+        controller = new RazorpayController(gateway, new PaymentOrderCache(stack.db, false, 100, 1), stack.reconciler);
+        ReflectionTestUtils.setField(controller, "keySecret", SECRET);
+        controller.initVerifier();
+        body = new HashMap<>();
+        body.put("razorpay_order_id", ORDER_ID);
+        body.put("razorpay_payment_id", PAYMENT_ID);
+        body.put("razorpay_signature", signature);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        stack.close();
+    }
+
+    @Benchmark
+    public boolean legacy() throws Exception {
+        String payload = ORDER_ID + "|" + PAYMENT_ID;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) sb.append(String.format("%02x", b));
+        String expected = sb.toString();
+        return expected.equalsIgnoreCase(signature.toLowerCase())
+                || Base64.getEncoder().encodeToString(digest).equals(signature);
+    }
+
+    @Benchmark
+    public boolean pooled() {
+        return verifier.verify(ORDER_ID, PAYMENT_ID, signature);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> endpoint() throws Exception {
+        return controller.verifyPayment(body);
+    }
+}
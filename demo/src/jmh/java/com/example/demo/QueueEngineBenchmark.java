@@ -0,0 +1,51 @@
+package com.example.demo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.Patient;
+import com.example.QueueEngine;
+
+// QueueEngine round trips (enqueue, position, poll) on one shared queue. Run
+// with -t 1, 2, 4, 8 to see how throughput scales with threads:
+//   -Dbench.args="QueueEngineBenchmark -t 4"
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueEngineBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final QueueEngine queue = new QueueEngine();
+    }
+
+    @State(Scope.Thread)
+    public static class Tokens {
+        private static int threads;
+        final String prefix = "B" + nextThread() + "-";
+        long next;
+
+        private static synchronized int nextThread() {
+            return threads++;
+        }
+    }
+
+    @Benchmark
+    public Patient roundTrip(Shared shared, Tokens tokens) {
+        String token = tokens.prefix + tokens.next++;
+        shared.queue.enqueue(new Patient("x", 40, token));
+        shared.queue.position(token);
+        return shared.queue.poll();
+    }
+}
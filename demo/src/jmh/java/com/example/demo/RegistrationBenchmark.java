@@ -0,0 +1,87 @@
+package com.example.demo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+// /api/add-patient end to end per database backend (see BenchmarkStack; add
+// mysql with -p backend=mysql): token, journal, write-behind queue and the
+// in-memory waiting queue. Write-behind is used because its bounded queue
+// pushes back once the database falls behind, so the score reflects database
+// throughput rather than a growing backlog. insertRow is the single INSERT the
+// async writer issues per registration, for comparison.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RegistrationBenchmark {
+
+    private static final Map<String, Object> PAYLOAD = Map.of("name", "Bench Patient", "age", 42);
+
+    @Param({ "memory", "embedded" })
+    public String backend;
+
+    private Path dir;
+    private BenchmarkStack stack;
+    private final AtomicLong rows = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("kiosk-bench-db");
+        stack = new BenchmarkStack(BenchmarkStack.jdbcUrl(backend, dir), true, 20);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        stack.drainQueue();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        stack.close();
+        BenchmarkStack.deleteTree(dir);
+    }
+
+    @Benchmark
+    public ResponseEntity<String> addPatient() {
+        return stack.patients.addPatient(PAYLOAD, "bench-kiosk");
+    }
+
+    @Benchmark
+    public int insertRow() throws SQLException {
+        try (Connection conn = stack.db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PatientStatements.INSERT)) {
+            stmt.setString(1, "Bench Patient");
+            stmt.setInt(2, 42);
+            stmt.setString(3, "ROW" + System.nanoTime() + "-" + rows.incrementAndGet());
+            stmt.setObject(4, LocalDate.now());
+            stmt.setLong(5, System.currentTimeMillis());
+            return stmt.executeUpdate();
+        }
+    }
+}
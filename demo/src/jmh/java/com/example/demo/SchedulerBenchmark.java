@@ -0,0 +1,234 @@
+package com.example.demo;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.DepartmentScheduler;
+import com.example.Patient;
+import com.example.Priority;
+
+// DepartmentScheduler under a simulated clinic day. `patients` registrations
+// arrive over ten hours across five departments (2% emergencies, 15%
+// appointments, ages 1-90), 60% of them in the first three hours, each shown a
+// position and wait estimate. Each department has enough doctors to be 95%
+// busy over the whole day, so queues build up in the morning rush.
+//   day      the whole day, in simulated time
+//   callNext one call and one new arrival with `waiting` patients queued;
+//            selection looks at lane heads only, so what grows with the queue
+//            is cache and GC pressure from the patients held, not the work
+// main() runs one day and prints waits per priority class and how far the
+// estimates were off: -Dbench.main=com.example.demo.SchedulerBenchmark
+// -Dbench.args="50000".
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    static final String[] DEPARTMENTS = { "HOS", "CAR", "END", "NEP", "OBS" };
+    static final long DAY_MS = Duration.ofHours(10).toMillis();
+    static final long CONSULT_MS = Duration.ofMinutes(8).toMillis();
+    static final long IDLE_RECHECK_MS = Duration.ofMinutes(1).toMillis();
+    static final long RUSH_MS = Duration.ofHours(3).toMillis();
+
+    @State(Scope.Benchmark)
+    public static class Clinic {
+        @Param({ "10000", "50000" })
+        public int patients;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Queued {
+        @Param({ "1000", "100000" })
+        public int waiting;
+
+        DepartmentScheduler scheduler;
+        SplittableRandom random;
+        long next;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            scheduler = scheduler(Clock.systemUTC());
+            random = new SplittableRandom(7);
+            for (int i = 0; i < waiting; i++) {
+                scheduler.enqueue(patient(random, DEPARTMENTS[i % DEPARTMENTS.length] + next++));
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Day.Result day(Clinic clinic) {
+        return Day.run(clinic.patients, 42);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Patient callNext(Queued queued) {
+        String department = DEPARTMENTS[(int) (queued.next % DEPARTMENTS.length)];
+        Patient called = queued.scheduler.poll(department);
+        queued.scheduler.enqueue(patient(queued.random, department + queued.next++));
+        return called;
+    }
+
+    static DepartmentScheduler scheduler(Clock clock) {
+        Map<String, String> departments = new LinkedHashMap<>();
+        for (String code : DEPARTMENTS) {
+            departments.put(code, code);
+        }
+        return new DepartmentScheduler(departments, 60, Duration.ofMinutes(30), Duration.ofMinutes(15),
+                Duration.ofMillis(CONSULT_MS), clock);
+    }
+
+    static Patient patient(SplittableRandom random, String token) {
+        Patient p = new Patient("Sim", 1 + random.nextInt(90), token);
+        double r = random.nextDouble();
+        p.setPriority(r < 0.02 ? Priority.EMERGENCY : r < 0.17 ? Priority.APPOINTMENT : null);
+        return p;
+    }
+
+    // Time only moves when the simulation says so
+    static final class SimClock extends Clock {
+        long millis;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    // Discrete-event run of one day: arrivals in time order interleaved with
+    // doctors becoming free; a doctor with nobody waiting checks again a minute later
+    static final class Day {
+
+        record Result(long[][] waits, long[] estimateErrors, int doctors) {
+        }
+
+        private record Free(long at, int department) {
+        }
+
+        static Result run(int patients, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            SimClock clock = new SimClock();
+            clock.millis = 1;
+            DepartmentScheduler scheduler = scheduler(clock);
+
+            long[] arrivals = new long[patients];
+            for (int i = 0; i < patients; i++) {
+                arrivals[i] = 1 + (random.nextDouble() < 0.6
+                        ? random.nextLong(RUSH_MS) : RUSH_MS + random.nextLong(DAY_MS - RUSH_MS));
+            }
+            Arrays.sort(arrivals);
+
+            double perDepartmentRate = (double) patients / DEPARTMENTS.length / DAY_MS;
+            int doctors = (int) Math.ceil(perDepartmentRate * CONSULT_MS / 0.95);
+            PriorityQueue<Free> free = new PriorityQueue<>((a, b) -> Long.compare(a.at, b.at));
+            for (int d = 0; d < DEPARTMENTS.length; d++) {
+                for (int k = 0; k < doctors; k++) {
+                    free.add(new Free(1, d));
+                }
+            }
+
+            Map<String, long[]> joined = new HashMap<>(patients * 2);
+            List<List<Long>> waits = new ArrayList<>();
+            for (int c = 0; c < Priority.values().length; c++) {
+                waits.add(new ArrayList<>());
+            }
+            long[] errors = new long[patients];
+            int served = 0;
+            int arrived = 0;
+            while (served < patients) {
+                Free doctor = free.peek();
+                if (arrived < patients && arrivals[arrived] <= doctor.at) {
+                    clock.millis = arrivals[arrived];
+                    Patient p = patient(random, DEPARTMENTS[random.nextInt(DEPARTMENTS.length)] + arrived);
+                    scheduler.enqueue(p);
+                    joined.put(p.getToken(), new long[] { clock.millis, scheduler.estimatedWaitMillis(p.getToken()) });
+                    arrived++;
+                    continue;
+                }
+                free.poll();
+                clock.millis = doctor.at;
+                Patient next = scheduler.poll(DEPARTMENTS[doctor.department]);
+                if (next == null) {
+                    free.add(new Free(doctor.at + IDLE_RECHECK_MS, doctor.department));
+                    continue;
+                }
+                long[] joinedAt = joined.get(next.getToken());
+                long wait = clock.millis - joinedAt[0];
+                waits.get(next.getPriority().ordinal()).add(wait);
+                errors[served++] = Math.abs(wait - joinedAt[1]);
+                long consult = (long) (-Math.log(1 - random.nextDouble()) * CONSULT_MS);
+                free.add(new Free(doctor.at + Math.max(1, consult), doctor.department));
+            }
+
+            long[][] byClass = new long[waits.size()][];
+            for (int c = 0; c < byClass.length; c++) {
+                byClass[c] = waits.get(c).stream().mapToLong(Long::longValue).sorted().toArray();
+            }
+            Arrays.sort(errors);
+            return new Result(byClass, errors, doctors);
+        }
+    }
+
+    public static void main(String[] args) {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        long start = System.nanoTime();
+        Day.Result result = Day.run(patients, 42);
+        System.out.printf("%d patients, %d departments, %d doctors each, simulated in %d ms%n", patients,
+                DEPARTMENTS.length, result.doctors(), (System.nanoTime() - start) / 1_000_000);
+        System.out.printf("%-12s %8s %10s %10s %10s%n", "class", "patients", "mean min", "p95 min", "max min");
+        for (Priority c : Priority.values()) {
+            long[] w = result.waits()[c.ordinal()];
+            if (w.length == 0) {
+                continue;
+            }
+            System.out.printf("%-12s %8d %10.1f %10.1f %10.1f%n", c, w.length,
+                    Arrays.stream(w).average().orElse(0) / 60_000.0, w[(int) (w.length * 0.95)] / 60_000.0,
+                    w[w.length - 1] / 60_000.0);
+        }
+        long[] e = result.estimateErrors();
+        System.out.printf("estimate error: median %.1f min, p90 %.1f min%n", e[e.length / 2] / 60_000.0,
+                e[(int) (e.length * 0.9)] / 60_000.0);
+    }
+}
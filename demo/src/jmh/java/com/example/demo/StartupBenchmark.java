@@ -0,0 +1,79 @@
+package com.example.demo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time for a freshly started JVM to bring the backend up on each database:
+// open the pool, check the schema and rebuild the waiting queue from `rows`
+// stored registrations. One cold shot per fork, like a kiosk being switched on.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({ "memory", "embedded" })
+    public String backend;
+
+    @Param({ "0", "10000" })
+    public int rows;
+
+    private Path dir;
+    private String url;
+    private BenchmarkStack stack;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        dir = Files.createTempDirectory("kiosk-bench-db");
+        url = BenchmarkStack.jdbcUrl(backend, dir);
+        try (BenchmarkStack seeding = new BenchmarkStack(url, false, 20);
+             Connection conn = seeding.db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PatientStatements.INSERT)) {
+            for (int i = 1; i <= rows; i++) {
+                stmt.setString(1, "P" + i);
+                stmt.setInt(2, 30);
+                stmt.setString(3, "HOS" + i);
+                stmt.setObject(4, LocalDate.now());
+                stmt.setLong(5, System.currentTimeMillis());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Benchmark
+    public int start() throws Exception {
+        stack = new BenchmarkStack(url, false, 20);
+        return stack.manager.waitingCount();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws Exception {
+        stack.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws Exception {
+        BenchmarkStack.deleteTree(dir);
+    }
+}
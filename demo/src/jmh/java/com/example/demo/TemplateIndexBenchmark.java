@@ -0,0 +1,71 @@
+package com.example.demo;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.Patient;
+
+// 1:N biometric search. Indexes above TemplateIndex.PARALLEL_THRESHOLD are
+// split across the common pool, so the larger sizes also show the fork/join
+// speed-up on this machine.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TemplateIndexBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int size;
+
+    private TemplateIndex index;
+    private long[] probe;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(1);
+        index = new TemplateIndex();
+        long[] target = null;
+        for (int i = 0; i < size; i++) {
+            long[] code = new long[TemplateIndex.WORDS];
+            for (int w = 0; w < code.length; w++) {
+                code[w] = random.nextLong();
+            }
+            index.enroll(new Patient("P" + i, 30, "PENDING"), code);
+            if (i == size / 2) {
+                target = code;
+            }
+        }
+        // A re-capture of an enrolled finger: a few bits differ from the stored code
+        probe = target.clone();
+        for (int f = 0; f < 12; f++) {
+            int bit = random.nextInt(TemplateIndex.BITS);
+            probe[bit >>> 6] ^= 1L << (bit & 63);
+        }
+    }
+
+    @Benchmark
+    public List<TemplateIndex.Match> searchTop1() {
+        return index.search(probe, 1, 0.85);
+    }
+
+    @Benchmark
+    public List<TemplateIndex.Match> searchTop10() {
+        return index.search(probe, 10, 0.0);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Token generation. `allocate` is TokenAllocator against token_sequences on H2;
+// blockSize 1 means one database round trip per token. `scanLatest` is the
+// query the original QueueManager.generateNextToken ran for every token.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TokenBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Allocator {
+        @Param({ "1", "20", "100" })
+        public int blockSize;
+
+        BenchmarkStack stack;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            stack = new BenchmarkStack(false, blockSize);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            stack.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Table {
+        @Param({ "10000" })
+        public int existingRows;
+
+        BenchmarkStack stack;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            stack = new BenchmarkStack(false, 20);
+            try (Connection conn = stack.db.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(PatientStatements.INSERT)) {
+                for (int i = 1; i <= existingRows; i++) {
+                    stmt.setString(1, "P" + i);
+                    stmt.setInt(2, 30);
+                    stmt.setString(3, String.format("HOS%03d", i));
+                    stmt.setObject(4, LocalDate.now());
+                    stmt.setLong(5, System.currentTimeMillis());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            stack.close();
+        }
+    }
+
+    @Benchmark
+    public String allocate(Allocator state) {
+        return state.stack.tokens.next("HOS");
+    }
+
+    @Benchmark
+    public String scanLatest(Table state) throws SQLException {
+        try (Connection conn = state.stack.db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT token FROM patients ORDER BY token DESC LIMIT 1")) {
+            int next = rs.next() ? Integer.parseInt(rs.getString(1).substring(3)) + 1 : 1;
+            return String.format("HOS%03d", next);
+        }
+    }
+}
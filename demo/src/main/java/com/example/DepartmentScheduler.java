@@ -0,0 +1,403 @@
+package com.example;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Waiting queues per department. Each department keeps one QueueEngine per
+// Priority class and orders patients by arrival time moved earlier by their
+// class's head start (emergencies always go first). Every lane is FIFO in that
+// order, so only the lane heads compete: picking the next patient compares one
+// head per class, constant in the number waiting, and joining stays lock-free.
+// Calls within a department are serialized so two doctors never get the same
+// patient.
+//
+// The wait estimate is the patients ahead times the department's service
+// interval, a moving average of the time between calls while patients were
+// waiting (with several doctors that is the time per consultation divided by
+// the number of doctors).
+public class DepartmentScheduler {
+
+    public static final String DEFAULT_DEPARTMENT = "HOS";
+
+    private static final Priority[] CLASSES = Priority.values();
+    // Beats any arrival time without overflowing when added to one
+    private static final long ALWAYS_FIRST = Long.MAX_VALUE / 4;
+    private static final double SMOOTHING = 0.2;
+    // Longer gaps between calls are breaks, not consultations
+    private static final long MAX_SERVICE_GAP_MS = Duration.ofMinutes(30).toMillis();
+    private static final Pattern WORDS = Pattern.compile("[^\\p{L}]+");
+
+    private static final class Department {
+        final String code;
+        final String name;
+        final Set<String> keywords = new HashSet<>();
+        final QueueEngine[] lanes = new QueueEngine[CLASSES.length];
+        volatile double serviceMillis;
+        volatile long lastCallAt;
+
+        Department(String code, String keywords, long serviceMillis) {
+            this.code = code;
+            String[] words = keywords.split("\\|");
+            this.name = words[0].trim();
+            for (String word : words) {
+                this.keywords.add(word.trim().toLowerCase(Locale.ROOT));
+            }
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new QueueEngine();
+            }
+            this.serviceMillis = serviceMillis;
+        }
+    }
+
+    private record Waiting(long key, int lane, Patient patient) {
+    }
+
+    private final Map<String, Department> departments = new LinkedHashMap<>();
+    private final Department fallback;
+    private final long[] headStart = new long[CLASSES.length];
+    private final int elderlyAge;
+    private final Clock clock;
+
+    // `departments` maps token prefix to keywords ("Cardiologist|Cardiology"),
+    // the first keyword being the display name; the first entry is the default
+    public DepartmentScheduler(Map<String, String> departments, int elderlyAge, Duration appointmentHeadStart,
+                               Duration elderlyHeadStart, Duration initialServiceTime, Clock clock) {
+        if (departments.isEmpty()) {
+            throw new IllegalArgumentException("At least one department is required");
+        }
+        for (Map.Entry<String, String> e : departments.entrySet()) {
+            String code = e.getKey().trim().toUpperCase(Locale.ROOT);
+            this.departments.put(code, new Department(code, e.getValue(), initialServiceTime.toMillis()));
+        }
+        this.fallback = this.departments.values().iterator().next();
+        this.headStart[Priority.EMERGENCY.ordinal()] = ALWAYS_FIRST;
+        this.headStart[Priority.APPOINTMENT.ordinal()] = appointmentHeadStart.toMillis();
+        this.headStart[Priority.ELDERLY.ordinal()] = elderlyHeadStart.toMillis();
+        this.elderlyAge = elderlyAge;
+        this.clock = clock;
+    }
+
+    // A single general queue, the behaviour before departments existed
+    public static DepartmentScheduler singleQueue() {
+        return new DepartmentScheduler(Map.of(DEFAULT_DEPARTMENT, "General"), 60, Duration.ofMinutes(30),
+                Duration.ofMinutes(15), Duration.ofMinutes(5), Clock.systemUTC());
+    }
+
+    public List<String> departments() {
+        return List.copyOf(departments.keySet());
+    }
+
+    public boolean isDepartment(String code) {
+        return code != null && departments.containsKey(code.trim().toUpperCase(Locale.ROOT));
+    }
+
+    // Department for a registration: a configured code, or a keyword among the
+    // words of `hint` such as the doctor "Dr. X (Cardiologist)"; else the default
+    public String resolve(String hint) {
+        if (hint == null || hint.isBlank()) {
+            return fallback.code;
+        }
+        Department exact = departments.get(hint.trim().toUpperCase(Locale.ROOT));
+        if (exact != null) {
+            return exact.code;
+        }
+        for (String word : WORDS.split(hint.toLowerCase(Locale.ROOT))) {
+            for (Department d : departments.values()) {
+                if (d.keywords.contains(word)) {
+                    return d.code;
+                }
+            }
+        }
+        return fallback.code;
+    }
+
+    // Tokens are the department code followed by digits
+    public String departmentOf(String token) {
+        return byToken(token).code;
+    }
+
+    // Emergencies and appointments keep their class; everyone else is elderly
+    // or general by age
+    public Priority classify(Patient p) {
+        Priority given = p.getPriority();
+        if (given == Priority.EMERGENCY || given == Priority.APPOINTMENT) {
+            return given;
+        }
+        return p.getAge() >= elderlyAge ? Priority.ELDERLY : Priority.GENERAL;
+    }
+
+    // Fills in a missing department (from the token) and the priority class
+    public boolean enqueue(Patient p) {
+        return enqueue(p, clock.millis());
+    }
+
+    // With the arrival time given, as when replaying a shared log
+    public boolean enqueue(Patient p, long arrivedAt) {
+        Department d = p.getDepartment() == null ? byToken(p.getToken()) : lookup(p.getDepartment());
+        if (d == null) {
+            d = fallback;
+        }
+        if (find(d, p.getToken()) >= 0) {
+            return false;
+        }
+        p.setDepartment(d.code);
+        p.setPriority(classify(p));
+        return d.lanes[p.getPriority().ordinal()].enqueue(p, arrivedAt);
+    }
+
+    // Next patient across all departments (the one who has waited longest
+    // after head starts), or null if nobody is waiting
+    public Patient poll() {
+        return poll(clock.millis());
+    }
+
+    // `now` is the time of the call, used for the service interval
+    public Patient poll(long now) {
+        Department best = null;
+        long bestKey = Long.MAX_VALUE;
+        for (Department d : departments.values()) {
+            for (int i = 0; i < CLASSES.length; i++) {
+                long head = d.lanes[i].headArrivedAt();
+                if (head != Long.MAX_VALUE && (best == null || head - headStart[i] < bestKey)) {
+                    best = d;
+                    bestKey = head - headStart[i];
+                }
+            }
+        }
+        return best == null ? null : poll(best, now);
+    }
+
+    // Next patient of one department, or null if none is waiting there
+    public Patient poll(String department) {
+        return poll(department, clock.millis());
+    }
+
+    public Patient poll(String department, long now) {
+        Department d = lookup(department);
+        return d == null ? null : poll(d, now);
+    }
+
+    private Patient poll(Department d, long now) {
+        synchronized (d) {
+            while (true) {
+                int best = -1;
+                long bestKey = Long.MAX_VALUE;
+                for (int i = 0; i < CLASSES.length; i++) {
+                    long head = d.lanes[i].headArrivedAt();
+                    // Ties go to the more urgent class, which comes first
+                    if (head != Long.MAX_VALUE && (best < 0 || head - headStart[i] < bestKey)) {
+                        best = i;
+                        bestKey = head - headStart[i];
+                    }
+                }
+                if (best < 0) {
+                    return null;
+                }
+                Patient next = d.lanes[best].poll();
+                if (next != null) {
+                    recordCall(d, bestKey + headStart[best], now);
+                    return next;
+                }
+                // The head was deleted meanwhile; look again
+            }
+        }
+    }
+
+    // Only calls made while this patient was already waiting measure the
+    // service interval; otherwise the doctor was idle in between
+    private void recordCall(Department d, long arrivedAt, long now) {
+        long last = d.lastCallAt;
+        if (last > 0 && arrivedAt <= last) {
+            long gap = now - last;
+            if (gap >= 0 && gap <= MAX_SERVICE_GAP_MS) {
+                d.serviceMillis += SMOOTHING * (gap - d.serviceMillis);
+            }
+        }
+        d.lastCallAt = now;
+    }
+
+    public Patient remove(String token) {
+        Department d = byToken(token);
+        for (QueueEngine lane : d.lanes) {
+            Patient removed = lane.remove(token);
+            if (removed != null) {
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    // Removes every patient who arrived before `time`; returns them
+    public List<Patient> removeArrivedBefore(long time) {
+        List<Patient> removed = new ArrayList<>();
+        for (Department d : departments.values()) {
+            for (QueueEngine lane : d.lanes) {
+                List<String> stale = new ArrayList<>();
+                lane.forEachWaiting((p, arrivedAt) -> {
+                    if (arrivedAt < time) {
+                        stale.add(p.getToken());
+                    }
+                });
+                for (String token : stale) {
+                    Patient p = lane.remove(token);
+                    if (p != null) {
+                        removed.add(p);
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    public Patient get(String token) {
+        Department d = byToken(token);
+        int lane = find(d, token);
+        return lane < 0 ? null : d.lanes[lane].get(token);
+    }
+
+    // Patients of the same department to be called before this token (0 = next),
+    // or -1. Those of its own class are counted in O(1); the other classes are
+    // walked up to the first patient called after it, so the cost grows with
+    // how many of them are ahead, not with the length of the queue.
+    public int position(String token) {
+        Department d = byToken(token);
+        int lane = find(d, token);
+        if (lane < 0) {
+            return -1;
+        }
+        long arrivedAt = d.lanes[lane].arrivedAt(token);
+        int ahead = d.lanes[lane].position(token);
+        if (arrivedAt < 0 || ahead < 0) {
+            return -1;
+        }
+        long key = arrivedAt - headStart[lane];
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (i != lane) {
+                // Other classes' patients whose key is lower, or equal and more urgent
+                ahead += d.lanes[i].countArrivedBefore(key + headStart[i] + (i < lane ? 1 : 0));
+            }
+        }
+        return ahead;
+    }
+
+    // Expected time until this token is called, or -1 if it is not waiting:
+    // the rest of the current consultation plus one service interval per
+    // patient ahead
+    public long estimatedWaitMillis(String token) {
+        int ahead = position(token);
+        if (ahead < 0) {
+            return -1;
+        }
+        Department d = byToken(token);
+        double service = d.serviceMillis;
+        long last = d.lastCallAt;
+        double remaining = last == 0 ? 0 : Math.max(0, service - (clock.millis() - last));
+        return Math.round(ahead * service + remaining);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Department d : departments.values()) {
+            size += size(d);
+        }
+        return size;
+    }
+
+    public int size(String department) {
+        Department d = lookup(department);
+        return d == null ? 0 : size(d);
+    }
+
+    private static int size(Department d) {
+        int size = 0;
+        for (QueueEngine lane : d.lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    // Waiting patients department by department, each in call order
+    public List<Patient> snapshot() {
+        List<Patient> all = new ArrayList<>(size());
+        for (Department d : departments.values()) {
+            all.addAll(snapshot(d));
+        }
+        return all;
+    }
+
+    public List<Patient> snapshot(String department) {
+        Department d = lookup(department);
+        return d == null ? List.of() : snapshot(d);
+    }
+
+    private List<Patient> snapshot(Department d) {
+        List<Waiting> waiting = new ArrayList<>(size(d));
+        for (int i = 0; i < CLASSES.length; i++) {
+            int lane = i;
+            d.lanes[i].forEachWaiting((p, arrivedAt) -> waiting.add(new Waiting(arrivedAt - headStart[lane], lane, p)));
+        }
+        waiting.sort(Comparator.comparingLong(Waiting::key).thenComparingInt(Waiting::lane));
+        List<Patient> list = new ArrayList<>(waiting.size());
+        for (Waiting w : waiting) {
+            list.add(w.patient());
+        }
+        return list;
+    }
+
+    // Per department: waiting count by class and the current service interval
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> list = new ArrayList<>(departments.size());
+        for (Department d : departments.values()) {
+            Map<String, Object> byClass = new LinkedHashMap<>();
+            for (int i = 0; i < CLASSES.length; i++) {
+                byClass.put(CLASSES[i].name(), d.lanes[i].size());
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("code", d.code);
+            m.put("name", d.name);
+            m.put("waiting", size(d));
+            m.put("byPriority", byClass);
+            m.put("serviceSeconds", Math.round(d.serviceMillis / 1000.0));
+            list.add(m);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private Department lookup(String code) {
+        return code == null ? null : departments.get(code.trim().toUpperCase(Locale.ROOT));
+    }
+
+    // HOS012, or HOS-N1.T3KX9A-001 when issued offline (see TokenAllocator)
+    private Department byToken(String token) {
+        int dash = token.indexOf('-');
+        if (dash > 0) {
+            Department d = departments.get(token.substring(0, dash));
+            return d == null ? fallback : d;
+        }
+        int end = token.length();
+        while (end > 0 && Character.isDigit(token.charAt(end - 1))) {
+            end--;
+        }
+        Department d = departments.get(token.substring(0, end));
+        return d == null ? fallback : d;
+    }
+
+    private static int find(Department d, String token) {
+        for (int i = 0; i < d.lanes.length; i++) {
+            if (d.lanes[i].get(token) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,12 +1,30 @@
 package com.example;
 
+import java.time.LocalDate;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Patient {
     private String name;
     private int age;
     private String token;
+    // Set when the patient joins the queue; left out of lookup responses
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String department;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Priority priority;
+    // When the patient registered (epoch ms, 0 if unknown). Stored with the row
+    // so a restart puts everyone back in the order and with the waits they had.
+    @JsonIgnore
+    private long arrivedAt;
+    // Service day of the patient's row (visit_date), so calling or deleting
+    // them after midnight still finds it
+    @JsonIgnore
+    private LocalDate visitDay;
+
     public Patient() {
     }
 
@@ -25,6 +43,18 @@ public class Patient {
     public String getToken() { return token; }
     public void setToken(String token) { this.token = token; }
 
+    public String getDepartment() { return department; }
+    public void setDepartment(String department) { this.department = department; }
+
+    public Priority getPriority() { return priority; }
+    public void setPriority(Priority priority) { this.priority = priority; }
+
+    public long getArrivedAt() { return arrivedAt; }
+    public void setArrivedAt(long arrivedAt) { this.arrivedAt = arrivedAt; }
+
+    public LocalDate getVisitDay() { return visitDay; }
+    public void setVisitDay(LocalDate visitDay) { this.visitDay = visitDay; }
+
     @Override
     public String toString() {
         return "Token: " + token + ", Name: " + name + ", Age: " + age;
@@ -0,0 +1,26 @@
+package com.example;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+// Reads persisted registrations for QueueManager. Writes go through
+// PatientWriter. The JDBC implementation runs on the central MySQL server or
+// on an embedded H2 file on a standalone kiosk (kiosk.persistence).
+public interface PatientRepository {
+
+    interface RowHandler {
+        void handle(PatientRow row) throws IOException;
+    }
+
+    // Today's registrations not yet called, in id order, for rebuilding the
+    // waiting queue
+    List<Patient> loadWaiting() throws SQLException;
+
+    // One page of registrations still in the active table (today's, and earlier
+    // days not yet archived) in id order after `afterId`
+    List<PatientRow> listPatients(long afterId, int limit) throws SQLException;
+
+    // Streams every registration after `afterId` to the handler
+    void forEachPatient(long afterId, RowHandler handler) throws SQLException, IOException;
+}
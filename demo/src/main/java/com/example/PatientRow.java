@@ -0,0 +1,5 @@
+package com.example;
+
+// A persisted registration as returned by the queue listing endpoints
+public record PatientRow(long id, String token, String name, int age) {
+}
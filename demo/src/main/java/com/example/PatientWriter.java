@@ -0,0 +1,30 @@
+package com.example;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import com.example.demo.Journal;
+
+// Persists queue changes made by QueueManager. Implementations decide when the
+// row actually reaches the database; calls must be cheap for request threads.
+// Rows are found by token and visit day, the service day the patient
+// registered on: with queue.token.reset-daily a token recurs every day.
+public interface PatientWriter {
+
+    // Stamped with p.getVisitDay(), or today if it has none. May throw
+    // RejectedExecutionException when the writer is saturated.
+    void insert(Patient p);
+
+    void delete(String token, LocalDate day);
+
+    // The patient was called; the row stays until archived but is no longer waiting
+    void called(String token, LocalDate day);
+
+    // Changes accepted but not yet in the database, oldest first. QueueManager
+    // applies them over the rows it loads at startup.
+    List<Journal.Record> pending();
+
+    // Counters for the /api/db/writer-stats endpoint
+    Map<String, Object> stats();
+}
@@ -0,0 +1,21 @@
+package com.example;
+
+// Priority classes, most urgent first. DepartmentScheduler gives each class a
+// head start on arrival time rather than a strict rank, so a long-waiting
+// general patient is eventually called ahead of newer appointments.
+public enum Priority {
+    EMERGENCY, APPOINTMENT, ELDERLY, GENERAL;
+
+    // Accepts the name in any case; null for anything else
+    public static Priority parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (Priority p : values()) {
+            if (p.name().equalsIgnoreCase(value.trim())) {
+                return p;
+            }
+        }
+        return null;
+    }
+}
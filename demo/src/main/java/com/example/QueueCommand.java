@@ -0,0 +1,34 @@
+package com.example;
+
+// A change to the waiting queue as QueueManager applies it: the unit that
+// goes through a QueueLog in cluster mode. Fields an operation does not use
+// are null (0 for age). `at` is when the change was made, epoch millis; for
+// NEW_DAY it is the start of the new service day.
+public record QueueCommand(Op op, String token, String department, String name, int age, Priority priority,
+                           String kiosk, long at) {
+
+    public enum Op { ADD, DELETE, UNDO, CALL, NEW_DAY }
+
+    static QueueCommand add(Patient p, String kiosk, long at) {
+        return new QueueCommand(Op.ADD, p.getToken(), p.getDepartment(), p.getName(), p.getAge(), p.getPriority(),
+                kiosk, at);
+    }
+
+    static QueueCommand delete(String token, long at) {
+        return new QueueCommand(Op.DELETE, token, null, null, 0, null, null, at);
+    }
+
+    static QueueCommand undo(String kiosk, long at) {
+        return new QueueCommand(Op.UNDO, null, null, null, 0, null, kiosk, at);
+    }
+
+    // A null department calls the next patient of any department
+    static QueueCommand call(String department, long at) {
+        return new QueueCommand(Op.CALL, null, department, null, 0, null, null, at);
+    }
+
+    // Patients who arrived before dayStart were not called that day and leave the queue
+    public static QueueCommand newDay(long dayStart) {
+        return new QueueCommand(Op.NEW_DAY, null, null, null, 0, null, null, dayStart);
+    }
+}
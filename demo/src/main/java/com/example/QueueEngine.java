@@ -0,0 +1,187 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
+
+// FIFO waiting queue. Enqueue and dequeue are O(1); removing a patient by token
+// is O(1) (the entry is only marked and skipped later). Each entry carries a
+// sequence number, so a patient's position is its distance from the head minus
+// the few entries removed out of order in between. Enqueues take a short lock
+// to number and link an entry in one step, so sequence numbers follow queue
+// order without gaps; dequeues, removals and lookups stay lock-free. Entries
+// also keep their arrival time (epoch millis) for DepartmentScheduler, which
+// runs one engine per priority class and compares the heads. Arrival times
+// never decrease along the queue: an enqueue that read the clock just before
+// the one linked ahead of it takes that entry's time.
+public class QueueEngine {
+
+    private static final class Entry {
+        final long seq;
+        final long arrivedAt;
+        final Patient patient;
+        final AtomicBoolean removed = new AtomicBoolean();
+
+        Entry(long seq, long arrivedAt, Patient patient) {
+            this.seq = seq;
+            this.arrivedAt = arrivedAt;
+            this.patient = patient;
+        }
+    }
+
+    // Guards nextSeq, lastArrivedAt and linking at the tail
+    private final Object tail = new Object();
+    private volatile long nextSeq;
+    private long lastArrivedAt = Long.MIN_VALUE;
+    private final AtomicInteger size = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<String, Entry> byToken = new ConcurrentHashMap<>();
+    // Sequence numbers removed from the middle of the queue (deletes/undo) that
+    // the head has not yet passed; normally a handful at most.
+    private final ConcurrentSkipListSet<Long> removedAhead = new ConcurrentSkipListSet<>();
+
+    public boolean enqueue(Patient patient) {
+        return enqueue(patient, System.currentTimeMillis());
+    }
+
+    public boolean enqueue(Patient patient, long arrivedAt) {
+        if (byToken.containsKey(patient.getToken())) {
+            return false;
+        }
+        synchronized (tail) {
+            // A rejected duplicate takes no sequence number
+            Entry entry = new Entry(nextSeq, Math.max(arrivedAt, lastArrivedAt), patient);
+            if (byToken.putIfAbsent(patient.getToken(), entry) != null) {
+                return false;
+            }
+            order.offer(entry);
+            lastArrivedAt = entry.arrivedAt;
+            nextSeq++;
+        }
+        size.incrementAndGet();
+        return true;
+    }
+
+    // Removes and returns the patient at the head, or null if nobody is waiting
+    public Patient poll() {
+        Entry entry;
+        while ((entry = order.poll()) != null) {
+            if (entry.removed.compareAndSet(false, true)) {
+                byToken.remove(entry.patient.getToken(), entry);
+                size.decrementAndGet();
+                pruneRemoved();
+                return entry.patient;
+            }
+        }
+        return null;
+    }
+
+    public Patient remove(String token) {
+        Entry entry = byToken.get(token);
+        if (entry == null || !entry.removed.compareAndSet(false, true)) {
+            return null;
+        }
+        byToken.remove(token, entry);
+        size.decrementAndGet();
+        removedAhead.add(entry.seq);
+        pruneRemoved();
+        return entry.patient;
+    }
+
+    public Patient get(String token) {
+        Entry entry = byToken.get(token);
+        return entry == null ? null : entry.patient;
+    }
+
+    // Number of patients ahead of this token (0 = next to be called), or -1
+    public int position(String token) {
+        Entry entry = byToken.get(token);
+        if (entry == null) {
+            return -1;
+        }
+        Entry head = head();
+        if (head == null || head.seq >= entry.seq) {
+            // At the head, or taken by another thread since the lookup
+            return entry.removed.get() ? -1 : 0;
+        }
+        long ahead = entry.seq - head.seq - removedAhead.subSet(head.seq, entry.seq).size();
+        return (int) Math.max(0, ahead);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // Arrival time of this token, or -1 if it is not waiting
+    public long arrivedAt(String token) {
+        Entry entry = byToken.get(token);
+        return entry == null ? -1 : entry.arrivedAt;
+    }
+
+    // Arrival time of the patient at the head, or Long.MAX_VALUE if nobody is waiting
+    public long headArrivedAt() {
+        Entry head = head();
+        return head == null ? Long.MAX_VALUE : head.arrivedAt;
+    }
+
+    // Waiting patients who arrived before `time`. Arrivals are in queue order,
+    // so this walks only as far as the first later arrival.
+    public int countArrivedBefore(long time) {
+        int count = 0;
+        for (Entry entry : order) {
+            if (entry.arrivedAt >= time) {
+                break;
+            }
+            if (!entry.removed.get()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Visits waiting patients in call order with their arrival times
+    public void forEachWaiting(ObjLongConsumer<Patient> visitor) {
+        for (Entry entry : order) {
+            if (!entry.removed.get()) {
+                visitor.accept(entry.patient, entry.arrivedAt);
+            }
+        }
+    }
+
+    // Waiting patients in call order
+    public List<Patient> snapshot() {
+        List<Patient> list = new ArrayList<>(size());
+        for (Entry entry : order) {
+            if (!entry.removed.get()) {
+                list.add(entry.patient);
+            }
+        }
+        return list;
+    }
+
+    // First live entry. Removed entries are unlinked once they reach the head,
+    // so only the few deleted since the last prune are skipped here.
+    private Entry head() {
+        for (Entry entry : order) {
+            if (!entry.removed.get()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void pruneRemoved() {
+        Entry first;
+        while ((first = order.peek()) != null && first.removed.get()) {
+            order.remove(first);
+        }
+        Entry head = head();
+        long floor = head == null ? nextSeq : head.seq;
+        removedAhead.headSet(floor).clear();
+    }
+}
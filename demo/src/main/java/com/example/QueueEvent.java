@@ -0,0 +1,15 @@
+package com.example;
+
+// A change to the waiting queue, published by QueueManager to its listeners.
+// `waiting` is the total queue length (all departments) right after the change;
+// `timestamp` is the time of the change as recorded in its QueueCommand, the
+// same on every node of a cluster.
+public record QueueEvent(Type type, String token, String department, String name, int age, int waiting,
+                         long timestamp) {
+
+    public enum Type { ADDED, DELETED, UNDONE, CALLED }
+
+    static QueueEvent of(Type type, Patient p, int waiting, long timestamp) {
+        return new QueueEvent(type, p.getToken(), p.getDepartment(), p.getName(), p.getAge(), waiting, timestamp);
+    }
+}
@@ -0,0 +1,6 @@
+package com.example;
+
+// Receives queue changes on the request thread that made them; must not block
+public interface QueueListener {
+    void onEvent(QueueEvent event);
+}
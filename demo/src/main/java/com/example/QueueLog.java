@@ -0,0 +1,11 @@
+package com.example;
+
+// Orders queue changes across backend nodes (see ClusterQueueLog). A change
+// is appended to a log shared by all nodes, every node applies the log in
+// order through QueueManager.apply, and append returns this node's result of
+// applying it: the patient added, removed or called, or null.
+public interface QueueLog {
+
+    // Throws RejectedExecutionException when the log cannot be reached
+    Patient append(QueueCommand command);
+}
@@ -1,101 +1,355 @@
 package com.example;
 
-import java.sql.*;
-import java.util.Stack;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
 
-import com.example.demo.DBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.example.demo.Journal;
+
+// Singleton (Spring bean, see QueueConfig) shared by all request threads. The
+// waiting queues (one per department, see DepartmentScheduler) live in memory
+// and answer reads directly; database writes are handed to the configured
+// PatientWriter, stored rows are read through the PatientRepository.
+// Tokens carry the department code as prefix, so rows reloaded at startup go
+// back to their department; emergency and appointment classes are not stored
+// and such patients rejoin as elderly or general.
+// Every queue change is a QueueCommand handed to apply(); in cluster mode it
+// goes through the shared QueueLog first, so all nodes apply the same changes
+// in the same order. Days follow the clock's zone: the log starts each one in
+// cluster mode, and without it the first change after midnight does.
 public class QueueManager {
-    private Stack<Patient> undoStack = new Stack<>();
-    // Fallback in-memory storage when DB is unavailable
-    private List<Patient> inMemoryPatients = new ArrayList<>();
-    public void addPatient(String name, int age) {
-        String token = generateNextToken();
-
-        try (Connection conn = DBConnection.getConnection()) {
-            String sql = "INSERT INTO patients (name, age, token) VALUES (?, ?, ?)";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, name);
-            stmt.setInt(2, age);
-            stmt.setString(3, token);
-            stmt.executeUpdate();
-
-            Patient p = new Patient(name, age, token);
-            undoStack.push(p);
-            System.out.println("Patient added (DB): " + token);
+    private static final Logger log = LoggerFactory.getLogger(QueueManager.class);
+    private static final String DEFAULT_KIOSK = "default";
+    private static final int UNDO_LIMIT = 50;
+
+    private final DepartmentScheduler queue;
+    // Undo history per kiosk, newest first; each deque has its own lock
+    private final ConcurrentHashMap<String, LinkedBlockingDeque<Patient>> undoHistory = new ConcurrentHashMap<>();
+
+    private final List<QueueListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final PatientRepository patients;
+    private final TokenAllocator tokens;
+    private final PatientWriter writer;
+    private volatile QueueLog changeLog;
+    private final Clock clock;
+    // Start of the service day of the last NEW_DAY applied
+    private volatile long dayStart = Long.MIN_VALUE;
+    // Without a log: when the next day starts, as of the last local NEW_DAY
+    private volatile long nextDayStart = Long.MIN_VALUE;
+    private final Object dayLock = new Object();
+
+    public QueueManager(PatientRepository patients, TokenAllocator tokens, PatientWriter writer) {
+        this(patients, tokens, writer, DepartmentScheduler.singleQueue());
+    }
+
+    public QueueManager(PatientRepository patients, TokenAllocator tokens, PatientWriter writer,
+                        DepartmentScheduler scheduler) {
+        this(patients, tokens, writer, scheduler, Clock.systemDefaultZone());
+    }
+
+    public QueueManager(PatientRepository patients, TokenAllocator tokens, PatientWriter writer,
+                        DepartmentScheduler scheduler, Clock clock) {
+        this.patients = patients;
+        this.tokens = tokens;
+        this.writer = writer;
+        this.queue = scheduler;
+        this.clock = clock;
+    }
+
+    public void addListener(QueueListener listener) {
+        listeners.add(listener);
+    }
+
+    // Rebuild the waiting queue from today's uncalled rows at startup, then
+    // apply changes still waiting in the writer's journal (e.g. made during an outage)
+    public void loadWaiting() {
+        long start = System.nanoTime();
+        try {
+            for (Patient p : patients.loadWaiting()) {
+                rejoin(p);
+            }
         } catch (SQLException e) {
-            // Log and fall back to in-memory storage so the kiosk can continue
-            e.printStackTrace();
-            Patient p = new Patient(name, age, token);
-            inMemoryPatients.add(p);
-            undoStack.push(p);
-            System.out.println("Patient added (in-memory fallback): " + token);
+            log.warn("Could not load waiting patients: {}", e.getMessage());
+        }
+        for (Journal.Record r : writer.pending()) {
+            if (r.type == Journal.ADD) {
+                rejoin(r.toPatient());
+            } else {
+                queue.remove(r.token);
+            }
         }
+        log.info("Loaded {} waiting patients in {} ms", queue.size(), (System.nanoTime() - start) / 1_000_000);
     }
 
-    public void deletePatientByToken(String token) {
-        try (Connection conn = DBConnection.getConnection()) {
-            String sql = "DELETE FROM patients WHERE token = ?";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, token);
-            int rows = stmt.executeUpdate();
-            if (rows > 0) {
-                System.out.println("Patient with token " + token + " deleted.");
-            } else {
-                System.out.println("No patient found with token " + token);
+    // At the registration time the row kept, so a restart neither sends
+    // everyone to the back of their class nor restarts their waits
+    private void rejoin(Patient p) {
+        if (p.getArrivedAt() > 0) {
+            queue.enqueue(p, p.getArrivedAt());
+        } else {
+            queue.enqueue(p);
+        }
+    }
+
+    public Patient addPatient(String name, int age) {
+        return addPatient(name, age, DEFAULT_KIOSK);
+    }
+
+    public Patient addPatient(String name, int age, String kioskId) {
+        return addPatient(name, age, kioskId, null, null);
+    }
+
+    // `department` is a department code or a hint such as the doctor's name
+    // (see DepartmentScheduler.resolve); a null priority means by age
+    public Patient addPatient(String name, int age, String kioskId, String department, Priority priority) {
+        long now = clock.millis();
+        QueueLog target = changeLog;
+        if (target == null) {
+            // Yesterday's patients leave before a reset-daily token can recur
+            startDayIfDue(now);
+        }
+        String code = queue.resolve(department);
+        Patient p = new Patient(name, age, tokens.next(code));
+        p.setDepartment(code);
+        p.setPriority(priority);
+        p.setArrivedAt(now);
+        p.setVisitDay(serviceDay(now));
+        QueueCommand add = QueueCommand.add(p, kioskKey(kioskId), now);
+        if (target == null) {
+            if (queue.get(p.getToken()) != null) {
+                throw new IllegalStateException("Token " + p.getToken() + " is already waiting");
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            writer.insert(p);
+            return apply(add);
+        }
+        // The row is only written once the log has the change, so a failed
+        // append leaves nothing behind for a retry to duplicate
+        Patient added = target.append(add);
+        if (added == null) {
+            throw new IllegalStateException("Token " + p.getToken() + " is already waiting");
         }
+        writer.insert(p);
+        return added;
+    }
+
+    public void deletePatientByToken(String token) {
+        Patient removed = submit(QueueCommand.delete(token, clock.millis()));
+        writer.delete(token, removed == null ? LocalDate.now(clock) : visitDay(removed));
+    }
+
+    public Patient undoLastEntry() {
+        return undoLastEntry(DEFAULT_KIOSK);
     }
 
-    public void undoLastEntry() {
-        if (undoStack.isEmpty()) {
-            System.out.println("No patient to undo.");
+    // Removes the most recent registration made from this kiosk that is still waiting
+    public Patient undoLastEntry(String kioskId) {
+        Patient undone = submit(QueueCommand.undo(kioskKey(kioskId), clock.millis()));
+        if (undone == null) {
+            log.debug("No patient to undo");
+            return null;
+        }
+        writer.delete(undone.getToken(), visitDay(undone));
+        return undone;
+    }
+
+    // Takes the next patient of any department off the queue, or null if
+    // nobody is waiting
+    public Patient callNext() {
+        return called(submit(QueueCommand.call(null, clock.millis())));
+    }
+
+    // Takes the next patient of this department, or null if none is waiting
+    public Patient callNext(String department) {
+        return called(submit(QueueCommand.call(department, clock.millis())));
+    }
+
+    // The row is marked by the node that made the call, like its inserts
+    private Patient called(Patient next) {
+        if (next != null) {
+            writer.called(next.getToken(), visitDay(next));
+        }
+        return next;
+    }
+
+    // The day the patient's row is stamped with
+    private LocalDate visitDay(Patient p) {
+        return p.getVisitDay() == null ? LocalDate.now(clock) : p.getVisitDay();
+    }
+
+    private LocalDate serviceDay(long at) {
+        return Instant.ofEpochMilli(at).atZone(clock.getZone()).toLocalDate();
+    }
+
+    // Without a log nobody else marks midnight: the first change of a new day
+    // applies its NEW_DAY here, as ClusterQueueLog does for a cluster
+    private void startDayIfDue(long now) {
+        if (now < nextDayStart) {
             return;
         }
-        Patient last = undoStack.pop();
-        deletePatientByToken(last.getToken());
+        synchronized (dayLock) {
+            if (now < nextDayStart) {
+                return;
+            }
+            ZonedDateTime start = serviceDay(now).atStartOfDay(clock.getZone());
+            apply(QueueCommand.newDay(start.toInstant().toEpochMilli()));
+            nextDayStart = start.plusDays(1).toInstant().toEpochMilli();
+        }
+    }
+
+    // From now on changes go through this log and are applied when it hands
+    // them back (cluster mode); without one they are applied directly
+    public void useLog(QueueLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    private Patient submit(QueueCommand command) {
+        QueueLog target = changeLog;
+        if (target != null) {
+            return target.append(command);
+        }
+        startDayIfDue(command.at());
+        return apply(command);
     }
 
-    public void showAllPatients() {
-        try (Connection conn = DBConnection.getConnection()) {
-            String sql = "SELECT * FROM patients";
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            boolean found = false;
-            while (rs.next()) {
-                found = true;
-                System.out.println("Token: " + rs.getString("token") + ", Name: " + rs.getString("name") + ", Age: " + rs.getInt("age"));
+    // Applies one change to the in-memory queue and notifies listeners; returns
+    // the patient added, removed or called, or null (nobody to remove or call,
+    // or the token added is already waiting). In cluster mode every node
+    // calls this for every change, in log order, so the outcome must depend
+    // only on the commands applied before (times come from the command).
+    public Patient apply(QueueCommand c) {
+        switch (c.op()) {
+            case ADD -> {
+                Patient p = new Patient(c.name(), c.age(), c.token());
+                p.setDepartment(c.department());
+                p.setPriority(c.priority());
+                p.setArrivedAt(c.at());
+                p.setVisitDay(serviceDay(c.at()));
+                if (!queue.enqueue(p, c.at())) {
+                    return null;
+                }
+                rememberForUndo(c.kiosk(), p);
+                return published(QueueEvent.Type.ADDED, p, c.at());
             }
-            if (!found) {
-                System.out.println("Queue is empty.");
+            case DELETE -> {
+                return published(QueueEvent.Type.DELETED, queue.remove(c.token()), c.at());
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            case UNDO -> {
+                LinkedBlockingDeque<Patient> history = undoHistory.get(c.kiosk());
+                Patient last;
+                while (history != null && (last = history.pollFirst()) != null) {
+                    if (queue.get(last.getToken()) == last && queue.remove(last.getToken()) != null) {
+                        return published(QueueEvent.Type.UNDONE, last, c.at());
+                    }
+                }
+                return null;
+            }
+            case CALL -> {
+                Patient next = c.department() == null ? queue.poll(c.at()) : queue.poll(c.department(), c.at());
+                return published(QueueEvent.Type.CALLED, next, c.at());
+            }
+            case NEW_DAY -> {
+                // Later markers for the same day (several nodes saw midnight) change nothing
+                if (c.at() > dayStart) {
+                    dayStart = c.at();
+                    for (Patient p : queue.removeArrivedBefore(c.at())) {
+                        publish(QueueEvent.Type.DELETED, p, c.at());
+                    }
+                }
+                return null;
+            }
+            default -> throw new IllegalArgumentException("Unknown queue change " + c.op());
         }
     }
 
-    private String generateNextToken() {
-        String prefix = "HOS";
-        int nextNumber = 1;
-        try (Connection conn = DBConnection.getConnection()) {
-            String sql = "SELECT token FROM patients ORDER BY token DESC LIMIT 1";
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+    private Patient published(QueueEvent.Type type, Patient p, long at) {
+        if (p != null) {
+            publish(type, p, at);
+        }
+        return p;
+    }
 
-            if (rs.next()) {
-                String lastToken = rs.getString("token");
-                int lastNum = Integer.parseInt(lastToken.substring(3));
-                nextNumber = lastNum + 1;
-            }
-        } catch (SQLException e) {
-            // If DB query fails, log and fall back to default numbering
-            e.printStackTrace();
+    public List<Patient> waitingPatients() {
+        return queue.snapshot();
+    }
+
+    public List<Patient> waitingPatients(String department) {
+        return queue.snapshot(department);
+    }
+
+    // Start of the service day the queue is on, as set by the last NEW_DAY
+    public long dayStart() {
+        return dayStart;
+    }
+
+    public int positionOf(String token) {
+        return queue.position(token);
+    }
+
+    public long estimatedWaitMillis(String token) {
+        return queue.estimatedWaitMillis(token);
+    }
+
+    public int waitingCount() {
+        return queue.size();
+    }
+
+    public int waitingCount(String department) {
+        return queue.size(department);
+    }
+
+    public boolean isDepartment(String code) {
+        return queue.isDepartment(code);
+    }
+
+    public List<String> departments() {
+        return queue.departments();
+    }
+
+    public List<Map<String, Object>> departmentStats() {
+        return queue.stats();
+    }
+
+    private void publish(QueueEvent.Type type, Patient p, long at) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        QueueEvent event = QueueEvent.of(type, p, queue.size(), at);
+        for (QueueListener listener : listeners) {
+            listener.onEvent(event);
+        }
+    }
+
+    private void rememberForUndo(String kioskId, Patient p) {
+        LinkedBlockingDeque<Patient> history =
+                undoHistory.computeIfAbsent(kioskKey(kioskId), k -> new LinkedBlockingDeque<>(UNDO_LIMIT));
+        while (!history.offerFirst(p)) {
+            history.pollLast();
         }
+    }
+
+    private static String kioskKey(String kioskId) {
+        return kioskId == null || kioskId.isBlank() ? DEFAULT_KIOSK : kioskId;
+    }
+
+    // One page of registrations in id order after `afterId`
+    public List<PatientRow> listPatients(long afterId, int limit) throws SQLException {
+        return patients.listPatients(afterId, limit);
+    }
 
-        return prefix + String.format("%03d", nextNumber);
+    // Hands every registration after `afterId` to the handler as it is read
+    public void forEachPatient(long afterId, PatientRepository.RowHandler handler) throws SQLException, IOException {
+        patients.forEachPatient(afterId, handler);
     }
 }
@@ -0,0 +1,162 @@
+package com.example;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Hands out queue tokens (HOS001, HOS002, ...) without touching the database on
+// the hot path. Each sequence (one per prefix/department, optionally per day)
+// reserves a block of numbers from a shared BlockSource and then serves tokens
+// from an atomic counter until the block is used up. Blocks never overlap, so
+// tokens stay unique across threads and across backend nodes sharing the source.
+//
+// When no block can be reserved (database down) tokens come from this
+// allocator's own offline namespace instead, e.g. HOS-N1.T3KX9A-001: the node
+// id and the time it started, so neither a restart during the outage nor
+// another node can hand out the same token.
+public class TokenAllocator {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenAllocator.class);
+
+    // Reserves `size` consecutive numbers for a sequence and returns the first one.
+    // The returned block must start at or after `floor` and must not overlap any
+    // block handed out before, by this node or any other.
+    public interface BlockSource {
+        long reserve(String sequence, int size, long floor) throws SQLException;
+    }
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final BlockSource source;
+    private final int blockSize;
+    private final boolean resetDaily;
+    private final Clock clock;
+    private final String offlineNamespace;
+    private final ConcurrentHashMap<String, Sequence> sequences = new ConcurrentHashMap<>();
+    private volatile String currentDay = "";
+
+    public TokenAllocator(BlockSource source, int blockSize, boolean resetDaily) {
+        this(source, blockSize, resetDaily, Clock.systemDefaultZone());
+    }
+
+    public TokenAllocator(BlockSource source, int blockSize, boolean resetDaily, Clock clock) {
+        this(source, blockSize, resetDaily, clock, offlineNamespace("", clock));
+    }
+
+    public TokenAllocator(BlockSource source, int blockSize, boolean resetDaily, Clock clock,
+                          String offlineNamespace) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+        this.resetDaily = resetDaily;
+        this.clock = clock;
+        this.offlineNamespace = offlineNamespace;
+    }
+
+    // `nodeId` (may be empty) plus this start's time in seconds, base 36
+    public static String offlineNamespace(String nodeId, Clock clock) {
+        String started = Long.toString(clock.millis() / 1000, 36).toUpperCase(Locale.ROOT);
+        String node = nodeId == null ? "" : nodeId.trim().toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "");
+        return node.isEmpty() ? started : node + "." + started;
+    }
+
+    public String next(String prefix) {
+        String key = prefix;
+        if (resetDaily) {
+            String day = LocalDate.now(clock).format(DAY);
+            if (!day.equals(currentDay)) {
+                rollOver(day);
+            }
+            key = prefix + "-" + day;
+        }
+        return sequences.computeIfAbsent(key, k -> new Sequence(k, prefix)).next();
+    }
+
+    // Drop yesterday's sequences so the map only holds the current day
+    private synchronized void rollOver(String day) {
+        if (day.equals(currentDay)) {
+            return;
+        }
+        sequences.keySet().removeIf(k -> !k.endsWith("-" + day));
+        currentDay = day;
+    }
+
+    static String format(String prefix, long number) {
+        String digits = Long.toString(number);
+        StringBuilder sb = new StringBuilder(prefix.length() + Math.max(3, digits.length()));
+        sb.append(prefix);
+        for (int i = digits.length(); i < 3; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    private static final class Block {
+        // What the numbers are formatted with: the sequence's prefix, or the
+        // offline namespace under it
+        final String prefix;
+        final AtomicLong cursor;
+        final long end;
+
+        Block(String prefix, long start, long end) {
+            this.prefix = prefix;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private final class Sequence {
+        private final String key;
+        private final String prefix;
+        private volatile Block block;
+        // Highest number the source has handed this node a block for; the floor
+        // for the next reservation
+        private long reservedUpTo = 0;
+        // Next number in the offline namespace
+        private long offlineNext = 1;
+
+        Sequence(String key, String prefix) {
+            this.key = key;
+            this.prefix = prefix;
+            this.block = new Block(prefix, 0, 0);
+        }
+
+        String next() {
+            while (true) {
+                Block current = block;
+                long n = current.cursor.getAndIncrement();
+                if (n < current.end) {
+                    return format(current.prefix, n);
+                }
+                refill(current);
+            }
+        }
+
+        private synchronized void refill(Block exhausted) {
+            if (block != exhausted) {
+                return; // another thread already refilled
+            }
+            try {
+                long start = source.reserve(key, blockSize, reservedUpTo + 1);
+                reservedUpTo = start + blockSize - 1;
+                block = new Block(prefix, start, start + blockSize);
+            } catch (SQLException e) {
+                // Keep the kiosk issuing tokens while the DB is down, from numbers
+                // no other node or earlier start of this one can have used.
+                // The source is asked again once this block is used up.
+                log.warn("Token block reservation failed for {}, issuing offline tokens: {}", key, e.getMessage());
+                block = new Block(prefix + "-" + offlineNamespace + "-", offlineNext, offlineNext + blockSize);
+                offlineNext += blockSize;
+            }
+        }
+    }
+}
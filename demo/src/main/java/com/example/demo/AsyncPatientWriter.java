@@ -0,0 +1,279 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.Patient;
+import com.example.PatientWriter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Default writer: one INSERT/DELETE per change, executed on a single persister
+// thread so changes reach MySQL in the order they were made. When MySQL is down
+// changes go to the local journal instead; the journal is replayed into the
+// patients table once the database answers again. Until then every change is
+// journaled without touching the pool, so requests do not each pay a timeout.
+// Only transient errors count as an outage; a change the database rejects
+// outright is quarantined (see Journal) and does not hold up the rest.
+// Each change carries the service day it was made on (see PatientStatements).
+public class AsyncPatientWriter implements PatientWriter, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncPatientWriter.class);
+    private static final int REPLAY_CHUNK = 500;
+
+    private final DBConnection db;
+    private final Journal journal;
+    private final Clock clock;
+    private final ScheduledExecutorService persister = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "queue-persister");
+        t.setDaemon(true);
+        return t;
+    });
+    // Only written on the persister thread; volatile because stats() reads it
+    // from request threads
+    private volatile boolean outage;
+
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder journaled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder quarantined = new LongAdder();
+    private final Timer insertTimer;
+    private final Timer deleteTimer;
+    private final Timer calledTimer;
+    private final Timer replayTimer;
+    private final Counter journalFallback;
+
+    public AsyncPatientWriter(DBConnection db, Journal journal, long reconcileIntervalMs, MeterRegistry registry) {
+        this(db, journal, reconcileIntervalMs, Clock.systemDefaultZone(), registry);
+    }
+
+    public AsyncPatientWriter(DBConnection db, Journal journal, long reconcileIntervalMs, Clock clock,
+                              MeterRegistry registry) {
+        this.db = db;
+        this.journal = journal;
+        this.clock = clock;
+        this.insertTimer = KioskMeters.dbQuery(registry, "insert");
+        this.deleteTimer = KioskMeters.dbQuery(registry, "delete");
+        this.calledTimer = KioskMeters.dbQuery(registry, "called");
+        this.replayTimer = KioskMeters.dbQuery(registry, "replay");
+        this.journalFallback = KioskMeters.fallback(registry, "journal");
+        // Leftovers from a previous outage: keep journaling until they are replayed
+        this.outage = journal.pendingCount() > 0;
+        persister.scheduleWithFixedDelay(this::reconcile, 0, reconcileIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void insert(Patient p) {
+        LocalDate day = p.getVisitDay() == null ? LocalDate.now(clock) : p.getVisitDay();
+        persister.execute(() -> write(p, day));
+    }
+
+    @Override
+    public void delete(String token, LocalDate day) {
+        persister.execute(() -> remove(token, day));
+    }
+
+    @Override
+    public void called(String token, LocalDate day) {
+        persister.execute(() -> markCalled(token, day));
+    }
+
+    @Override
+    public List<Journal.Record> pending() {
+        return journal.pending();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", "async");
+        stats.put("outage", outage);
+        stats.put("inserted", inserted.sum());
+        stats.put("journaled", journaled.sum());
+        stats.put("replayed", replayed.sum());
+        stats.put("lost", lost.sum());
+        stats.put("quarantined", quarantined.sum());
+        stats.put("journalPending", journal.pendingCount());
+        return stats;
+    }
+
+    private void write(Patient p, LocalDate day) {
+        if (!outage) {
+            long start = System.nanoTime();
+            try (Connection conn = db.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(PatientStatements.INSERT)) {
+                stmt.setString(1, p.getName());
+                stmt.setInt(2, p.getAge());
+                stmt.setString(3, p.getToken());
+                stmt.setObject(4, day);
+                stmt.setLong(5, p.getArrivedAt());
+                stmt.executeUpdate();
+                insertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                inserted.increment();
+                log.debug("Patient added (DB): {}", p.getToken());
+                return;
+            } catch (SQLException e) {
+                if (!PatientStatements.isTransient(e)) {
+                    quarantine(new Journal.Record(0, Journal.ADD, p.getToken(), p.getName(), p.getAge(), p.getArrivedAt(), day), e);
+                    return;
+                }
+                enterOutage(e);
+            }
+        }
+        try {
+            journal.appendAdd(p, day);
+            journaled.increment();
+            journalFallback.increment();
+            log.debug("Patient added (journal): {}", p.getToken());
+        } catch (IOException e) {
+            lost.increment();
+            log.error("Could not journal patient {}", p.getToken(), e);
+        }
+    }
+
+    private void remove(String token, LocalDate day) {
+        if (!outage) {
+            long start = System.nanoTime();
+            try (Connection conn = db.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(PatientStatements.DELETE)) {
+                stmt.setString(1, token);
+                stmt.setObject(2, day);
+                int rows = stmt.executeUpdate();
+                deleteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (rows > 0) {
+                    log.debug("Patient with token {} deleted", token);
+                } else {
+                    log.debug("No patient found with token {}", token);
+                }
+                return;
+            } catch (SQLException e) {
+                if (!PatientStatements.isTransient(e)) {
+                    quarantine(new Journal.Record(0, Journal.DELETE, token, "", 0, 0, day), e);
+                    return;
+                }
+                enterOutage(e);
+            }
+        }
+        try {
+            journal.appendDelete(token, day);
+            journaled.increment();
+            journalFallback.increment();
+        } catch (IOException e) {
+            lost.increment();
+            log.error("Could not journal delete of {}", token, e);
+        }
+    }
+
+    private void markCalled(String token, LocalDate day) {
+        if (!outage) {
+            long start = System.nanoTime();
+            try (Connection conn = db.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(PatientStatements.CALLED)) {
+                stmt.setString(1, token);
+                stmt.setObject(2, day);
+                stmt.executeUpdate();
+                calledTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return;
+            } catch (SQLException e) {
+                if (!PatientStatements.isTransient(e)) {
+                    quarantine(new Journal.Record(0, Journal.CALLED, token, "", 0, 0, day), e);
+                    return;
+                }
+                enterOutage(e);
+            }
+        }
+        try {
+            journal.appendCalled(token, day);
+            journaled.increment();
+            journalFallback.increment();
+        } catch (IOException e) {
+            lost.increment();
+            log.error("Could not journal call of {}", token, e);
+        }
+    }
+
+    private void enterOutage(SQLException e) {
+        outage = true;
+        log.warn("Database unavailable, journaling queue changes: {}", e.getMessage());
+    }
+
+    private void quarantine(Journal.Record r, SQLException e) {
+        try {
+            journal.quarantine(r, e.getSQLState() + " " + e.getMessage());
+            quarantined.increment();
+            log.error("Database rejected change to {}, quarantined: {}", r.token, e.getMessage());
+        } catch (IOException io) {
+            lost.increment();
+            log.error("Could not quarantine change to {}", r.token, io);
+        }
+    }
+
+    // Replays journaled changes in chunks; leaves outage mode once the journal is drained
+    private void reconcile() {
+        if (!outage) {
+            return;
+        }
+        try (Connection conn = db.getConnection()) {
+            List<Journal.Record> pending = journal.pending();
+            for (int from = 0; from < pending.size(); from += REPLAY_CHUNK) {
+                List<Journal.Record> chunk = pending.subList(from, Math.min(pending.size(), from + REPLAY_CHUNK));
+                long start = System.nanoTime();
+                try {
+                    PatientStatements.replay(conn, chunk);
+                } catch (SQLException e) {
+                    if (PatientStatements.isTransient(e)) {
+                        throw e;
+                    }
+                    replayEach(conn, chunk);
+                }
+                replayTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                journal.checkpoint(chunk.get(chunk.size() - 1).seq);
+                replayed.add(chunk.size());
+            }
+            outage = false;
+            log.info("Database back, replayed {} journaled queue changes", pending.size());
+        } catch (SQLException e) {
+            // Still down; try again on the next tick
+        }
+    }
+
+    // A chunk the database refused: apply its records one by one, quarantining
+    // the ones it rejects and checkpointing as it goes
+    private void replayEach(Connection conn, List<Journal.Record> chunk) throws SQLException {
+        for (Journal.Record r : chunk) {
+            try {
+                PatientStatements.replay(conn, List.of(r));
+            } catch (SQLException e) {
+                if (PatientStatements.isTransient(e)) {
+                    throw e;
+                }
+                quarantine(r, e);
+            }
+            journal.checkpoint(r.seq);
+        }
+    }
+
+    // Let queued writes reach the database (or the journal) before shutdown
+    @Override
+    public void close() throws InterruptedException {
+        persister.shutdown();
+        persister.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
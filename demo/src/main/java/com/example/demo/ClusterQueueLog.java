@@ -0,0 +1,341 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Types;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.Patient;
+import com.example.Priority;
+import com.example.QueueCommand;
+import com.example.QueueLog;
+import com.example.QueueManager;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Cluster mode (kiosk.cluster.enabled): every backend node sends its queue
+// changes through the queue_log table and applies the whole log in order, so
+// all nodes hold the same queue, undo history included. Any node can serve any
+// request, and when one stops the others simply carry on. Nodes with the same
+// partition key (a hospital, or a group of departments with their own
+// queue.departments) share a log; other partitions are not read.
+//
+// Appends are optimistic: a node inserts at the sequence number after the
+// last one it knows of and, if another node got there first (duplicate key),
+// catches up and takes the next. Numbers are therefore dense and become
+// visible in order, so readers never wait out gaps. The node then applies the
+// log up to its own entry and returns its result, so a caller always sees its
+// own change. Other nodes' changes arrive within poll-interval-ms.
+//
+// The log is cut at day boundaries (in the clock's zone, like PatientArchiver).
+// Before the first change of a new day, and at midnight from the tailer, a
+// node appends a NEW_DAY entry, which drops patients who arrived before that
+// day from every node's queue; PatientArchiver files their rows as MISSED. The
+// node that appended it then deletes the entries before the previous NEW_DAY,
+// so the log holds about a day and a node starting up replays only that.
+public class ClusterQueueLog implements QueueLog, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterQueueLog.class);
+    private static final int BATCH = 500;
+    private static final int MAX_KIOSK = 64;
+
+    static final String APPEND = "INSERT INTO queue_log "
+            + "(partition_key, seq, op, token, department, name, age, priority, kiosk, node, at_ms) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String TAIL = "SELECT seq, op, token, department, name, age, priority, kiosk, node, at_ms "
+            + "FROM queue_log WHERE partition_key = ? AND seq > ? ORDER BY seq LIMIT " + BATCH;
+    static final String PREVIOUS_DAY = "SELECT MAX(seq) FROM queue_log "
+            + "WHERE partition_key = ? AND op = 'NEW_DAY' AND seq < ?";
+    static final String TRIM = "DELETE FROM queue_log WHERE partition_key = ? AND seq < ?";
+
+    private final DBConnection db;
+    private final QueueManager manager;
+    private final String partition;
+    private final String node;
+    private final long pollIntervalMs;
+    private final Clock clock;
+    private final ScheduledExecutorService tailer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "queue-log-tailer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Last sequence number applied here; only advanced under `this`
+    private volatile long applied;
+    // Arrival times are kept non-decreasing in log order, whatever the nodes' clocks
+    private long lastAt;
+    // Guarded by appendLock
+    private long lastAppended;
+    private long markedDay = Long.MIN_VALUE;
+    private final Object appendLock = new Object();
+    // Results of this node's own changes, keyed by the sequence number an
+    // append() is waiting on; registered before the insert and always removed
+    // by that append(), so nothing is left behind when it fails
+    private final ConcurrentHashMap<Long, AtomicReference<Patient>> results = new ConcurrentHashMap<>();
+    // Only read and written on the tailer thread
+    private boolean outage;
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder entriesApplied = new LongAdder();
+    private final LongAdder trimmed = new LongAdder();
+    private final Timer appendTimer;
+    private final Timer tailTimer;
+
+    public ClusterQueueLog(DBConnection db, QueueManager manager, String partition, String node, long pollIntervalMs,
+                           MeterRegistry registry) {
+        this(db, manager, partition, node, pollIntervalMs, Clock.systemDefaultZone(), registry);
+    }
+
+    public ClusterQueueLog(DBConnection db, QueueManager manager, String partition, String node, long pollIntervalMs,
+                           Clock clock, MeterRegistry registry) {
+        this.db = db;
+        this.manager = manager;
+        this.partition = partition;
+        this.node = node;
+        this.pollIntervalMs = pollIntervalMs;
+        this.clock = clock;
+        this.appendTimer = KioskMeters.dbQuery(registry, "log_append");
+        this.tailTimer = KioskMeters.dbQuery(registry, "log_tail");
+        Gauge.builder("kiosk.cluster.applied", this, c -> c.applied)
+                .description("Last queue_log sequence number applied on this node")
+                .register(registry);
+    }
+
+    // Replays the log so far (dropping earlier days' patients if no node has
+    // marked today yet), then routes the manager's changes through it and
+    // follows the other nodes' changes
+    public void start() throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = db.getConnection()) {
+            catchUp(conn);
+            startDay(conn, clock.millis());
+            catchUp(conn);
+        }
+        manager.useLog(this);
+        tailer.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Node {} joined partition {} at seq {} ({} waiting) in {} ms", node, partition, applied,
+                manager.waitingCount(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public Patient append(QueueCommand command) {
+        long seq = 0;
+        AtomicReference<Patient> result = null;
+        try (Connection conn = db.getConnection()) {
+            startDay(conn, command.at());
+            seq = insert(conn, command);
+            while (applied < seq) {
+                catchUp(conn);
+            }
+        } catch (SQLException e) {
+            throw new RejectedExecutionException("Queue log unavailable: " + e.getMessage(), e);
+        } finally {
+            if (seq > 0) {
+                result = results.remove(seq);
+            }
+        }
+        return result == null ? null : result.get();
+    }
+
+    // Appends a NEW_DAY entry if `at` falls on a later day than the queue is on
+    private void startDay(Connection conn, long at) throws SQLException {
+        long day = Instant.ofEpochMilli(at).atZone(clock.getZone()).toLocalDate()
+                .atStartOfDay(clock.getZone()).toInstant().toEpochMilli();
+        if (day <= manager.dayStart()) {
+            return;
+        }
+        long seq;
+        synchronized (appendLock) {
+            if (day <= Math.max(manager.dayStart(), markedDay)) {
+                return;
+            }
+            seq = insert(conn, QueueCommand.newDay(day));
+            results.remove(seq);
+            markedDay = day;
+        }
+        log.info("Node {} started the day of {} at seq {}", node, Instant.ofEpochMilli(day).atZone(clock.getZone())
+                .toLocalDate(), seq);
+        trim(conn, seq);
+    }
+
+    // Deletes the entries before the NEW_DAY preceding `marker`. A day's worth
+    // stays behind the marker for nodes that have not read up to it yet;
+    // replaying from either marker ends in the same queue.
+    private void trim(Connection conn, long marker) {
+        try (PreparedStatement previous = conn.prepareStatement(PREVIOUS_DAY);
+             PreparedStatement delete = conn.prepareStatement(TRIM)) {
+            previous.setString(1, partition);
+            previous.setLong(2, marker);
+            long from;
+            try (ResultSet rs = previous.executeQuery()) {
+                rs.next();
+                from = rs.getLong(1);
+                if (rs.wasNull()) {
+                    return;
+                }
+            }
+            delete.setString(1, partition);
+            delete.setLong(2, from);
+            int deleted = delete.executeUpdate();
+            trimmed.add(deleted);
+            if (deleted > 0) {
+                log.info("Trimmed {} queue_log entries before seq {}", deleted, from);
+            }
+        } catch (SQLException e) {
+            // The next day's marker trims them instead
+            log.warn("Could not trim the queue log: {}", e.getMessage());
+        }
+    }
+
+    private long insert(Connection conn, QueueCommand c) throws SQLException {
+        synchronized (appendLock) {
+            long start = System.nanoTime();
+            try (PreparedStatement stmt = conn.prepareStatement(APPEND)) {
+                while (true) {
+                    long seq = Math.max(applied, lastAppended) + 1;
+                    bind(stmt, seq, c);
+                    results.put(seq, new AtomicReference<>());
+                    try {
+                        stmt.executeUpdate();
+                        lastAppended = seq;
+                        appends.increment();
+                        return seq;
+                    } catch (SQLIntegrityConstraintViolationException taken) {
+                        // Another node appended first; read its entries and try the next number
+                        results.remove(seq);
+                        conflicts.increment();
+                        catchUp(conn);
+                    } catch (SQLException e) {
+                        results.remove(seq);
+                        throw e;
+                    }
+                }
+            } finally {
+                appendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void bind(PreparedStatement stmt, long seq, QueueCommand c) throws SQLException {
+        stmt.setString(1, partition);
+        stmt.setLong(2, seq);
+        stmt.setString(3, c.op().name());
+        stmt.setString(4, c.token());
+        stmt.setString(5, c.department());
+        stmt.setString(6, c.name());
+        stmt.setInt(7, c.age());
+        stmt.setString(8, c.priority() == null ? null : c.priority().name());
+        if (c.kiosk() == null) {
+            stmt.setNull(9, Types.VARCHAR);
+        } else {
+            stmt.setString(9, c.kiosk().length() > MAX_KIOSK ? c.kiosk().substring(0, MAX_KIOSK) : c.kiosk());
+        }
+        stmt.setString(10, node);
+        stmt.setLong(11, c.at());
+    }
+
+    // Applies every entry after `applied`, in order
+    private synchronized void catchUp(Connection conn) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(TAIL)) {
+            int read;
+            do {
+                read = 0;
+                stmt.setString(1, partition);
+                stmt.setLong(2, applied);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        apply(rs);
+                        read++;
+                    }
+                }
+            } while (read == BATCH);
+        } finally {
+            tailTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void apply(ResultSet rs) throws SQLException {
+        long seq = rs.getLong("seq");
+        String op = rs.getString("op");
+        // A NEW_DAY carries the day boundary, not a clock reading
+        long at = rs.getLong("at_ms");
+        if (!"NEW_DAY".equals(op)) {
+            lastAt = Math.max(lastAt, at);
+            at = lastAt;
+        }
+        Patient result = null;
+        try {
+            QueueCommand c = new QueueCommand(QueueCommand.Op.valueOf(op), rs.getString("token"),
+                    rs.getString("department"), rs.getString("name"), rs.getInt("age"),
+                    Priority.parse(rs.getString("priority")), rs.getString("kiosk"), at);
+            result = manager.apply(c);
+        } catch (RuntimeException e) {
+            // Skip it the same way on every node rather than stall the log
+            log.error("Could not apply queue_log entry {} ({})", seq, op, e);
+        }
+        if (node.equals(rs.getString("node"))) {
+            AtomicReference<Patient> waiting = results.get(seq);
+            if (waiting != null) {
+                waiting.set(result);
+            }
+        }
+        applied = seq;
+        entriesApplied.increment();
+    }
+
+    private void poll() {
+        try (Connection conn = db.getConnection()) {
+            startDay(conn, clock.millis());
+            catchUp(conn);
+            if (outage) {
+                log.info("Queue log reachable again at seq {}", applied);
+                outage = false;
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (!outage) {
+                log.warn("Cannot read the queue log: {}", e.getMessage());
+                outage = true;
+            }
+        }
+    }
+
+    // Counters for /api/db/cluster-stats
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("node", node);
+        stats.put("partition", partition);
+        stats.put("appliedSeq", applied);
+        stats.put("appends", appends.sum());
+        stats.put("appendConflicts", conflicts.sum());
+        stats.put("entriesApplied", entriesApplied.sum());
+        stats.put("trimmed", trimmed.sum());
+        stats.put("waiting", manager.waitingCount());
+        return stats;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        tailer.shutdown();
+        tailer.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
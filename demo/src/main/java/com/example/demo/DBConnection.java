@@ -1,64 +1,277 @@
 package com.example.demo;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import jakarta.annotation.PostConstruct;
+
+// Pooled access to the hospital_queue database: MySQL, or an embedded H2 file
+// when kiosk.persistence=embedded (see PersistenceConfig). Connection settings
+// and pool sizing live in application.properties (spring.datasource.*); the
+// schema is created once at startup instead of on every getConnection() call.
+@Component
 public class DBConnection {
-    // Connection that points to the specific database
-// Allow public key retrieval for local MySQL setups using caching_sha2_password
-private static final String URL_WITH_DB = "jdbc:mysql://localhost:3306/hospital_queue?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
-private static final String URL_NO_DB = "jdbc:mysql://localhost:3306/?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC";
-private static final String USER = "root";
-private static final String PASSWORD = "siya1234"; // replace with your MySQL password
 
+    private static final Logger log = LoggerFactory.getLogger(DBConnection.class);
 
-    public static Connection getConnection() throws SQLException {
-        try {
-            Connection conn = DriverManager.getConnection(URL_WITH_DB, USER, PASSWORD);
-            // Ensure the patients table exists so inserts won't fail
-            try (Statement stmt = conn.createStatement()) {
-                String createTable = "CREATE TABLE IF NOT EXISTS patients ("
-                        + "id INT AUTO_INCREMENT PRIMARY KEY,"
-                        + "name VARCHAR(255),"
-                        + "age INT,"
-                        + "token VARCHAR(50)"
-                        + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
-                stmt.executeUpdate(createTable);
-            } catch (SQLException e) {
-                // Log but continue; caller will see failures on actual operations
-                e.printStackTrace();
+    // Rolling active table: today's registrations plus anything PatientArchiver
+    // has not moved to patients_history yet
+    private static final String CREATE_PATIENTS_TABLE = "CREATE TABLE IF NOT EXISTS patients ("
+            + "id INT AUTO_INCREMENT PRIMARY KEY,"
+            + "name VARCHAR(255),"
+            + "age INT,"
+            + "token VARCHAR(50),"
+            + "visit_date DATE,"
+            + "status VARCHAR(16) NOT NULL DEFAULT 'WAITING',"
+            + "arrived_at BIGINT"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    // Past days, written only by PatientArchiver. Clustered by date so reports
+    // over a date range read adjacent pages; no other indexes to maintain.
+    private static final String CREATE_PATIENTS_HISTORY_TABLE = "CREATE TABLE IF NOT EXISTS patients_history ("
+            + "visit_date DATE NOT NULL,"
+            + "id INT NOT NULL,"
+            + "token VARCHAR(50),"
+            + "name VARCHAR(255),"
+            + "age INT,"
+            + "status VARCHAR(16) NOT NULL,"
+            + "PRIMARY KEY (visit_date, id)"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    // Token blocks reserved by TokenAllocator, one row per sequence
+    private static final String CREATE_TOKEN_SEQUENCES_TABLE = "CREATE TABLE IF NOT EXISTS token_sequences ("
+            + "name VARCHAR(64) PRIMARY KEY,"
+            + "next_value BIGINT NOT NULL"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    // Orders created per idempotency key, when payment.idempotency.persist=true
+    private static final String CREATE_PAYMENT_ORDERS_TABLE = "CREATE TABLE IF NOT EXISTS payment_orders ("
+            + "idempotency_key VARCHAR(64) PRIMARY KEY,"
+            + "fingerprint VARCHAR(64) NOT NULL,"
+            + "response TEXT NOT NULL,"
+            + "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    // Payments reported by gateway webhooks; token is filled in once reconciled
+    private static final String CREATE_PAYMENTS_TABLE = "CREATE TABLE IF NOT EXISTS payments ("
+            + "payment_id VARCHAR(64) PRIMARY KEY,"
+            + "order_id VARCHAR(64),"
+            + "event VARCHAR(64),"
+            + "status VARCHAR(32),"
+            + "amount BIGINT,"
+            + "token VARCHAR(50),"
+            + "received_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,"
+            + "reconciled_at TIMESTAMP NULL"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    // Verified webhook bodies, stored before the gateway gets its 200 and deleted
+    // in the transaction that applies them. Rows with failed_at set were
+    // rejected by the database for good and wait for someone to look at them.
+    private static final String CREATE_PAYMENT_EVENTS_TABLE = "CREATE TABLE IF NOT EXISTS payment_events ("
+            + "id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+            + "body MEDIUMBLOB NOT NULL,"
+            + "received_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,"
+            + "failed_at TIMESTAMP NULL,"
+            + "error VARCHAR(255)"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    // Which registration (token) each gateway order paid for
+    private static final String CREATE_PAYMENT_REGISTRATIONS_TABLE = "CREATE TABLE IF NOT EXISTS payment_registrations ("
+            + "order_id VARCHAR(64) PRIMARY KEY,"
+            + "token VARCHAR(50) NOT NULL,"
+            + "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    // Queue changes shared by the nodes of a cluster (see ClusterQueueLog), in
+    // order per partition
+    private static final String CREATE_QUEUE_LOG_TABLE = "CREATE TABLE IF NOT EXISTS queue_log ("
+            + "partition_key VARCHAR(64) NOT NULL,"
+            + "seq BIGINT NOT NULL,"
+            + "op VARCHAR(8) NOT NULL,"
+            + "token VARCHAR(50),"
+            + "department VARCHAR(16),"
+            + "name VARCHAR(255),"
+            + "age INT,"
+            + "priority VARCHAR(16),"
+            + "kiosk VARCHAR(64),"
+            + "node VARCHAR(64) NOT NULL,"
+            + "at_ms BIGINT NOT NULL,"
+            + "PRIMARY KEY (partition_key, seq)"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
+    private static final String[] SCHEMA = { CREATE_PATIENTS_TABLE, CREATE_PATIENTS_HISTORY_TABLE,
+            CREATE_TOKEN_SEQUENCES_TABLE, CREATE_PAYMENT_ORDERS_TABLE, CREATE_PAYMENTS_TABLE,
+            CREATE_PAYMENT_EVENTS_TABLE, CREATE_PAYMENT_REGISTRATIONS_TABLE, CREATE_QUEUE_LOG_TABLE };
+
+    // Columns added after the first release: table, column, definition, and an
+    // UPDATE that fills them in for existing rows (or null). Rows from before
+    // visit_date existed count as today's, so none drop out of the queue on upgrade.
+    private static final String[][] COLUMNS = {
+            { "patients", "visit_date", "DATE",
+                    "UPDATE patients SET visit_date = CURRENT_DATE WHERE visit_date IS NULL" },
+            { "patients", "status", "VARCHAR(16) NOT NULL DEFAULT 'WAITING'", null },
+            // Registration time in epoch ms; older rows have none and rejoin at load time
+            { "patients", "arrived_at", "BIGINT", null },
+    };
+
+    // name -> table(columns); MySQL has no CREATE INDEX IF NOT EXISTS
+    private static final String[][] INDEXES = {
+            { "idx_patients_token", "patients (token)" },
+            { "idx_payments_order", "payments (order_id)" },
+            { "idx_patients_visit", "patients (visit_date, status)" },
+    };
+
+    // A failed schema bootstrap is retried after SCHEMA_RETRY_MIN_MS, doubling
+    // up to SCHEMA_RETRY_MAX_MS, instead of on every getConnection()
+    private static final long SCHEMA_RETRY_MIN_MS = 1_000;
+    private static final long SCHEMA_RETRY_MAX_MS = 60_000;
+
+    private final DataSource dataSource;
+    private volatile boolean schemaReady;
+    private volatile long nextSchemaAttempt;
+    private long schemaRetryMs = SCHEMA_RETRY_MIN_MS;
+    private volatile String schemaError;
+    private volatile SqlDialect dialect = SqlDialect.MYSQL;
+
+    // Time callers spend waiting for a pooled connection
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+    public DBConnection(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @PostConstruct
+    void initSchema() {
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            // getConnection() already bootstrapped the schema
+            log.info("Database ready ({}) in {} ms", dialect, (System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException e) {
+            // DB not reachable yet; the schema is created on the first successful connection
+            log.warn("Database unavailable at startup: {}", e.getMessage());
+        }
+    }
+
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection conn = dataSource.getConnection();
+        long waited = System.nanoTime() - start;
+        acquisitions.increment();
+        acquireNanos.add(waited);
+        maxAcquireNanos.accumulateAndGet(waited, Math::max);
+
+        if (!schemaReady && System.currentTimeMillis() >= nextSchemaAttempt) {
+            ensureSchema(conn);
+        }
+        return conn;
+    }
+
+    private synchronized void ensureSchema(Connection conn) {
+        if (schemaReady || System.currentTimeMillis() < nextSchemaAttempt) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            dialect = SqlDialect.of(conn);
+            for (String ddl : SCHEMA) {
+                stmt.executeUpdate(ddl);
+            }
+            for (String[] column : COLUMNS) {
+                addColumnIfMissing(conn, stmt, column[0], column[1], column[2], column[3]);
+            }
+            for (String[] index : INDEXES) {
+                createIndexIfMissing(conn, stmt, index[0], index[1]);
+            }
+            schemaReady = true;
+            schemaError = null;
+        } catch (SQLException e) {
+            // Hand out the connection anyway; callers see failures on actual
+            // operations. The DDL is not re-run under this lock until the back-off passes.
+            schemaError = e.getMessage();
+            nextSchemaAttempt = System.currentTimeMillis() + schemaRetryMs;
+            log.error("Could not create schema, retrying in {} ms", schemaRetryMs, e);
+            schemaRetryMs = Math.min(SCHEMA_RETRY_MAX_MS, schemaRetryMs * 2);
+        }
+    }
+
+    private static void addColumnIfMissing(Connection conn, Statement stmt, String table, String column,
+                                           String definition, String backfill) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, table, null)) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                    return;
+                }
             }
-            return conn;
-        } catch (SQLException firstEx) {
-            // Try to create the database if it doesn't exist, then reconnect
-            try (Connection conn = DriverManager.getConnection(URL_NO_DB, USER, PASSWORD);
-                 Statement stmt = conn.createStatement()) {
-                String createDb = "CREATE DATABASE IF NOT EXISTS hospital_queue CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci";
-                stmt.executeUpdate(createDb);
-            } catch (SQLException createEx) {
-                // If we can't create the DB, rethrow original exception with both messages
-                SQLException e = new SQLException("Failed to connect and failed to create DB: "
-                        + firstEx.getMessage() + " | " + createEx.getMessage());
-                e.initCause(createEx);
-                throw e;
+        }
+        stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        if (backfill != null) {
+            stmt.executeUpdate(backfill);
+        }
+        log.info("Added column {}.{}", table, column);
+    }
+
+    private static void createIndexIfMissing(Connection conn, Statement stmt, String name, String target) throws SQLException {
+        String table = target.substring(0, target.indexOf(' '));
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, table, false, false)) {
+            while (rs.next()) {
+                if (name.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return;
+                }
             }
+        }
+        stmt.executeUpdate("CREATE INDEX " + name + " ON " + target);
+    }
+
+    // Known once the first connection succeeded; MySQL until then
+    public SqlDialect dialect() {
+        return dialect;
+    }
 
-            // Try connecting again now that DB should exist, and ensure table exists
-            Connection conn = DriverManager.getConnection(URL_WITH_DB, USER, PASSWORD);
-            try (Statement stmt = conn.createStatement()) {
-                String createTable = "CREATE TABLE IF NOT EXISTS patients ("
-                        + "id INT AUTO_INCREMENT PRIMARY KEY,"
-                        + "name VARCHAR(255),"
-                        + "age INT,"
-                        + "token VARCHAR(50)"
-                        + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
-                stmt.executeUpdate(createTable);
-            } catch (SQLException e) {
-                e.printStackTrace();
+    // Snapshot of pool usage for sizing: active/idle/awaiting from Hikari plus
+    // the connection wait times observed by callers of getConnection().
+    public Map<String, Object> poolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                HikariDataSource hikari = dataSource.unwrap(HikariDataSource.class);
+                stats.put("pool", hikari.getPoolName());
+                stats.put("maxPoolSize", hikari.getMaximumPoolSize());
+                HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+                if (pool != null) {
+                    stats.put("active", pool.getActiveConnections());
+                    stats.put("idle", pool.getIdleConnections());
+                    stats.put("total", pool.getTotalConnections());
+                    stats.put("awaiting", pool.getThreadsAwaitingConnection());
+                }
             }
-            return conn;
+        } catch (SQLException e) {
+            stats.put("error", e.getMessage());
+        }
+        long count = acquisitions.sum();
+        stats.put("acquisitions", count);
+        stats.put("avgWaitMs", count == 0 ? 0.0 : acquireNanos.sum() / (double) count / 1_000_000);
+        stats.put("maxWaitMs", maxAcquireNanos.get() / 1_000_000.0);
+        stats.put("schemaReady", schemaReady);
+        if (schemaError != null) {
+            stats.put("schemaError", schemaError);
         }
+        stats.put("dialect", dialect.name());
+        return stats;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package com.example.demo;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.web.bind.annotation.*;
+
+import com.example.PatientWriter;
+
+@RestController
+@Lazy
+@RequestMapping("/api/db")
+@CrossOrigin(origins = "*")
+public class DatabaseController {
+
+    private final DBConnection db;
+    private final PatientWriter writer;
+    private final ObjectProvider<ClusterQueueLog> cluster;
+    private final ObjectProvider<PatientArchiver> archiver;
+
+    public DatabaseController(DBConnection db, PatientWriter writer, ObjectProvider<ClusterQueueLog> cluster,
+                              ObjectProvider<PatientArchiver> archiver) {
+        this.db = db;
+        this.writer = writer;
+        this.cluster = cluster;
+        this.archiver = archiver;
+    }
+
+    // Pool usage (active/idle/awaiting connections and wait times) for sizing the pool
+    @GetMapping("/pool-stats")
+    public Map<String, Object> poolStats() {
+        return db.poolStats();
+    }
+
+    // Write path counters: batch sizes, flush latency and queue depth in write-behind mode
+    @GetMapping("/writer-stats")
+    public Map<String, Object> writerStats() {
+        return writer.stats();
+    }
+
+    // Shared queue log position and append conflicts in cluster mode
+    @GetMapping("/cluster-stats")
+    public Map<String, Object> clusterStats() {
+        ClusterQueueLog clusterLog = cluster.getIfAvailable();
+        return clusterLog == null ? Map.of("enabled", false) : clusterLog.stats();
+    }
+
+    // Rows moved to patients_history by the end-of-day archiver
+    @GetMapping("/archive-stats")
+    public Map<String, Object> archiveStats() {
+        PatientArchiver patientArchiver = archiver.getIfAvailable();
+        return patientArchiver == null ? Map.of("enabled", false) : patientArchiver.stats();
+    }
+}
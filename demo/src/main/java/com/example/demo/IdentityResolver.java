@@ -0,0 +1,9 @@
+package com.example.demo;
+
+import com.example.Patient;
+
+// Resolves a normalized 12-digit Aadhaar number (as a long) to patient details.
+// Returns null when the number is not known to the source.
+public interface IdentityResolver {
+    Patient resolve(long aadhaar);
+}
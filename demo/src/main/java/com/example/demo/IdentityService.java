@@ -0,0 +1,165 @@
+package com.example.demo;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.Patient;
+
+// Aadhaar lookups for /api/fetch-aadhar and the biometric mock. Known demo
+// numbers come from an immutable index built once; everything else goes to the
+// remote IdentityResolver behind a bounded LRU cache with a TTL. Numbers the
+// resolver does not know are cached too (for a shorter time) so repeated
+// lookups of a bad number do not hit the remote service again.
+@Component
+public class IdentityService {
+
+    public static final long INVALID = -1;
+
+    // Demo mapping: add known Aadhaar numbers here to return realistic names
+    private static final List<Patient> DEMO_PATIENTS = List.of(
+            new Patient("Rahul Kumar", 28, "PENDING"),
+            new Patient("Anita Sharma", 34, "PENDING"),
+            new Patient("Suresh Patel", 45, "PENDING"),
+            new Patient("Meena Gupta", 29, "PENDING"),
+            new Patient("Amit Joshi", 38, "PENDING"),
+            new Patient("Priya Reddy", 31, "PENDING"));
+    private static final Map<Long, Patient> DEMO_INDEX = Map.of(
+            123456789012L, DEMO_PATIENTS.get(0),
+            987654321098L, DEMO_PATIENTS.get(1),
+            111122223333L, DEMO_PATIENTS.get(2),
+            444455556666L, DEMO_PATIENTS.get(3),
+            555566667777L, DEMO_PATIENTS.get(4),
+            888899990000L, DEMO_PATIENTS.get(5));
+
+    private record Cached(Patient patient, long expiresAt) {
+    }
+
+    private final IdentityResolver remote;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    // Access-ordered, so the eldest entry is the least recently used
+    private final LinkedHashMap<Long, Cached> cache;
+    private final LongSupplier nanoTime;
+
+    private final LongAdder indexHits = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder remoteCalls = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder remoteNanos = new LongAdder();
+    private final AtomicLong maxRemoteNanos = new AtomicLong();
+
+    @Autowired
+    public IdentityService(IdentityResolver remote,
+                           @Value("${identity.cache.max-size:10000}") int maxEntries,
+                           @Value("${identity.cache.ttl-seconds:600}") long ttlSeconds,
+                           @Value("${identity.cache.negative-ttl-seconds:60}") long negativeTtlSeconds) {
+        this(remote, maxEntries, ttlSeconds, negativeTtlSeconds, System::nanoTime);
+    }
+
+    // Tests move time forward through nanoTime
+    IdentityService(IdentityResolver remote, int maxEntries, long ttlSeconds, long negativeTtlSeconds,
+                    LongSupplier nanoTime) {
+        this.remote = remote;
+        this.nanoTime = nanoTime;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+                return size() > IdentityService.this.maxEntries;
+            }
+        };
+    }
+
+    // Strips everything but digits (spaces, dashes) in one pass without
+    // allocating; returns the 12-digit number or INVALID.
+    public static long normalize(String raw) {
+        if (raw == null) {
+            return INVALID;
+        }
+        long value = 0;
+        int digits = 0;
+        for (int i = 0, n = raw.length(); i < n; i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 12) {
+                    return INVALID;
+                }
+                value = value * 10 + (c - '0');
+            }
+        }
+        return digits == 12 ? value : INVALID;
+    }
+
+    // Patient for a raw Aadhaar string, or null if the number is invalid or unknown
+    public Patient lookup(String raw) {
+        long aadhaar = normalize(raw);
+        if (aadhaar == INVALID) {
+            invalid.increment();
+            return null;
+        }
+        Patient known = DEMO_INDEX.get(aadhaar);
+        if (known != null) {
+            indexHits.increment();
+            return known;
+        }
+
+        long now = nanoTime.getAsLong();
+        synchronized (cache) {
+            Cached cached = cache.get(aadhaar);
+            if (cached != null && now - cached.expiresAt() < 0) {
+                if (cached.patient() == null) {
+                    negativeHits.increment();
+                } else {
+                    cacheHits.increment();
+                }
+                return cached.patient();
+            }
+        }
+
+        remoteCalls.increment();
+        Patient resolved = remote.resolve(aadhaar);
+        long took = nanoTime.getAsLong() - now;
+        remoteNanos.add(took);
+        maxRemoteNanos.accumulateAndGet(took, Math::max);
+
+        long expiresAt = nanoTime.getAsLong() + (resolved == null ? negativeTtlNanos : ttlNanos);
+        synchronized (cache) {
+            cache.put(aadhaar, new Cached(resolved, expiresAt));
+        }
+        return resolved;
+    }
+
+    // Demo patients in a fixed order, for the biometric mock
+    public List<Patient> demoPatients() {
+        return DEMO_PATIENTS;
+    }
+
+    public Map<String, Object> stats() {
+        long calls = remoteCalls.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("indexHits", indexHits.sum());
+        stats.put("cacheHits", cacheHits.sum());
+        stats.put("negativeHits", negativeHits.sum());
+        stats.put("remoteCalls", calls);
+        stats.put("invalid", invalid.sum());
+        stats.put("avgRemoteMs", calls == 0 ? 0.0 : remoteNanos.sum() / (double) calls / 1_000_000);
+        stats.put("maxRemoteMs", maxRemoteNanos.get() / 1_000_000.0);
+        synchronized (cache) {
+            stats.put("cacheSize", cache.size());
+        }
+        return stats;
+    }
+}
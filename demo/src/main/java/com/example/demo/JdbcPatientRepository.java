@@ -0,0 +1,99 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.example.Patient;
+import com.example.PatientRepository;
+import com.example.PatientRow;
+
+// PatientRepository on whichever database DBConnection points at
+@Component
+public class JdbcPatientRepository implements PatientRepository {
+
+    // Served by idx_patients_visit; yesterday's leftovers are PatientArchiver's.
+    // The day is the service day the writers stamp rows with (see PatientStatements).
+    private static final String SELECT_WAITING = "SELECT name, age, token, arrived_at, visit_date FROM patients "
+            + "WHERE visit_date = ? AND status = 'WAITING' ORDER BY id";
+    private static final String SELECT_PAGE = "SELECT id, token, name, age FROM patients WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_AFTER = "SELECT id, token, name, age FROM patients WHERE id > ? ORDER BY id";
+
+    private final DBConnection db;
+    private final Clock clock;
+
+    public JdbcPatientRepository(DBConnection db) {
+        this(db, Clock.systemDefaultZone());
+    }
+
+    @Autowired
+    public JdbcPatientRepository(DBConnection db, Clock clock) {
+        this.db = db;
+        this.clock = clock;
+    }
+
+    @Override
+    public List<Patient> loadWaiting() throws SQLException {
+        List<Patient> patients = new ArrayList<>();
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_WAITING)) {
+            stmt.setFetchSize(500);
+            stmt.setObject(1, LocalDate.now(clock));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Patient p = new Patient(rs.getString("name"), rs.getInt("age"), rs.getString("token"));
+                    p.setArrivedAt(rs.getLong("arrived_at"));
+                    p.setVisitDay(rs.getObject("visit_date", LocalDate.class));
+                    patients.add(p);
+                }
+            }
+        }
+        return patients;
+    }
+
+    // Keyset pagination, served by the primary key index however deep the page is
+    @Override
+    public List<PatientRow> listPatients(long afterId, int limit) throws SQLException {
+        List<PatientRow> rows = new ArrayList<>(limit);
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_PAGE)) {
+            stmt.setLong(1, afterId);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(toRow(rs));
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Rows are handed over as they are read, so day-end exports never hold the
+    // full result set in memory
+    @Override
+    public void forEachPatient(long afterId, RowHandler handler) throws SQLException, IOException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_AFTER, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(db.dialect().streamingFetchSize());
+            stmt.setLong(1, afterId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(toRow(rs));
+                }
+            }
+        }
+    }
+
+    private static PatientRow toRow(ResultSet rs) throws SQLException {
+        return new PatientRow(rs.getLong("id"), rs.getString("token"), rs.getString("name"), rs.getInt("age"));
+    }
+}
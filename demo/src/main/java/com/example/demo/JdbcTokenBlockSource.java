@@ -0,0 +1,130 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.example.TokenAllocator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Reserves token blocks from the token_sequences table. Each reservation is a
+// short row-locked transaction, so several backend nodes can share one MySQL
+// database and never receive overlapping ranges.
+@Component
+public class JdbcTokenBlockSource implements TokenAllocator.BlockSource {
+
+    private final DBConnection db;
+    private final Timer reserveTimer;
+    // TokenAllocator issues offline tokens when a reservation fails
+    private final Counter localFallback;
+
+    public JdbcTokenBlockSource(DBConnection db, MeterRegistry registry) {
+        this.db = db;
+        this.reserveTimer = KioskMeters.dbQuery(registry, "token_reserve");
+        this.localFallback = KioskMeters.fallback(registry, "token_local");
+    }
+
+    @Override
+    public long reserve(String sequence, int size, long floor) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return reserveBlock(sequence, size, floor);
+        } catch (SQLException e) {
+            localFallback.increment();
+            throw e;
+        } finally {
+            reserveTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private long reserveBlock(String sequence, int size, long floor) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            try {
+                // Seeded in a transaction of its own, before any row lock is taken
+                conn.setAutoCommit(true);
+                seedIfMissing(conn, sequence);
+                conn.setAutoCommit(false);
+                long start = Math.max(lockNextValue(conn, sequence), floor);
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "UPDATE token_sequences SET next_value = ? WHERE name = ?")) {
+                    stmt.setLong(1, start + size);
+                    stmt.setString(2, sequence);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+                return start;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    // First use of a sequence (each department, and each day with reset-daily):
+    // seed it from the tokens already issued. Under MySQL's REPEATABLE READ a
+    // locking read of the missing row would take a gap lock, and two nodes that
+    // both went on to insert it would deadlock; INSERT IGNORE simply leaves the
+    // row another node seeded first.
+    private void seedIfMissing(Connection conn, String sequence) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM token_sequences WHERE name = ?")) {
+            stmt.setString(1, sequence);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT IGNORE INTO token_sequences (name, next_value) VALUES (?, ?)")) {
+            stmt.setString(1, sequence);
+            stmt.setLong(2, highestIssued(conn, sequence) + 1);
+            stmt.executeUpdate();
+        }
+    }
+
+    private long lockNextValue(Connection conn, String sequence) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT next_value FROM token_sequences WHERE name = ? FOR UPDATE")) {
+            stmt.setString(1, sequence);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+        }
+        throw new SQLException("Token sequence " + sequence + " is missing");
+    }
+
+    // Daily sequences ("HOS-20260101") start from 1; plain prefixes continue
+    // from the highest token already in the patients table.
+    private long highestIssued(Connection conn, String sequence) throws SQLException {
+        if (sequence.indexOf('-') >= 0) {
+            return 0;
+        }
+        long max = 0;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT token FROM patients WHERE token LIKE ?")) {
+            stmt.setString(1, sequence + "%");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String token = rs.getString(1);
+                    try {
+                        max = Math.max(max, Long.parseLong(token.substring(sequence.length())));
+                    } catch (NumberFormatException ignored) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        return max;
+    }
+}
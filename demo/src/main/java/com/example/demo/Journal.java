@@ -0,0 +1,344 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.example.Patient;
+
+// Append-only journal of queue writes in a memory-mapped file. Every record gets
+// a sequence number; checkpoint(seq) marks everything up to seq as safely in
+// MySQL, and pending() returns what still has to be replayed after a restart.
+// The fsync policy trades durability for append latency: ALWAYS forces each
+// record to disk, INTERVAL forces in the background every intervalMs, NEVER
+// leaves it to the OS (survives a JVM crash, not a power cut).
+//
+// Layout: [long checkpoint][long live region] then two regions of equal size.
+// The live one holds records of
+//   [int length][int crc][long seq][byte type][token][name][int age]
+//   [long arrived at][int day]
+// where strings are [short length][utf-8 bytes], at most MAX_FIELD_BYTES, and
+// day is the service day the change was made on (epoch day), so a replay on a
+// later day still stamps the right visit_date. A zero length ends the log.
+// When the live region fills up, the records not yet checkpointed are copied
+// to the other region, which becomes live only once the copy is on disk: a
+// crash during compaction leaves the old region as it was.
+//
+// Changes the database refuses for good (see PatientStatements.isTransient) go
+// to <file>.quarantine, one tab-separated line each, so the writers can
+// checkpoint past them and someone can re-enter them by hand.
+public class Journal implements AutoCloseable {
+
+    public enum FsyncPolicy { ALWAYS, INTERVAL, NEVER }
+
+    public static final byte ADD = 1;
+    public static final byte DELETE = 2;
+    // Patient called by a doctor; like DELETE it carries only the token
+    public static final byte CALLED = 3;
+
+    static final int HEADER = Long.BYTES * 2;
+    private static final int LIVE_REGION = Long.BYTES;
+    private static final byte[] ZEROS = new byte[64 * 1024];
+    private static final int RECORD_HEADER = Integer.BYTES * 2;
+    // Longest string stored: more than any patients column holds (255 characters
+    // of up to 4 bytes), so nothing the database would accept is cut, and well
+    // inside what the short length field can describe
+    static final int MAX_FIELD_BYTES = 1024;
+
+    public static final class Record {
+        public final long seq;
+        public final byte type;
+        public final String token;
+        public final String name;
+        public final int age;
+        // Registration time of an ADD (epoch ms), 0 for other records
+        public final long arrivedAt;
+        public final LocalDate day;
+
+        Record(long seq, byte type, String token, String name, int age, long arrivedAt, LocalDate day) {
+            this.seq = seq;
+            this.type = type;
+            this.token = token;
+            this.name = name;
+            this.age = age;
+            this.arrivedAt = arrivedAt;
+            this.day = day;
+        }
+
+        public Patient toPatient() {
+            Patient p = new Patient(name, age, token);
+            p.setArrivedAt(arrivedAt);
+            p.setVisitDay(day);
+            return p;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] regions;
+    // The live region; its position is the end of the log
+    private MappedByteBuffer log;
+    private int live;
+    private final CRC32 crc = new CRC32();
+    private final FsyncPolicy fsync;
+    private final ScheduledExecutorService syncer;
+    private boolean dirty;
+    private long checkpoint;
+    private long lastSeq;
+    private final Path quarantineFile;
+    private long quarantined;
+
+    public Journal(Path file, int sizeBytes) throws IOException {
+        this(file, sizeBytes, FsyncPolicy.ALWAYS, 0);
+    }
+
+    public Journal(Path file, int sizeBytes, FsyncPolicy fsync, long intervalMs) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        quarantineFile = file.resolveSibling(file.getFileName() + ".quarantine");
+        if (Files.exists(quarantineFile)) {
+            try (var lines = Files.lines(quarantineFile, StandardCharsets.UTF_8)) {
+                quarantined = lines.count();
+            }
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+        header = buffer.slice(0, HEADER);
+        int regionSize = (sizeBytes - HEADER) / 2;
+        regions = new MappedByteBuffer[] { buffer.slice(HEADER, regionSize), buffer.slice(HEADER + regionSize, regionSize) };
+        checkpoint = header.getLong(0);
+        live = header.getLong(LIVE_REGION) == 1 ? 1 : 0;
+        log = regions[live];
+        // Find the end of the log; a torn last record (bad crc) is discarded
+        for (Record r; (r = readNext()) != null; ) {
+            lastSeq = r.seq;
+        }
+        this.fsync = fsync;
+        if (fsync == FsyncPolicy.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    public synchronized long appendAdd(Patient p, LocalDate day) throws IOException {
+        return append(ADD, p.getToken(), p.getName(), p.getAge(), p.getArrivedAt(), day);
+    }
+
+    public synchronized long appendDelete(String token, LocalDate day) throws IOException {
+        return append(DELETE, token, "", 0, 0, day);
+    }
+
+    public synchronized long appendCalled(String token, LocalDate day) throws IOException {
+        return append(CALLED, token, "", 0, 0, day);
+    }
+
+    // Everything up to and including seq has reached the database
+    public synchronized void checkpoint(long seq) {
+        if (seq > checkpoint) {
+            checkpoint = seq;
+            header.putLong(0, seq);
+        }
+    }
+
+    // Sets aside a change the database will never accept; seq is 0 for one
+    // that failed before it was journaled
+    public synchronized void quarantine(Record r, String reason) throws IOException {
+        String line = String.join("\t", Instant.now().toString(), Long.toString(r.seq), typeName(r.type),
+                field(r.token), Integer.toString(r.age), field(r.name), field(reason),
+                r.day.toString()) + "\n";
+        Files.writeString(quarantineFile, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        quarantined++;
+    }
+
+    public synchronized long quarantinedCount() {
+        return quarantined;
+    }
+
+    private static String typeName(byte type) {
+        return switch (type) {
+            case ADD -> "ADD";
+            case DELETE -> "DELETE";
+            case CALLED -> "CALLED";
+            default -> Byte.toString(type);
+        };
+    }
+
+    private static String field(String value) {
+        return value == null ? "" : value.replaceAll("[\\t\\r\\n]", " ");
+    }
+
+    public synchronized List<Record> pending() {
+        List<Record> records = new ArrayList<>();
+        int end = log.position();
+        log.position(0);
+        for (Record r; log.position() < end && (r = readNext()) != null; ) {
+            if (r.seq > checkpoint) {
+                records.add(r);
+            }
+        }
+        log.position(end);
+        return records;
+    }
+
+    // Bytes of the live region in use
+    public synchronized int usedBytes() {
+        return log.position();
+    }
+
+    public synchronized long pendingCount() {
+        return lastSeq - checkpoint;
+    }
+
+    public synchronized void sync() {
+        if (dirty) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    private long append(byte type, String token, String name, int age, long arrivedAt, LocalDate day) throws IOException {
+        byte[] tokenBytes = encode(token);
+        byte[] nameBytes = encode(name);
+        int length = Long.BYTES + 1 + 2 + tokenBytes.length + 2 + nameBytes.length + Integer.BYTES * 2 + Long.BYTES;
+        if (log.remaining() < RECORD_HEADER + length + Integer.BYTES) {
+            compact();
+            if (log.remaining() < RECORD_HEADER + length + Integer.BYTES) {
+                throw new IOException("Journal full: " + (lastSeq - checkpoint) + " records not yet flushed");
+            }
+        }
+        long seq = lastSeq + 1;
+        int start = log.position();
+        log.position(start + RECORD_HEADER);
+        log.putLong(seq);
+        log.put(type);
+        log.putShort((short) tokenBytes.length).put(tokenBytes);
+        log.putShort((short) nameBytes.length).put(nameBytes);
+        log.putInt(age);
+        log.putLong(arrivedAt);
+        log.putInt((int) day.toEpochDay());
+        crc.reset();
+        crc.update(log.slice(start + RECORD_HEADER, length));
+        log.putInt(start, length);
+        log.putInt(start + Integer.BYTES, (int) crc.getValue());
+        if (fsync == FsyncPolicy.ALWAYS) {
+            log.force(start, RECORD_HEADER + length);
+        } else {
+            dirty = true;
+        }
+        lastSeq = seq;
+        return seq;
+    }
+
+    // UTF-8 bytes of a field, cut at a character boundary if over MAX_FIELD_BYTES
+    private static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_FIELD_BYTES) {
+            return bytes;
+        }
+        int end = MAX_FIELD_BYTES;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        return Arrays.copyOf(bytes, end);
+    }
+
+    // Reads the record at the current position, or returns null (position
+    // unchanged) at the end of the log or at a torn/corrupt record.
+    private Record readNext() {
+        int start = log.position();
+        if (log.remaining() < RECORD_HEADER) {
+            return null;
+        }
+        int length = log.getInt(start);
+        if (length <= 0 || length > log.remaining() - RECORD_HEADER) {
+            return null;
+        }
+        ByteBuffer body = log.slice(start + RECORD_HEADER, length);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != log.getInt(start + Integer.BYTES)) {
+            return null;
+        }
+        body.rewind();
+        long seq = body.getLong();
+        byte type = body.get();
+        String token = readString(body);
+        String name = readString(body);
+        int age = body.getInt();
+        long arrivedAt = body.getLong();
+        LocalDate day = LocalDate.ofEpochDay(body.getInt());
+        log.position(start + RECORD_HEADER + length);
+        return new Record(seq, type, token, name, age, arrivedAt, day);
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[Short.toUnsignedInt(body.getShort())];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Drops checkpointed records by copying the unflushed tail to the other
+    // region and then switching the header over to it. Until the switch is
+    // written the live region is untouched, so there is always one whole log.
+    private void compact() {
+        int end = log.position();
+        log.position(0);
+        int tailStart = end;
+        for (Record r; log.position() < end; ) {
+            int recordStart = log.position();
+            if ((r = readNext()) == null) {
+                break;
+            }
+            if (r.seq > checkpoint) {
+                tailStart = recordStart;
+                break;
+            }
+        }
+        log.position(end);
+        int tailLength = end - tailStart;
+        MappedByteBuffer next = regions[1 - live];
+        next.put(0, log, tailStart, tailLength);
+        // Records left from the last time this region was live must not read back
+        for (int i = tailLength; i < next.capacity(); i += ZEROS.length) {
+            next.put(i, ZEROS, 0, Math.min(ZEROS.length, next.capacity() - i));
+        }
+        next.force();
+        live = 1 - live;
+        header.putLong(LIVE_REGION, live);
+        header.force();
+        log = next;
+        log.position(tailLength);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Names of the kiosk's own meters, so every component tags them the same way.
+// All of them are scraped from /actuator/prometheus next to Spring's
+// http.server.requests (per /api endpoint) and the hikaricp.* pool meters.
+public final class KioskMeters {
+
+    private KioskMeters() {
+    }
+
+    // Database time by query: token_reserve, insert, delete, batch, replay, ...
+    public static Timer dbQuery(MeterRegistry registry, String query) {
+        return Timer.builder("kiosk.db.query")
+                .description("Time spent in database statements, by query")
+                .tag("query", query)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    // Work that could not go to MySQL and was handled locally instead
+    public static Counter fallback(MeterRegistry registry, String reason) {
+        return Counter.builder("kiosk.fallback")
+                .description("Operations that fell back from the database to a local path")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    // One payment gateway HTTP attempt
+    public static Timer gateway(MeterRegistry registry, String outcome) {
+        return Timer.builder("kiosk.gateway.request")
+                .description("Payment gateway call latency, by outcome")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
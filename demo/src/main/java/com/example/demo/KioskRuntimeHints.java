@@ -0,0 +1,48 @@
+package com.example.demo;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+import com.example.Patient;
+import com.example.PatientRow;
+import com.example.Priority;
+import com.example.QueueEvent;
+
+// What a native image (mvn -Pnative) cannot discover by itself. The
+// controllers build their JSON with ObjectMapper or return maps, so Spring
+// does not see the types Jackson reflects on. Connector/J ships no native
+// metadata and loads its URL parsers, socket factory, logger and
+// authentication plugins by class name; it is a runtime dependency, hence the
+// names as strings. H2 ships its own metadata.
+class KioskRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final String[] MYSQL_CLASSES = {
+            "com.mysql.cj.jdbc.Driver",
+            "com.mysql.cj.conf.url.SingleConnectionUrl",
+            "com.mysql.cj.protocol.StandardSocketFactory",
+            "com.mysql.cj.log.StandardLogger",
+            "com.mysql.cj.log.Slf4JLogger",
+            "com.mysql.cj.protocol.a.authentication.CachingSha2PasswordPlugin",
+            "com.mysql.cj.protocol.a.authentication.MysqlNativePasswordPlugin",
+            "com.mysql.cj.protocol.a.authentication.MysqlClearPasswordPlugin",
+            "com.mysql.cj.protocol.a.authentication.Sha256PasswordPlugin",
+    };
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        BindingReflectionHintsRegistrar bindings = new BindingReflectionHintsRegistrar();
+        bindings.registerReflectionHints(hints.reflection(), Patient.class, Priority.class, QueueEvent.class,
+                PatientRow.class);
+
+        for (String type : MYSQL_CLASSES) {
+            hints.reflection().registerType(TypeReference.of(type), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+        hints.resources().registerResourceBundle("com.mysql.cj.LocalizedErrorMessages");
+        hints.resources().registerPattern("com/mysql/cj/TlsSettings.properties");
+        hints.resources().registerPattern("com/mysql/cj/util/TimeZoneMapping.properties");
+        hints.resources().registerPattern("com/mysql/cj/configurations/*.properties");
+    }
+}
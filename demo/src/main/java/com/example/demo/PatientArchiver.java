@@ -0,0 +1,170 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// End-of-day archiving (kiosk.archive.*): moves the rows of past days from the
+// patients table to patients_history, so the active table only holds about a
+// day of registrations and every query on it (token lookups, the startup
+// reload) costs the same after a year as on the first day. Runs once at
+// startup, catching up on days the kiosk was off, then daily at `runAt`.
+// Rows move in batches, one short transaction each, so registrations made
+// meanwhile wait at most one batch for a lock. Patients who were never called
+// are archived as MISSED. "Today" comes from the service clock, the same day
+// the writers stamp rows with.
+public class PatientArchiver implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientArchiver.class);
+
+    // Highest id of the next batch; a derived table because MySQL has no LIMIT in IN (...)
+    static final String BATCH_END = "SELECT MAX(id) FROM "
+            + "(SELECT id FROM patients WHERE visit_date < ? ORDER BY id LIMIT ?) batch";
+    static final String COPY = "INSERT INTO patients_history (visit_date, id, token, name, age, status) "
+            + "SELECT visit_date, id, token, name, age, CASE status WHEN 'WAITING' THEN 'MISSED' ELSE status END "
+            + "FROM patients WHERE visit_date < ? AND id <= ?";
+    static final String PURGE = "DELETE FROM patients WHERE visit_date < ? AND id <= ?";
+
+    private final DBConnection db;
+    private final int batchSize;
+    private final LocalTime runAt;
+    private final Clock clock;
+    private final ScheduledExecutorService archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "patient-archiver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long lastRunMs;
+    private volatile int lastArchived;
+    private volatile String lastRunAt;
+    private final Timer batchTimer;
+
+    public PatientArchiver(DBConnection db, int batchSize, LocalTime runAt, Clock clock, MeterRegistry registry) {
+        this.db = db;
+        this.batchSize = batchSize;
+        this.runAt = runAt;
+        this.clock = clock;
+        this.batchTimer = KioskMeters.dbQuery(registry, "archive_batch");
+    }
+
+    public void start() {
+        archiver.execute(this::run);
+        archiver.scheduleAtFixedRate(this::run, untilNextRun(), Duration.ofDays(1).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    long untilNextRun() {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        ZonedDateTime next = now.with(runAt);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        return Duration.between(now, next).toMillis();
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        try {
+            LocalDate today = LocalDate.now(clock);
+            int moved = archiveBefore(today);
+            lastArchived = moved;
+            lastRunMs = (System.nanoTime() - start) / 1_000_000;
+            lastRunAt = clock.instant().toString();
+            runs.increment();
+            if (moved > 0) {
+                log.info("Archived {} registrations from before {} in {} ms", moved, today, lastRunMs);
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Rows stay in the active table and go with the next run
+            failures.increment();
+            log.warn("Archiving failed: {}", e.getMessage());
+        }
+    }
+
+    // Moves every row dated before `day` to patients_history; returns how many
+    public int archiveBefore(LocalDate day) throws SQLException {
+        Date before = Date.valueOf(day);
+        int total = 0;
+        try (Connection conn = db.getConnection();
+             PreparedStatement end = conn.prepareStatement(BATCH_END);
+             PreparedStatement copy = conn.prepareStatement(COPY);
+             PreparedStatement purge = conn.prepareStatement(PURGE)) {
+            while (true) {
+                long start = System.nanoTime();
+                end.setDate(1, before);
+                end.setInt(2, batchSize);
+                long lastId;
+                try (ResultSet rs = end.executeQuery()) {
+                    rs.next();
+                    lastId = rs.getLong(1);
+                    if (rs.wasNull()) {
+                        return total;
+                    }
+                }
+                conn.setAutoCommit(false);
+                try {
+                    copy.setDate(1, before);
+                    copy.setLong(2, lastId);
+                    int copied = copy.executeUpdate();
+                    purge.setDate(1, before);
+                    purge.setLong(2, lastId);
+                    int purged = purge.executeUpdate();
+                    if (copied != purged) {
+                        throw new SQLException("Archived " + copied + " rows but removed " + purged);
+                    }
+                    conn.commit();
+                    total += copied;
+                    archived.add(copied);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    // Counters for /api/db/archive-stats
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("runAt", runAt.toString());
+        stats.put("batchSize", batchSize);
+        stats.put("runs", runs.sum());
+        stats.put("failures", failures.sum());
+        stats.put("archived", archived.sum());
+        stats.put("lastRunAt", lastRunAt);
+        stats.put("lastArchived", lastArchived);
+        stats.put("lastRunMs", lastRunMs);
+        return stats;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        archiver.shutdown();
+        archiver.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
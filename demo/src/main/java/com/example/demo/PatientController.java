@@ -1,57 +1,90 @@
 package com.example.demo;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import com.example.Patient;
+import com.example.Priority;
 import com.example.QueueManager;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.Base64;
 import java.util.Map;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntSupplier;
 
 @RestController
 @RequestMapping("/api")
 @CrossOrigin(origins = "*") // Allows your Frontend to connect
 public class PatientController {
 
-    QueueManager manager = new QueueManager();
+    private static final Logger log = LoggerFactory.getLogger(PatientController.class);
+
+    // Fingerprint templates are a few hundred bytes; anything far larger is not one
+    static final int MAX_TEMPLATE_BYTES = 4096;
+    // patients.name is VARCHAR(255)
+    static final int MAX_NAME_LENGTH = 255;
+
+    private final QueueManager manager;
+    private final IdentityService identity;
+    private final PaymentReconciler reconciler;
+    private final TemplateIndex templates;
+    private final double matchThreshold;
+    // Shared secret for /biometric/enroll; blank turns enrollment off
+    private final byte[] enrollKey;
+
+    // The payment beans are @Lazy so a rebooted kiosk registers patients sooner;
+    // the reconciler is created with the first paid registration or webhook
+    public PatientController(QueueManager manager, IdentityService identity, @Lazy PaymentReconciler reconciler,
+                             TemplateIndex templates, @Value("${biometric.match.threshold:0.85}") double matchThreshold,
+                             @Value("${biometric.enroll.key:}") String enrollKey) {
+        this.manager = manager;
+        this.identity = identity;
+        this.reconciler = reconciler;
+        this.templates = templates;
+        this.matchThreshold = matchThreshold;
+        this.enrollKey = enrollKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Demo patients get a synthetic template each, so the matcher is never empty
+    @PostConstruct
+    void enrollDemoPatients() {
+        for (Patient p : identity.demoPatients()) {
+            byte[] template = ("demo-template-" + p.getName()).getBytes(StandardCharsets.UTF_8);
+            templates.enroll(p, TemplateIndex.encode(ByteBuffer.wrap(template)));
+        }
+    }
 
     // 1. Fetch Patient via Aadhar (Simulated UIDAI Fetch)
     @GetMapping("/fetch-aadhar/{aadharNum}")
     public Patient getAadharDetails(@PathVariable String aadharNum) {
-        // Simulate UIDAI lookup with a small demo map for better-looking names
-        System.out.println("/api/fetch-aadhar called with raw: '" + aadharNum + "'");
-        if (aadharNum == null) {
-            System.out.println("Aadhar: null received");
+        // Formatted input (spaces, dashes) still works: only the digits are used
+        Patient patient = identity.lookup(aadharNum);
+        if (patient == null) {
             return new Patient("Unknown", 0, "INVALID");
         }
-        // Strip all non-digit characters so formatted input (spaces, dashes) still works
-        String cleaned = aadharNum.replaceAll("\\D+", "");
-        System.out.println("Aadhar cleaned: '" + cleaned + "'");
-        if (cleaned.length() != 12) {
-            System.out.println("Aadhar invalid length: " + cleaned.length());
-            return new Patient("Unknown", 0, "INVALID");
-        }
-
-        // Demo mapping: add known Aadhaar numbers here to return realistic names
-        Map<String, Patient> demo = new HashMap<>();
-        demo.put("123456789012", new Patient("Rahul Kumar", 28, "PENDING"));
-        demo.put("987654321098", new Patient("Anita Sharma", 34, "PENDING"));
-        demo.put("111122223333", new Patient("Suresh Patel", 45, "PENDING"));
-        demo.put("444455556666", new Patient("Meena Gupta", 29, "PENDING"));    
-        demo.put("555566667777", new Patient("Amit Joshi", 38, "PENDING")); 
-        demo.put("888899990000", new Patient("Priya Reddy", 31, "PENDING"));
-
-        if (demo.containsKey(cleaned)) {
-            return demo.get(cleaned);
-        }
+        return patient;
+    }
 
-        // Fallback: create a readable name from the last 4 digits
-        String suffix = cleaned.substring(Math.max(0, cleaned.length() - 4));
-        return new Patient("Patient " + suffix, 30, "PENDING");
+    // Lookup counters: index/cache/negative hits, remote calls and latency
+    @GetMapping("/identity/stats")
+    public Map<String, Object> identityStats() {
+        return identity.stats();
     }
 
     // 1b. Biometric authentication endpoint (mock)
@@ -67,19 +100,110 @@ public class PatientController {
 
         String template = payload.get("template");
         String mode = payload.getOrDefault("mode", "mock");
+        // Mock identities stay keyed on the string as sent, as before the byte path existed
+        return authenticate(ByteBuffer.wrap(templateBytes(template)), template::hashCode, mode);
+    }
+
+    // Binary variant: the raw template as application/octet-stream, no Base64/JSON
+    // wrapping. The body is read straight into a buffer sized from Content-Length.
+    @PostMapping(value = "/biometric/authenticate", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> authenticateBiometricBinary(HttpServletRequest request,
+                                                         @RequestParam(defaultValue = "mock") String mode) throws IOException {
+        ByteBuffer template = readTemplate(request);
+        if (template == null) {
+            return ResponseEntity.status(413).body("{\"status\":\"TEMPLATE_TOO_LARGE\"}");
+        }
+        if (!template.hasRemaining()) {
+            return ResponseEntity.badRequest().body("{\"status\":\"BAD_REQUEST\",\"message\":\"Missing template\"}");
+        }
+        return authenticate(template, () -> base64Hash(template), mode);
+    }
+
+    // Adds a template to the local matcher for the given patient. Demo only: the
+    // matcher is in memory, so enrollments are lost on restart. Off unless
+    // biometric.enroll.key is set, and then only for requests carrying it as
+    // X-Enroll-Key, so nobody at a kiosk can plant an identity.
+    @PostMapping(value = "/biometric/enroll", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> enrollBiometric(HttpServletRequest request, @RequestParam String name,
+                                             @RequestParam int age,
+                                             @RequestHeader(value = "X-Enroll-Key", required = false) String key)
+            throws IOException {
+        if (enrollKey.length == 0 || key == null
+                || !MessageDigest.isEqual(enrollKey, key.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(403).body("{\"status\":\"FORBIDDEN\"}");
+        }
+        if (name.codePointCount(0, name.length()) > MAX_NAME_LENGTH) {
+            return ResponseEntity.badRequest().body("{\"status\":\"BAD_REQUEST\",\"message\":\"Name too long\"}");
+        }
+        ByteBuffer template = readTemplate(request);
+        if (template == null) {
+            return ResponseEntity.status(413).body("{\"status\":\"TEMPLATE_TOO_LARGE\"}");
+        }
+        if (!template.hasRemaining()) {
+            return ResponseEntity.badRequest().body("{\"status\":\"BAD_REQUEST\",\"message\":\"Missing template\"}");
+        }
+        if (!templates.enroll(new Patient(name, age, "PENDING"), TemplateIndex.encode(template))) {
+            return ResponseEntity.status(507).body("{\"status\":\"INDEX_FULL\"}");
+        }
+        return ResponseEntity.ok(Map.of("status", "ENROLLED", "enrolled", templates.size()));
+    }
+
+    // Null if the body is larger than MAX_TEMPLATE_BYTES
+    private static ByteBuffer readTemplate(HttpServletRequest request) throws IOException {
+        long declared = request.getContentLengthLong();
+        if (declared > MAX_TEMPLATE_BYTES) {
+            return null;
+        }
+        ByteBuffer template = ByteBuffer.allocate(declared >= 0 ? (int) declared : MAX_TEMPLATE_BYTES);
+        try (ReadableByteChannel in = Channels.newChannel(request.getInputStream())) {
+            while (template.hasRemaining() && in.read(template) >= 0) {
+                // keep reading until the body ends or the buffer is full
+            }
+            if (!template.hasRemaining() && declared < 0 && request.getInputStream().read() >= 0) {
+                return null;
+            }
+        }
+        return template.flip();
+    }
+
+    // JSON clients send the bridge's Base64 template; anything else is used as-is
+    private static byte[] templateBytes(String template) {
+        try {
+            return Base64.getDecoder().decode(template);
+        } catch (IllegalArgumentException notBase64) {
+            return template.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // String.hashCode() of the template's Base64 text, which is what the JSON
+    // endpoint hashes for the same capture, so a bridge capture maps to the same
+    // mock patient whichever way it is sent
+    private static int base64Hash(ByteBuffer template) {
+        ByteBuffer text = Base64.getEncoder().encode(template.duplicate());
+        int hash = 0;
+        while (text.hasRemaining()) {
+            hash = 31 * hash + text.get();
+        }
+        return hash;
+    }
+
+    private ResponseEntity<?> authenticate(ByteBuffer template, IntSupplier mockHash, String mode) {
+        // Match mode (and mock mode first): 1:N search of the enrolled templates
+        if ("match".equalsIgnoreCase(mode) || "mock".equalsIgnoreCase(mode)) {
+            List<TemplateIndex.Match> matches = templates.search(TemplateIndex.encode(template), 1, matchThreshold);
+            if (!matches.isEmpty()) {
+                TemplateIndex.Match best = matches.get(0);
+                return ResponseEntity.ok().header("X-Match-Score", String.format("%.3f", best.score())).body(best.patient());
+            }
+            if ("match".equalsIgnoreCase(mode)) {
+                return ResponseEntity.status(404).body("{\"status\":\"NO_MATCH\"}");
+            }
+        }
 
         // Mock mode: deterministically map a fingerprint template to one of demo patients
         if ("mock".equalsIgnoreCase(mode)) {
-            Map<String, Patient> demo = new HashMap<>();
-            demo.put("123456789012", new Patient("Rahul Kumar", 28, "PENDING"));
-            demo.put("987654321098", new Patient("Anita Sharma", 34, "PENDING"));
-            demo.put("111122223333", new Patient("Suresh Patel", 45, "PENDING"));
-            demo.put("444455556666", new Patient("Meena Gupta", 29, "PENDING"));
-            demo.put("555566667777", new Patient("Amit Joshi", 38, "PENDING"));
-            demo.put("888899990000", new Patient("Priya Reddy", 31, "PENDING"));
-
-            List<Patient> list = new ArrayList<>(demo.values());
-            int idx = Math.abs(template.hashCode()) % list.size();
+            List<Patient> list = identity.demoPatients();
+            int idx = Math.abs(mockHash.getAsInt() % list.size());
             Patient matched = list.get(idx);
             // Return matched patient object
             return ResponseEntity.ok(matched);
@@ -94,7 +218,8 @@ public class PatientController {
 
     // 2. Add Patient to SQL (The "Confirm & Pay" step)
     @PostMapping("/add-patient")
-    public ResponseEntity<String> addPatient(@RequestBody Map<String, Object> payload) {
+    public ResponseEntity<String> addPatient(@RequestBody Map<String, Object> payload,
+                                             @RequestHeader(value = "X-Kiosk-Id", required = false) String kioskId) {
         // Accept a generic JSON payload (may include `doctor` object) and parse required fields
         try {
             if (payload == null) {
@@ -106,6 +231,9 @@ public class PatientController {
                 return ResponseEntity.badRequest().body("{\"status\":\"BAD_REQUEST\",\"message\":\"Missing name or age\"}");
             }
             String name = nameObj.toString();
+            if (name.codePointCount(0, name.length()) > MAX_NAME_LENGTH) {
+                return ResponseEntity.badRequest().body("{\"status\":\"BAD_REQUEST\",\"message\":\"Name too long\"}");
+            }
             int age;
             if (ageObj instanceof Number) {
                 age = ((Number) ageObj).intValue();
@@ -117,18 +245,76 @@ public class PatientController {
                 }
             }
 
-            manager.addPatient(name, age);
-            return ResponseEntity.ok("{\"status\": \"Success\"}");
+            Patient added = manager.addPatient(name, age, kioskId, departmentHint(payload), priority(payload));
+            // Paid online: remember which order this registration belongs to
+            Object orderId = payload.get("orderId");
+            if (orderId != null && !orderId.toString().isBlank() && orderId.toString().length() <= 64) {
+                reconciler.link(orderId.toString(), added.getToken());
+            }
+            long waitSeconds = Math.max(0, manager.estimatedWaitMillis(added.getToken())) / 1000;
+            return ResponseEntity.ok("{\"status\": \"Success\", \"token\": \"" + added.getToken()
+                    + "\", \"department\": \"" + added.getDepartment()
+                    + "\", \"priority\": \"" + added.getPriority()
+                    + "\", \"estimatedWaitSeconds\": " + waitSeconds + "}");
+        } catch (RejectedExecutionException busy) {
+            // Write-behind queue is full because the database is lagging (or, in cluster
+            // mode, the shared queue log is unreachable); ask the kiosk to retry
+            return ResponseEntity.status(503).body("{\"status\":\"BUSY\",\"message\":\"Registration queue is full, please retry\"}");
         } catch (Exception ex) {
             if (ex instanceof SQLException) {
                 SQLException e = (SQLException) ex;
-                e.printStackTrace();
+                log.error("Registration failed", e);
                 String body = String.format("{\"status\": \"DB_ERROR\", \"message\": \"%s\"}",
                         e.getMessage().replaceAll("\"", "'"));
                 return ResponseEntity.status(500).body(body);
             }
-            ex.printStackTrace();
+            log.error("Registration failed", ex);
             return ResponseEntity.status(500).body("{\"status\":\"ERROR\",\"message\":\"Unexpected server error\"}");
         }
     }
-}
\ No newline at end of file
+
+    // Explicit `department` code, else the department named by the chosen
+    // doctor ({"department": ...} or the specialty in its name)
+    private static String departmentHint(Map<String, Object> payload) {
+        Object department = payload.get("department");
+        if (department != null) {
+            return department.toString();
+        }
+        if (payload.get("doctor") instanceof Map<?, ?> doctor) {
+            Object hint = doctor.get("department") != null ? doctor.get("department") : doctor.get("name");
+            return hint == null ? null : hint.toString();
+        }
+        return null;
+    }
+
+    // "priority": "emergency" | "appointment", or the flags emergency/appointment;
+    // null leaves it to the patient's age
+    private static Priority priority(Map<String, Object> payload) {
+        Object priority = payload.get("priority");
+        if (priority != null) {
+            return Priority.parse(priority.toString());
+        }
+        if (Boolean.TRUE.equals(payload.get("emergency"))) {
+            return Priority.EMERGENCY;
+        }
+        if (Boolean.TRUE.equals(payload.get("appointment"))) {
+            return Priority.APPOINTMENT;
+        }
+        return null;
+    }
+
+    // 3. Undo the last registration made from this kiosk
+    @PostMapping("/undo")
+    public ResponseEntity<String> undoLastEntry(@RequestHeader(value = "X-Kiosk-Id", required = false) String kioskId) {
+        Patient undone;
+        try {
+            undone = manager.undoLastEntry(kioskId);
+        } catch (RejectedExecutionException busy) {
+            return ResponseEntity.status(503).body("{\"status\":\"BUSY\",\"message\":\"Queue unavailable, please retry\"}");
+        }
+        if (undone == null) {
+            return ResponseEntity.status(404).body("{\"status\":\"NOTHING_TO_UNDO\"}");
+        }
+        return ResponseEntity.ok("{\"status\": \"Success\", \"token\": \"" + undone.getToken() + "\"}");
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.LocalDate;
+import java.util.List;
+
+// SQL shared by the patient writers. Rows are stamped with the service day the
+// change was made on, which the application passes in (LocalDate.now of the
+// service clock, see QueueConfig) rather than the database's CURRENT_DATE: the
+// connection may run in another zone, and a change flushed or replayed after
+// midnight still belongs to the day it was made. Changes only match that day's
+// rows: with queue.token.reset-daily a token recurs every day, and yesterday's
+// rows wait in the table until PatientArchiver moves them out.
+final class PatientStatements {
+
+    // name, age, token, day, arrived at (epoch ms)
+    static final String INSERT = "INSERT INTO patients (name, age, token, visit_date, arrived_at) VALUES (?, ?, ?, ?, ?)";
+    // Used for replay: a change may already have reached the table before a crash.
+    // name, age, token, day, arrived at, token, day
+    static final String INSERT_IF_ABSENT = "INSERT INTO patients (name, age, token, visit_date, arrived_at) "
+            + "SELECT ?, ?, ?, ?, ? FROM DUAL "
+            + "WHERE NOT EXISTS (SELECT 1 FROM patients WHERE token = ? AND visit_date = ?)";
+    // token, day
+    static final String DELETE = "DELETE FROM patients WHERE token = ? AND visit_date = ?";
+    // Served patients stay in the table until archived; only waiting rows are reloaded.
+    // token, day
+    static final String CALLED = "UPDATE patients SET status = 'CALLED' "
+            + "WHERE token = ? AND visit_date = ? AND status = 'WAITING'";
+
+    private PatientStatements() {
+    }
+
+    // Whether a failed write may succeed if retried: the database is unreachable
+    // (SQLState class 08), the transaction was rolled back by a deadlock or
+    // serialization failure (40) or a lock wait timed out (HYT00 on H2). Anything
+    // else, such as a name too long for its column, fails again on every retry.
+    static boolean isTransient(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientException || t instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (t instanceof SQLException sql && sql.getSQLState() != null) {
+                String state = sql.getSQLState();
+                if (state.startsWith("08") || state.startsWith("40") || state.startsWith("HYT")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Applies journal records idempotently in one transaction, each on its own
+    // day. Inserts run before calls and deletes, which is safe because those only
+    // refer to a token added earlier.
+    static void replay(Connection conn, List<Journal.Record> records) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement insert = conn.prepareStatement(INSERT_IF_ABSENT);
+             PreparedStatement called = conn.prepareStatement(CALLED);
+             PreparedStatement delete = conn.prepareStatement(DELETE)) {
+            boolean inserts = false, calls = false, deletes = false;
+            for (Journal.Record r : records) {
+                LocalDate day = r.day;
+                if (r.type == Journal.DELETE) {
+                    delete.setString(1, r.token);
+                    delete.setObject(2, day);
+                    delete.addBatch();
+                    deletes = true;
+                } else if (r.type == Journal.CALLED) {
+                    called.setString(1, r.token);
+                    called.setObject(2, day);
+                    called.addBatch();
+                    calls = true;
+                } else {
+                    insert.setString(1, r.name);
+                    insert.setInt(2, r.age);
+                    insert.setString(3, r.token);
+                    insert.setObject(4, day);
+                    insert.setLong(5, r.arrivedAt);
+                    insert.setString(6, r.token);
+                    insert.setObject(7, day);
+                    insert.addBatch();
+                    inserts = true;
+                }
+            }
+            if (inserts) insert.executeBatch();
+            if (calls) called.executeBatch();
+            if (deletes) delete.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+}
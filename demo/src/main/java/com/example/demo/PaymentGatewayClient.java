@@ -0,0 +1,192 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// One shared HttpClient for all Razorpay calls (connection reuse, HTTP/2 where
+// the server supports it). Calls are asynchronous so servlet threads are not
+// parked on the gateway. Failures that mean the request never reached the
+// gateway (connect errors, 429/503) are retried with jittered exponential
+// backoff; a circuit breaker fails fast while the gateway keeps failing.
+@Component
+@Lazy
+public class PaymentGatewayClient {
+
+    // Thrown (wrapped in a CompletionException) while the circuit is open
+    public static class GatewayUnavailableException extends RuntimeException {
+        public GatewayUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final String authHeader;
+    private final boolean configured;
+    private final Duration requestTimeout;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final CircuitBreaker breaker;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final Timer successTimer;
+    private final Timer clientErrorTimer;
+    private final Timer serverErrorTimer;
+    private final Timer ioErrorTimer;
+    private final Counter retryCounter;
+    private final Counter openCounter;
+
+    public PaymentGatewayClient(MeterRegistry registry,
+                                @Value("${razorpay.base-url:https://api.razorpay.com}") String baseUrl,
+                                @Value("${razorpay.key_id:}") String keyId,
+                                @Value("${razorpay.key_secret:}") String keySecret,
+                                @Value("${razorpay.http.connect-timeout-ms:2000}") long connectTimeoutMs,
+                                @Value("${razorpay.http.request-timeout-ms:5000}") long requestTimeoutMs,
+                                @Value("${razorpay.http.max-retries:2}") int maxRetries,
+                                @Value("${razorpay.http.backoff-ms:100}") long backoffMillis,
+                                @Value("${razorpay.circuit.failure-threshold:5}") int failureThreshold,
+                                @Value("${razorpay.circuit.open-ms:10000}") long openMillis) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        this.baseUrl = baseUrl.replaceAll("/+$", "");
+        this.configured = keyId != null && !keyId.isBlank() && keySecret != null && !keySecret.isBlank();
+        this.authHeader = "Basic " + Base64.getEncoder().encodeToString((keyId + ":" + keySecret).getBytes(StandardCharsets.UTF_8));
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.breaker = new CircuitBreaker(failureThreshold, openMillis);
+        this.successTimer = KioskMeters.gateway(registry, "success");
+        this.clientErrorTimer = KioskMeters.gateway(registry, "client_error");
+        this.serverErrorTimer = KioskMeters.gateway(registry, "server_error");
+        this.ioErrorTimer = KioskMeters.gateway(registry, "io_error");
+        this.retryCounter = Counter.builder("kiosk.gateway.retries").register(registry);
+        this.openCounter = Counter.builder("kiosk.gateway.rejected").description("Calls refused while the circuit was open").register(registry);
+        // 0 = closed, 1 = half open, 2 = open
+        Gauge.builder("kiosk.gateway.circuit", breaker, b -> circuitValue(b.state())).register(registry);
+    }
+
+    // Fixed gauge values, ordered by severity, independent of the enum's declaration order
+    static int circuitValue(CircuitBreaker.State state) {
+        return switch (state) {
+            case CLOSED -> 0;
+            case HALF_OPEN -> 1;
+            case OPEN -> 2;
+        };
+    }
+
+    // False in demo mode (no keys): callers return mock responses instead
+    public boolean isConfigured() {
+        return configured;
+    }
+
+    // POSTs a JSON body to a gateway path such as "/v1/orders"
+    public CompletableFuture<HttpResponse<String>> post(String path, String json) {
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("Authorization", authHeader)
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return send(req, 0);
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest req, int attempt) {
+        if (!breaker.allowRequest()) {
+            rejected.increment();
+            openCounter.increment();
+            return CompletableFuture.failedFuture(new GatewayUnavailableException("Payment gateway circuit is open"));
+        }
+        requests.increment();
+        long start = System.nanoTime();
+        return client.sendAsync(req, HttpResponse.BodyHandlers.ofString())
+                .handle((resp, error) -> {
+                    long took = System.nanoTime() - start;
+                    latencyNanos.add(took);
+                    maxLatencyNanos.accumulateAndGet(took, Math::max);
+                    Timer timer = error != null ? ioErrorTimer
+                            : resp.statusCode() >= 500 ? serverErrorTimer
+                            : resp.statusCode() >= 400 ? clientErrorTimer : successTimer;
+                    timer.record(took, TimeUnit.NANOSECONDS);
+
+                    boolean retryable = error != null ? isConnectFailure(error) : isRetryableStatus(resp.statusCode());
+                    if (error != null || resp.statusCode() >= 500) {
+                        failures.increment();
+                        breaker.onFailure();
+                    } else {
+                        breaker.onSuccess();
+                    }
+                    if (retryable && attempt < maxRetries) {
+                        retries.increment();
+                        retryCounter.increment();
+                        return retryLater(req, attempt + 1);
+                    }
+                    if (error != null) {
+                        return CompletableFuture.<HttpResponse<String>>failedFuture(error);
+                    }
+                    return CompletableFuture.completedFuture(resp);
+                })
+                .thenCompose(f -> f);
+    }
+
+    // Full jitter: wait a random time up to backoff * 2^attempt
+    private CompletableFuture<HttpResponse<String>> retryLater(HttpRequest req, int attempt) {
+        long delay = ThreadLocalRandom.current().nextLong(backoffMillis << attempt) + 1;
+        return CompletableFuture.supplyAsync(() -> req, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                .thenCompose(r -> send(r, attempt));
+    }
+
+    private static boolean isConnectFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof ConnectException || (cause instanceof IOException && cause.getCause() instanceof ConnectException);
+    }
+
+    private static boolean isRetryableStatus(int status) {
+        return status == 429 || status == 503;
+    }
+
+    public Map<String, Object> stats() {
+        long count = requests.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("baseUrl", baseUrl);
+        stats.put("circuit", breaker.state().name());
+        stats.put("requests", count);
+        stats.put("retries", retries.sum());
+        stats.put("failures", failures.sum());
+        stats.put("rejectedWhileOpen", rejected.sum());
+        stats.put("avgLatencyMs", count == 0 ? 0.0 : latencyNanos.sum() / (double) count / 1_000_000);
+        stats.put("maxLatencyMs", maxLatencyNanos.get() / 1_000_000.0);
+        return stats;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+// Idempotency for order creation. A kiosk that double-taps "Pay" sends the same
+// idempotency key twice; the second request gets the first one's order instead
+// of creating another at the gateway. Requests that arrive while the first call
+// is still in flight wait on the same future. Entries live in a bounded LRU map
+// with a TTL, and can also be written to the payment_orders table so a restart
+// does not forget them. Only successful responses are kept, so a failed attempt
+// can be retried with the same key.
+@Component
+@Lazy
+public class PaymentOrderCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentOrderCache.class);
+
+    private static final String SELECT_ORDER = "SELECT fingerprint, response FROM payment_orders WHERE idempotency_key = ?";
+    private static final String INSERT_ORDER = "INSERT IGNORE INTO payment_orders (idempotency_key, fingerprint, response) VALUES (?,?,?)";
+
+    private static final class Entry {
+        final String fingerprint;
+        final long expiresAt;
+        final CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<>();
+
+        Entry(String fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final DBConnection db;
+    private final boolean persist;
+    private final int maxEntries;
+    private final long ttlNanos;
+    // Access-ordered, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder joinedInFlight = new LongAdder();
+    private final LongAdder dbHits = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+
+    public PaymentOrderCache(DBConnection db,
+                             @Value("${payment.idempotency.persist:false}") boolean persist,
+                             @Value("${payment.idempotency.max-size:5000}") int maxEntries,
+                             @Value("${payment.idempotency.ttl-minutes:30}") long ttlMinutes) {
+        this.db = db;
+        this.persist = persist;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > PaymentOrderCache.this.maxEntries;
+            }
+        };
+    }
+
+    // Returns the order already created for this key, or calls `create` once.
+    // The fingerprint (amount and currency) must match the first request;
+    // reusing a key for a different payment is answered with 409.
+    public CompletableFuture<ResponseEntity<String>> getOrCreate(String key, String fingerprint,
+                                                                 Supplier<CompletableFuture<ResponseEntity<String>>> create) {
+        long now = System.nanoTime();
+        Entry entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && now - entry.expiresAt >= 0) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(fingerprint, now + ttlNanos);
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+
+        if (!owner) {
+            if (!entry.fingerprint.equals(fingerprint)) {
+                conflicts.increment();
+                return CompletableFuture.completedFuture(conflict(key));
+            }
+            deduplicated.increment();
+            if (!entry.result.isDone()) {
+                joinedInFlight.increment();
+            }
+            return entry.result.thenApply(PaymentOrderCache::replayed);
+        }
+
+        if (persist) {
+            String[] stored = load(key);
+            if (stored != null) {
+                if (!stored[0].equals(fingerprint)) {
+                    forget(key, entry);
+                    conflicts.increment();
+                    return CompletableFuture.completedFuture(conflict(key));
+                }
+                dbHits.increment();
+                entry.result.complete(ResponseEntity.ok(stored[1]));
+                return entry.result.thenApply(PaymentOrderCache::replayed);
+            }
+        }
+
+        created.increment();
+        Entry mine = entry;
+        CompletableFuture<ResponseEntity<String>> call;
+        try {
+            call = create.get();
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((resp, error) -> {
+            if (error != null || !resp.getStatusCode().is2xxSuccessful()) {
+                failedAttempts.increment();
+                forget(key, mine);
+            } else if (persist) {
+                save(key, fingerprint, resp.getBody());
+            }
+            if (error != null) {
+                mine.result.completeExceptionally(error);
+            } else {
+                mine.result.complete(resp);
+            }
+        });
+        return mine.result;
+    }
+
+    private void forget(String key, Entry entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private static ResponseEntity<String> replayed(ResponseEntity<String> original) {
+        return ResponseEntity.status(original.getStatusCode())
+                .header("Idempotent-Replayed", "true")
+                .body(original.getBody());
+    }
+
+    private static ResponseEntity<String> conflict(String key) {
+        return ResponseEntity.status(409)
+                .body("{\"status\":\"IDEMPOTENCY_KEY_REUSED\",\"key\":\"" + key.replace("\"", "") + "\"}");
+    }
+
+    // {fingerprint, response} or null; a DB failure just means no dedup from the table
+    private String[] load(String key) {
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_ORDER)) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new String[] { rs.getString(1), rs.getString(2) } : null;
+            }
+        } catch (SQLException e) {
+            log.warn("Idempotency lookup skipped: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(String key, String fingerprint, String response) {
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement(INSERT_ORDER)) {
+            ps.setString(1, key);
+            ps.setString(2, fingerprint);
+            ps.setString(3, response);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            log.warn("Idempotency record not saved: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("persist", persist);
+        stats.put("created", created.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("joinedInFlight", joinedInFlight.sum());
+        stats.put("dbHits", dbHits.sum());
+        stats.put("conflicts", conflicts.sum());
+        stats.put("failedAttempts", failedAttempts.sum());
+        synchronized (entries) {
+            stats.put("cacheSize", entries.size());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,501 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+// Links gateway payments to registrations. A verified webhook body is stored
+// in payment_events before the gateway is answered, and an "order X became
+// token Y" link from /api/add-patient in payment_registrations before the
+// registration is answered. Both are then handed to a bounded queue; a few
+// worker threads parse them and write them to MySQL in batches (one
+// transaction per batch, which also deletes the stored events), then match the
+// batch's orders to registrations. Stored events and links that never made it
+// through the queue (a restart, or a full queue) are read back when the
+// workers are idle.
+// When the queue is full or the event cannot be stored, the webhook endpoint
+// answers 503 and the gateway retries later. A batch the database rejects for
+// good is retried one item at a time and the items it still rejects are set
+// aside (failed_at) instead of blocking the rest. Events already seen for the
+// same payment and status are skipped.
+@Component
+@Lazy
+public class PaymentReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentReconciler.class);
+    private static final long MAX_BACKOFF_MS = 5_000;
+
+    private static final String UPSERT_PAYMENT = "INSERT INTO payments (payment_id, order_id, event, status, amount) "
+            + "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE event = VALUES(event), amount = VALUES(amount), "
+            // A late "authorized" must not overwrite "captured"
+            + "status = CASE WHEN status = 'captured' THEN status ELSE VALUES(status) END";
+    private static final String UPSERT_LINK = "INSERT INTO payment_registrations (order_id, token) VALUES (?, ?) "
+            + "ON DUPLICATE KEY UPDATE token = VALUES(token)";
+    private static final String STORE_EVENT = "INSERT INTO payment_events (body) VALUES (?)";
+    private static final String DELETE_EVENT = "DELETE FROM payment_events WHERE id = ?";
+    private static final String FAIL_EVENT = "UPDATE payment_events SET failed_at = CURRENT_TIMESTAMP, error = ? "
+            + "WHERE id = ?";
+    private static final String STORED_EVENTS = "SELECT id, body FROM payment_events WHERE failed_at IS NULL "
+            + "ORDER BY id LIMIT ?";
+    // Orders linked to a registration whose payments have not been matched to it
+    private static final String UNMATCHED_ORDERS = "SELECT DISTINCT p.order_id FROM payments p "
+            + "JOIN payment_registrations r ON r.order_id = p.order_id WHERE p.token IS NULL LIMIT ?";
+
+    // A verified webhook body and its payment_events row, or an order/token
+    // link when body is null. A link already stored has no token: only its
+    // order's payments are left to match.
+    private static final class Item {
+        final long eventId;
+        final byte[] body;
+        final String orderId;
+        final String token;
+        final long receivedAt = System.nanoTime();
+
+        Item(long eventId, byte[] body, String orderId, String token) {
+            this.eventId = eventId;
+            this.body = body;
+            this.orderId = orderId;
+            this.token = token;
+        }
+    }
+
+    private record Payment(String paymentId, String orderId, String event, String status, long amount) {
+        String dedupKey() {
+            return paymentId + ":" + status;
+        }
+    }
+
+    private final DBConnection db;
+    private final int batchSize;
+    private final BlockingQueue<Item> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int seenLimit;
+    // payment id + status already written; access-ordered LRU
+    private final LinkedHashMap<String, Boolean> seen;
+    private final long startedAt = System.nanoTime();
+    // Stored events may be missing from the queue; set at startup so leftovers
+    // from before a restart are picked up
+    private final AtomicBoolean backlog = new AtomicBoolean(true);
+    private volatile boolean running = true;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder invalidSignature = new LongAdder();
+    private final LongAdder queueFull = new LongAdder();
+    private final LongAdder storeFailures = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder ignored = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder linksWritten = new LongAdder();
+    private final LongAdder reconciled = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchFailures = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lagNanos = new LongAdder();
+    private final LongAdder lagSamples = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final Timer batchTimer;
+    private final Timer lagTimer;
+
+    public PaymentReconciler(DBConnection db, MeterRegistry registry,
+                             @Value("${payment.webhook.queue-capacity:10000}") int capacity,
+                             @Value("${payment.webhook.workers:2}") int workerCount,
+                             @Value("${payment.webhook.batch-size:100}") int batchSize,
+                             @Value("${payment.webhook.dedup-size:50000}") int seenLimit) {
+        this.db = db;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.seenLimit = seenLimit;
+        this.batchTimer = KioskMeters.dbQuery(registry, "payment_batch");
+        this.lagTimer = Timer.builder("kiosk.webhook.lag")
+                .description("Time from webhook receipt to commit")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("kiosk.webhook.queue.depth", queue, BlockingQueue::size).register(registry);
+        this.seen = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > PaymentReconciler.this.seenLimit;
+            }
+        };
+        for (int i = 0; i < workerCount; i++) {
+            Thread t = new Thread(this::runWorker, "payment-reconciler-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    // Stores and queues a verified webhook body; false means it was not taken
+    // (queue full or database down) and the gateway should deliver it again
+    public boolean submit(byte[] body) {
+        received.increment();
+        if (queue.remainingCapacity() == 0) {
+            queueFull.increment();
+            return false;
+        }
+        long eventId;
+        try {
+            eventId = store(body);
+        } catch (SQLException e) {
+            storeFailures.increment();
+            log.warn("Could not store payment webhook: {}", e.getMessage());
+            return false;
+        }
+        if (!queue.offer(new Item(eventId, body, null, null))) {
+            // Lost a race for the last slot; the event is stored, so the workers read it back later
+            backlog.set(true);
+        }
+        return true;
+    }
+
+    private long store(byte[] body) throws SQLException {
+        try (Connection conn = db.getConnection();
+             PreparedStatement insert = conn.prepareStatement(STORE_EVENT, Statement.RETURN_GENERATED_KEYS)) {
+            insert.setBytes(1, body);
+            insert.executeUpdate();
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                keys.next();
+                return keys.getLong(1);
+            }
+        }
+    }
+
+    // Remembers which registration an order paid for. The link is stored before
+    // this returns and the order queued for matching; if the queue is full the
+    // idle workers find it later. With the database down the link itself waits
+    // in the queue for the workers' retries.
+    public void link(String orderId, String token) {
+        try (Connection conn = db.getConnection();
+             PreparedStatement upsert = conn.prepareStatement(UPSERT_LINK)) {
+            upsert.setString(1, orderId);
+            upsert.setString(2, token);
+            upsert.executeUpdate();
+            linksWritten.increment();
+        } catch (SQLException e) {
+            storeFailures.increment();
+            log.warn("Could not store payment link {} -> {}: {}", orderId, token, e.getMessage());
+            if (!queue.offer(new Item(0, null, orderId, token))) {
+                queueFull.increment();
+                log.warn("Payment link dropped, reconciler queue full: {} -> {}", orderId, token);
+            }
+            return;
+        }
+        if (!queue.offer(new Item(0, null, orderId, null))) {
+            queueFull.increment();
+            backlog.set(true);
+        }
+    }
+
+    public void recordInvalidSignature() {
+        invalidSignature.increment();
+    }
+
+    private void runWorker() {
+        List<Item> batch = new ArrayList<>(batchSize);
+        long backoffMs = 100;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Item first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (running && backlog.compareAndSet(true, false)) {
+                            loadStored();
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+                try {
+                    process(batch);
+                    batch.clear();
+                } catch (SQLException e) {
+                    if (PatientStatements.isTransient(e)) {
+                        throw e;
+                    }
+                    isolate(batch);
+                }
+                backoffMs = 100;
+            } catch (SQLException e) {
+                // Keep the batch and retry; the bounded queue pushes back on the gateway meanwhile
+                batchFailures.increment();
+                log.warn("Payment reconciliation failed, retrying in {}ms: {}", backoffMs, e.getMessage());
+                if (!running) {
+                    return;
+                }
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Queues stored events, oldest first, then linked orders with unmatched
+    // payments, as far as the queue has room. Some may already be in flight;
+    // applying either twice is harmless.
+    private void loadStored() throws SQLException {
+        int limit = queue.remainingCapacity();
+        int loaded = 0;
+        try (Connection conn = db.getConnection();
+             PreparedStatement select = conn.prepareStatement(STORED_EVENTS);
+             PreparedStatement unmatched = conn.prepareStatement(UNMATCHED_ORDERS)) {
+            select.setInt(1, limit);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next() && queue.offer(new Item(rs.getLong(1), rs.getBytes(2), null, null))) {
+                    loaded++;
+                }
+            }
+            if (loaded < limit) {
+                unmatched.setInt(1, limit - loaded);
+                try (ResultSet rs = unmatched.executeQuery()) {
+                    while (rs.next() && queue.offer(new Item(0, null, rs.getString(1), null))) {
+                        loaded++;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            backlog.set(true);
+            throw e;
+        }
+        if (loaded > 0) {
+            recovered.add(loaded);
+            log.info("Queued {} stored payment events and links", loaded);
+        }
+        if (loaded == limit) {
+            backlog.set(true);
+        }
+    }
+
+    // Applies a rejected batch one item at a time, setting aside the items the
+    // database still rejects. A transient failure leaves the rest in the batch
+    // for the usual retry.
+    private void isolate(List<Item> batch) throws SQLException {
+        for (Iterator<Item> it = batch.iterator(); it.hasNext(); ) {
+            Item item = it.next();
+            try {
+                process(List.of(item));
+            } catch (SQLException e) {
+                if (PatientStatements.isTransient(e)) {
+                    throw e;
+                }
+                reject(item, e);
+            }
+            it.remove();
+        }
+    }
+
+    private void reject(Item item, SQLException e) throws SQLException {
+        failed.increment();
+        if (item.body == null) {
+            log.error("Database rejected payment link {} -> {}, dropped: {}", item.orderId, item.token, e.getMessage());
+            return;
+        }
+        log.error("Database rejected payment event {}, set aside: {}", item.eventId, e.getMessage());
+        String reason = e.getSQLState() + " " + e.getMessage();
+        try (Connection conn = db.getConnection();
+             PreparedStatement fail = conn.prepareStatement(FAIL_EVENT)) {
+            fail.setString(1, reason.length() > 255 ? reason.substring(0, 255) : reason);
+            fail.setLong(2, item.eventId);
+            fail.executeUpdate();
+        }
+    }
+
+    private void process(List<Item> batch) throws SQLException {
+        List<Payment> payments = new ArrayList<>();
+        List<Item> links = new ArrayList<>();
+        List<Long> events = new ArrayList<>();
+        Set<String> inBatch = new HashSet<>();
+        for (Item item : batch) {
+            if (item.eventId > 0) {
+                events.add(item.eventId);
+            }
+            if (item.body == null) {
+                links.add(item);
+                continue;
+            }
+            Payment p = parse(item.body);
+            if (p == null) {
+                ignored.increment();
+            } else if (!inBatch.add(p.dedupKey()) || alreadySeen(p.dedupKey())) {
+                duplicates.increment();
+            } else {
+                payments.add(p);
+            }
+        }
+
+        if (!payments.isEmpty() || !links.isEmpty() || !events.isEmpty()) {
+            long start = System.nanoTime();
+            write(payments, links, events);
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        synchronized (seen) {
+            for (Payment p : payments) {
+                seen.put(p.dedupKey(), Boolean.TRUE);
+            }
+        }
+
+        long now = System.nanoTime();
+        for (Item item : batch) {
+            long lag = now - item.receivedAt;
+            lagNanos.add(lag);
+            lagTimer.record(lag, TimeUnit.NANOSECONDS);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+        }
+        lagSamples.add(batch.size());
+        batches.increment();
+    }
+
+    private boolean alreadySeen(String key) {
+        synchronized (seen) {
+            return seen.containsKey(key);
+        }
+    }
+
+    private void write(List<Payment> payments, List<Item> links, List<Long> events) throws SQLException {
+        // Only orders touched by this batch can have become matchable
+        Set<String> orders = new HashSet<>();
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement upsertPayment = conn.prepareStatement(UPSERT_PAYMENT);
+                 PreparedStatement upsertLink = conn.prepareStatement(UPSERT_LINK);
+                 PreparedStatement deleteEvent = conn.prepareStatement(DELETE_EVENT);
+                 PreparedStatement reconcile = conn.prepareStatement(db.dialect().reconcilePayments())) {
+                for (Payment p : payments) {
+                    upsertPayment.setString(1, p.paymentId());
+                    upsertPayment.setString(2, p.orderId());
+                    upsertPayment.setString(3, p.event());
+                    upsertPayment.setString(4, p.status());
+                    upsertPayment.setLong(5, p.amount());
+                    upsertPayment.addBatch();
+                    if (p.orderId() != null) {
+                        orders.add(p.orderId());
+                    }
+                }
+                int upserts = 0;
+                for (Item link : links) {
+                    orders.add(link.orderId);
+                    if (link.token != null) {
+                        upsertLink.setString(1, link.orderId);
+                        upsertLink.setString(2, link.token);
+                        upsertLink.addBatch();
+                        upserts++;
+                    }
+                }
+                for (long id : events) {
+                    deleteEvent.setLong(1, id);
+                    deleteEvent.addBatch();
+                }
+                for (String orderId : orders) {
+                    reconcile.setString(1, orderId);
+                    reconcile.addBatch();
+                }
+                if (!payments.isEmpty()) upsertPayment.executeBatch();
+                if (upserts > 0) upsertLink.executeBatch();
+                if (!events.isEmpty()) deleteEvent.executeBatch();
+                int matched = 0;
+                if (!orders.isEmpty()) {
+                    for (int count : reconcile.executeBatch()) {
+                        matched += Math.max(count, 0);
+                    }
+                }
+                conn.commit();
+                written.add(payments.size());
+                linksWritten.add(upserts);
+                reconciled.add(matched);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // payment.* events carry payload.payment.entity; anything else is ignored
+    private Payment parse(byte[] body) {
+        try {
+            JsonNode root = mapper.readTree(body);
+            JsonNode entity = root.path("payload").path("payment").path("entity");
+            String paymentId = entity.path("id").asText(null);
+            if (paymentId == null || paymentId.isEmpty()) {
+                return null;
+            }
+            return new Payment(paymentId, entity.path("order_id").asText(null), root.path("event").asText(""),
+                    entity.path("status").asText(""), entity.path("amount").asLong());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long samples = lagSamples.sum();
+        long done = written.sum();
+        double uptimeSec = (System.nanoTime() - startedAt) / 1e9;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("received", received.sum());
+        stats.put("invalidSignature", invalidSignature.sum());
+        stats.put("queueFull", queueFull.sum());
+        stats.put("storeFailures", storeFailures.sum());
+        stats.put("recovered", recovered.sum());
+        stats.put("queueDepth", queue.size());
+        stats.put("ignored", ignored.sum());
+        stats.put("duplicates", duplicates.sum());
+        stats.put("paymentsWritten", done);
+        stats.put("linksWritten", linksWritten.sum());
+        stats.put("reconciled", reconciled.sum());
+        stats.put("batches", batches.sum());
+        stats.put("batchFailures", batchFailures.sum());
+        stats.put("failed", failed.sum());
+        stats.put("paymentsPerSec", uptimeSec == 0 ? 0.0 : done / uptimeSec);
+        stats.put("avgLagMs", samples == 0 ? 0.0 : lagNanos.sum() / (double) samples / 1_000_000);
+        stats.put("maxLagMs", maxLagNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        for (Thread t : workers) {
+            try {
+                t.join(2_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
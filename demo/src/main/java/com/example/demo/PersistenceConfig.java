@@ -0,0 +1,38 @@
+package com.example.demo;
+
+import java.nio.file.Path;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+// kiosk.persistence=mysql (default) uses the spring.datasource.* MySQL pool.
+// kiosk.persistence=embedded keeps everything in a local H2 file instead, for a
+// standalone kiosk with no database server: no network round trips, and no
+// connection timeouts when the server is unreachable. Declaring the DataSource
+// here makes Spring Boot skip its own.
+@Configuration
+public class PersistenceConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "kiosk.persistence", havingValue = "embedded")
+    public DataSource embeddedDataSource(@Value("${kiosk.embedded.path:data/kiosk}") String path,
+                                         @Value("${kiosk.embedded.pool-size:4}") int poolSize) {
+        HikariDataSource ds = new HikariDataSource();
+        ds.setPoolName("kiosk-embedded");
+        // MySQL mode so the shared SQL runs unchanged; AUTO_SERVER lets a second
+        // process (a console, a backup) open the file while the kiosk runs
+        ds.setJdbcUrl("jdbc:h2:file:" + Path.of(path).toAbsolutePath()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;AUTO_SERVER=TRUE");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        ds.setMaximumPoolSize(poolSize);
+        ds.setMinimumIdle(1);
+        return ds;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.DepartmentScheduler;
+import com.example.PatientRepository;
+import com.example.PatientWriter;
+import com.example.QueueManager;
+import com.example.TokenAllocator;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Wires the queue classes from com.example, which sit outside the component scan
+@Configuration
+public class QueueConfig {
+
+    // Decides which service day a registration belongs to: the daily token reset,
+    // the visit_date rows are stamped with and the archive run all follow it
+    @Bean
+    public Clock serviceClock(@Value("${kiosk.zone:}") String zone) {
+        return zone.isBlank() ? Clock.systemDefaultZone() : Clock.system(ZoneId.of(zone));
+    }
+
+    @Bean
+    public TokenAllocator tokenAllocator(JdbcTokenBlockSource blockSource, Clock serviceClock,
+                                         @Value("${queue.token.block-size:20}") int blockSize,
+                                         @Value("${queue.token.reset-daily:false}") boolean resetDaily,
+                                         @Value("${kiosk.cluster.node-id:}") String nodeId) {
+        // Offline tokens are told apart by node id, or a random tag when none is set
+        String node = nodeId.isBlank() ? UUID.randomUUID().toString().substring(0, 4) : nodeId;
+        return new TokenAllocator(blockSource, blockSize, resetDaily, serviceClock,
+                TokenAllocator.offlineNamespace(node, serviceClock));
+    }
+
+    // Local journal of queue changes not yet in MySQL: outage registrations in
+    // async mode, every change in write-behind mode
+    @Bean
+    public Journal queueJournal(@Value("${queue.journal.path:data/queue.journal}") String path,
+                                @Value("${queue.journal.size-mb:16}") int sizeMb,
+                                @Value("${queue.journal.fsync:always}") String fsync,
+                                @Value("${queue.journal.fsync-interval-ms:100}") long fsyncIntervalMs) throws IOException {
+        return new Journal(Path.of(path), sizeMb * 1024 * 1024,
+                Journal.FsyncPolicy.valueOf(fsync.trim().toUpperCase()), fsyncIntervalMs);
+    }
+
+    // Row-at-a-time async inserts by default; queue.write-behind.enabled switches
+    // to batched inserts. close() flushes pending writes either way.
+    @Bean
+    public PatientWriter patientWriter(DBConnection db, Journal queueJournal, Clock serviceClock,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${queue.journal.reconcile-interval-ms:5000}") long reconcileIntervalMs,
+                                       @Value("${queue.write-behind.enabled:false}") boolean writeBehind,
+                                       @Value("${queue.write-behind.batch-size:100}") int batchSize,
+                                       @Value("${queue.write-behind.max-delay-ms:50}") long maxDelayMs,
+                                       @Value("${queue.write-behind.capacity:10000}") int capacity,
+                                       @Value("${queue.write-behind.offer-timeout-ms:200}") long offerTimeoutMs) {
+        Gauge.builder("kiosk.journal.pending", queueJournal, Journal::pendingCount)
+                .description("Queue changes journaled but not yet in MySQL")
+                .register(meterRegistry);
+        if (!writeBehind) {
+            return new AsyncPatientWriter(db, queueJournal, reconcileIntervalMs, serviceClock, meterRegistry);
+        }
+        return new WriteBehindPatientWriter(db, queueJournal, batchSize, maxDelayMs, capacity, offerTimeoutMs,
+                serviceClock, meterRegistry);
+    }
+
+    // Moves past days' registrations out of the active patients table
+    @Bean
+    @ConditionalOnProperty(name = "kiosk.archive.enabled", havingValue = "true", matchIfMissing = true)
+    public PatientArchiver patientArchiver(DBConnection db, Clock serviceClock, MeterRegistry meterRegistry,
+                                           @Value("${kiosk.archive.at:00:05}") String at,
+                                           @Value("${kiosk.archive.batch-size:1000}") int batchSize) {
+        PatientArchiver archiver = new PatientArchiver(db, batchSize, LocalTime.parse(at), serviceClock,
+                meterRegistry);
+        archiver.start();
+        return archiver;
+    }
+
+    @Bean
+    public QueueEventBroadcaster queueEventBroadcaster(MeterRegistry meterRegistry,
+                                                       @Value("${queue.events.buffer-size:256}") int bufferSize,
+                                                       @Value("${queue.events.coalesce-ms:50}") long coalesceMs,
+                                                       @Value("${queue.events.heartbeat-ms:15000}") long heartbeatMs) {
+        QueueEventBroadcaster broadcaster = new QueueEventBroadcaster(bufferSize, coalesceMs, heartbeatMs);
+        Gauge.builder("kiosk.sse.subscribers", broadcaster, QueueEventBroadcaster::subscriberCount)
+                .register(meterRegistry);
+        return broadcaster;
+    }
+
+    @Bean
+    public QueueStatistics queueStatistics(Clock serviceClock) {
+        return new QueueStatistics(serviceClock);
+    }
+
+    // Waiting queues per department with priority classes; see queue.departments
+    @Bean
+    public DepartmentScheduler departmentScheduler(
+            @Value("${queue.departments:HOS:General}") String departments,
+            @Value("${queue.priority.elderly-age:60}") int elderlyAge,
+            @Value("${queue.priority.appointment-head-start-minutes:30}") long appointmentHeadStart,
+            @Value("${queue.priority.elderly-head-start-minutes:15}") long elderlyHeadStart,
+            @Value("${queue.service.initial-minutes:5}") long initialService) {
+        return new DepartmentScheduler(parseDepartments(departments), elderlyAge,
+                Duration.ofMinutes(appointmentHeadStart), Duration.ofMinutes(elderlyHeadStart),
+                Duration.ofMinutes(initialService), Clock.systemUTC());
+    }
+
+    // "CAR:Cardiologist|Cardiology,ENT:ENT" -> code to keywords, in order
+    static Map<String, String> parseDepartments(String spec) {
+        Map<String, String> departments = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            int colon = entry.indexOf(':');
+            if (colon <= 0 || colon == entry.length() - 1) {
+                throw new IllegalArgumentException("Expected CODE:Name in queue.departments, got '" + entry + "'");
+            }
+            departments.put(entry.substring(0, colon).trim(), entry.substring(colon + 1).trim());
+        }
+        return departments;
+    }
+
+    // One QueueManager shared by every request thread. In cluster mode the
+    // queue is rebuilt from the shared log instead (see clusterQueueLog).
+    @Bean
+    public QueueManager queueManager(PatientRepository patientRepository, TokenAllocator tokenAllocator,
+                                     PatientWriter patientWriter, DepartmentScheduler departmentScheduler,
+                                     QueueEventBroadcaster queueEventBroadcaster, QueueStatistics queueStatistics,
+                                     MeterRegistry meterRegistry, Clock serviceClock,
+                                     @Value("${kiosk.cluster.enabled:false}") boolean cluster) {
+        QueueManager manager = new QueueManager(patientRepository, tokenAllocator, patientWriter, departmentScheduler,
+                serviceClock);
+        for (String department : manager.departments()) {
+            Gauge.builder("kiosk.queue.waiting", manager, m -> m.waitingCount(department))
+                    .description("Patients waiting to be called")
+                    .tag("department", department)
+                    .register(meterRegistry);
+        }
+        if (!cluster) {
+            manager.loadWaiting();
+        }
+        manager.addListener(queueEventBroadcaster);
+        manager.addListener(queueStatistics);
+        return manager;
+    }
+
+    // Several backend nodes sharing one queue through the queue_log table
+    @Bean
+    @ConditionalOnProperty(name = "kiosk.cluster.enabled", havingValue = "true")
+    public ClusterQueueLog clusterQueueLog(DBConnection db, QueueManager queueManager, Clock serviceClock,
+                                           MeterRegistry meterRegistry,
+                                           @Value("${kiosk.cluster.partition:main}") String partition,
+                                           @Value("${kiosk.cluster.node-id:}") String nodeId,
+                                           @Value("${kiosk.cluster.poll-interval-ms:100}") long pollIntervalMs)
+            throws SQLException {
+        String node = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        ClusterQueueLog clusterLog = new ClusterQueueLog(db, queueManager, partition, node, pollIntervalMs,
+                serviceClock, meterRegistry);
+        clusterLog.start();
+        return clusterLog;
+    }
+}
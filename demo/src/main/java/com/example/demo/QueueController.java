@@ -0,0 +1,184 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.Patient;
+import com.example.PatientRow;
+import com.example.QueueEvent;
+import com.example.QueueManager;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Queue display boards and day-end exports
+@RestController
+@RequestMapping("/api/queue")
+@CrossOrigin(origins = "*")
+public class QueueController {
+
+    private static final int MAX_PAGE = 500;
+
+    private final QueueManager manager;
+    private final QueueEventBroadcaster events;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public QueueController(QueueManager manager, QueueEventBroadcaster events) {
+        this.manager = manager;
+        this.events = events;
+    }
+
+    // Live queue changes for display boards (Server-Sent Events). Each message is
+    // {"resync": bool, "events": [...]}; resync=true means some events were
+    // dropped and the board should reload /api/queue/waiting.
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(0L);
+        QueueEventBroadcaster.Subscription subscription = events.subscribe(new QueueEventBroadcaster.Sink() {
+            @Override
+            public void send(List<QueueEvent> batch, boolean resync) throws IOException {
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("resync", resync);
+                data.put("events", batch);
+                emit(SseEmitter.event().name("queue").data(data, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                emit(SseEmitter.event().comment("ping"));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+
+            private void emit(SseEmitter.SseEventBuilder event) throws IOException {
+                try {
+                    emitter.send(event);
+                } catch (IllegalStateException completed) {
+                    throw new IOException(completed);
+                }
+            }
+        });
+        // A board that disconnects is dropped right away, not at the next heartbeat
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+
+    // Patients currently waiting, in call order (served from memory); all
+    // departments one after another unless ?department= is given
+    @GetMapping("/waiting")
+    public ResponseEntity<?> waiting(@RequestParam(required = false) String department) {
+        if (department != null && !manager.isDepartment(department)) {
+            return unknownDepartment(department);
+        }
+        List<Patient> waiting = department == null ? manager.waitingPatients() : manager.waitingPatients(department);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("count", waiting.size());
+        body.put("patients", waiting);
+        return ResponseEntity.ok(body);
+    }
+
+    // Waiting counts per department and priority class, and each department's
+    // current time per patient
+    @GetMapping("/departments")
+    public List<Map<String, Object>> departments() {
+        return manager.departmentStats();
+    }
+
+    @GetMapping("/{token}/position")
+    public ResponseEntity<?> position(@PathVariable String token) {
+        int position = manager.positionOf(token);
+        long waitMillis = manager.estimatedWaitMillis(token);
+        if (position < 0 || waitMillis < 0) {
+            return ResponseEntity.status(404).body(Map.of("status", "NOT_WAITING", "token", token));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("token", token);
+        body.put("position", position);
+        body.put("estimatedWaitSeconds", waitMillis / 1000);
+        return ResponseEntity.ok(body);
+    }
+
+    // Calls the next waiting patient of ?department=, or of any department
+    @PostMapping("/next")
+    public ResponseEntity<?> callNext(@RequestParam(required = false) String department) {
+        if (department != null && !manager.isDepartment(department)) {
+            return unknownDepartment(department);
+        }
+        Patient next = department == null ? manager.callNext() : manager.callNext(department);
+        if (next == null) {
+            return ResponseEntity.status(404).body(Map.of("status", "QUEUE_EMPTY"));
+        }
+        return ResponseEntity.ok(next);
+    }
+
+    // Cluster mode: the shared queue log could not be reached
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<?> unavailable(RejectedExecutionException e) {
+        return ResponseEntity.status(503).body(Map.of("status", "BUSY", "message", "Queue unavailable, please retry"));
+    }
+
+    private static ResponseEntity<?> unknownDepartment(String department) {
+        return ResponseEntity.badRequest().body(Map.of("status", "UNKNOWN_DEPARTMENT", "department", department));
+    }
+
+    @DeleteMapping("/{token}")
+    public ResponseEntity<?> delete(@PathVariable String token) {
+        manager.deletePatientByToken(token);
+        return ResponseEntity.ok(Map.of("status", "Success", "token", token));
+    }
+
+    // Registrations in id order, one page at a time. Pass the returned
+    // nextAfterId as afterId to get the following page; null means no more rows.
+    @GetMapping
+    public ResponseEntity<?> page(@RequestParam(defaultValue = "0") long afterId,
+                                  @RequestParam(defaultValue = "50") int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_PAGE));
+        try {
+            List<PatientRow> rows = manager.listPatients(afterId, size);
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("items", rows);
+            body.put("nextAfterId", rows.size() < size ? null : rows.get(rows.size() - 1).id());
+            return ResponseEntity.ok(body);
+        } catch (SQLException e) {
+            return ResponseEntity.status(503).body(Map.of("status", "DB_ERROR", "message", e.getMessage()));
+        }
+    }
+
+    // Every registration after afterId as one JSON array, written row by row
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "0") long afterId) {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = mapper.getFactory().createGenerator(out)) {
+                // On failure leave the array unterminated so clients can tell it is incomplete
+                json.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                json.writeStartArray();
+                manager.forEachPatient(afterId, row -> {
+                    json.writeStartObject();
+                    json.writeNumberField("id", row.id());
+                    json.writeStringField("token", row.token());
+                    json.writeStringField("name", row.name());
+                    json.writeNumberField("age", row.age());
+                    json.writeEndObject();
+                });
+                json.writeEndArray();
+            } catch (SQLException e) {
+                throw new IOException("Export failed: " + e.getMessage(), e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.QueueEvent;
+import com.example.QueueListener;
+
+// Fans queue events out to connected display boards. Request threads only drop
+// the event on a central queue; one fan-out thread copies it into each
+// subscriber's bounded buffer, and each subscriber has its own virtual thread
+// that sends everything that arrived within the coalescing window as one
+// message. A subscriber that falls behind loses buffered events and is told to
+// resync (re-read /api/queue/waiting) instead of slowing anyone else down.
+public class QueueEventBroadcaster implements QueueListener, AutoCloseable {
+
+    // Transport for one subscriber, e.g. an SSE connection
+    public interface Sink {
+        void send(List<QueueEvent> events, boolean resync) throws IOException;
+
+        void heartbeat() throws IOException;
+
+        void close();
+    }
+
+    // Returned by subscribe(); cancel() when the transport closes, so the
+    // subscriber goes away now rather than on its next failed heartbeat
+    public interface Subscription {
+        void cancel();
+    }
+
+    private final int bufferSize;
+    private final long coalesceMs;
+    private final long heartbeatMs;
+    private final BlockingQueue<QueueEvent> incoming = new LinkedBlockingQueue<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Thread fanOut;
+    private volatile boolean running = true;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public QueueEventBroadcaster(int bufferSize, long coalesceMs, long heartbeatMs) {
+        this.bufferSize = bufferSize;
+        this.coalesceMs = coalesceMs;
+        this.heartbeatMs = heartbeatMs;
+        this.fanOut = Thread.ofPlatform().daemon().name("queue-events-fanout").start(this::fanOutLoop);
+    }
+
+    @Override
+    public void onEvent(QueueEvent event) {
+        published.increment();
+        incoming.offer(event);
+    }
+
+    public Subscription subscribe(Sink sink) {
+        Subscriber subscriber = new Subscriber(sink);
+        subscribers.add(subscriber);
+        subscriber.thread = Thread.ofVirtual().name("queue-events-subscriber").start(subscriber::run);
+        return subscriber;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    public long deliveredCount() {
+        return delivered.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    private void fanOutLoop() {
+        while (running) {
+            QueueEvent event;
+            try {
+                event = incoming.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == null) {
+                continue;
+            }
+            for (Subscriber s : subscribers) {
+                s.offer(event);
+            }
+        }
+    }
+
+    private final class Subscriber implements Subscription {
+        final Sink sink;
+        final BlockingQueue<QueueEvent> buffer = new ArrayBlockingQueue<>(bufferSize);
+        final AtomicBoolean overflowed = new AtomicBoolean();
+        volatile Thread thread;
+        volatile boolean cancelled;
+
+        Subscriber(Sink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscribers.remove(this);
+            Thread t = thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+
+        void offer(QueueEvent event) {
+            if (!buffer.offer(event)) {
+                // Too slow: drop what it has not read yet and make it resync
+                dropped.add(buffer.size() + 1);
+                buffer.clear();
+                overflowed.set(true);
+                buffer.offer(event);
+            }
+        }
+
+        void run() {
+            List<QueueEvent> batch = new ArrayList<>();
+            try {
+                while (running && !cancelled) {
+                    QueueEvent first = buffer.poll(heartbeatMs, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        sink.heartbeat();
+                        continue;
+                    }
+                    if (coalesceMs > 0) {
+                        Thread.sleep(coalesceMs);
+                    }
+                    batch.add(first);
+                    buffer.drainTo(batch);
+                    sink.send(batch, overflowed.getAndSet(false));
+                    delivered.add(batch.size());
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Client went away or we are shutting down
+            } finally {
+                subscribers.remove(this);
+                sink.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        fanOut.interrupt();
+        for (Subscriber s : subscribers) {
+            if (s.thread != null) {
+                s.thread.interrupt();
+            }
+        }
+    }
+}
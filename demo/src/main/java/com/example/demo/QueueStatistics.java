@@ -0,0 +1,294 @@
+package com.example.demo;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.QueueEvent;
+import com.example.QueueListener;
+
+// Queue analytics for /api/stats, kept up to date from queue events instead of
+// read from the patients table: totals, arrivals and calls per clock hour for
+// the last 24 hours, registrations by age band, and wait times (registration
+// to call) per department and as a log-bucketed histogram good to 5% for the
+// percentiles. Each event costs a few counter increments and snapshot() reads
+// a fixed number of counters, however many patients came before.
+//
+// Figures cover the time since startup (kiosks restart nightly, so about a
+// day). In cluster mode they cover the whole shared log, replayed at startup,
+// and times come from the log, so every node reports the same. Waits are only
+// known for patients registered while this was listening. An undone
+// registration is taken back out of the counts; a deleted one counts as
+// cancelled.
+public class QueueStatistics implements QueueListener {
+
+    private static final int HOURS = 24;
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int AGE_BANDS = 10;
+    // Bucket i > 0 holds waits in [GROWTH^(i-1), GROWTH^i) seconds; bucket 0 is under a second
+    private static final double GROWTH = 1.05;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final int WAIT_BUCKETS = 2 + (int) (Math.log(TimeUnit.DAYS.toSeconds(1)) / LOG_GROWTH);
+
+    private static final class Hour {
+        final long hour;
+        final LongAdder arrivals = new LongAdder();
+        final LongAdder called = new LongAdder();
+        final LongAdder waitMs = new LongAdder();
+        final LongAdder waits = new LongAdder();
+
+        Hour(long hour) {
+            this.hour = hour;
+        }
+    }
+
+    private static final class Department {
+        final LongAdder registered = new LongAdder();
+        final LongAdder called = new LongAdder();
+        final LongAdder waitMs = new LongAdder();
+        final LongAdder waits = new LongAdder();
+    }
+
+    private record Arrival(long at, String department) {
+    }
+
+    private final Clock clock;
+    private final long startedAt;
+    private final LongAdder registered = new LongAdder();
+    private final LongAdder called = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder undone = new LongAdder();
+    private final AtomicReferenceArray<Hour> hours = new AtomicReferenceArray<>(HOURS);
+    private final AtomicLongArray ages = new AtomicLongArray(AGE_BANDS);
+    private final AtomicLongArray waitBuckets = new AtomicLongArray(WAIT_BUCKETS);
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitMs = new LongAdder();
+    private final AtomicLong maxWaitMs = new AtomicLong();
+    private final ConcurrentHashMap<String, Department> departments = new ConcurrentHashMap<>();
+    // Registration time of everyone waiting, to measure their wait when called.
+    // Entries go when the patient leaves the queue, and at the first registration
+    // of a new local day any left from earlier days are dropped, as the queue
+    // drops those patients (NEW_DAY), so it holds at most about a day's worth.
+    private final ConcurrentHashMap<String, Arrival> arrivals = new ConcurrentHashMap<>();
+    // Local day of the last such sweep
+    private final AtomicLong sweptDay = new AtomicLong(Long.MIN_VALUE);
+
+    public QueueStatistics(Clock clock) {
+        this.clock = clock;
+        this.startedAt = clock.millis();
+    }
+
+    @Override
+    public void onEvent(QueueEvent e) {
+        switch (e.type()) {
+            case ADDED -> {
+                sweepEarlierDays(e.timestamp());
+                arrivals.put(e.token(), new Arrival(e.timestamp(), e.department()));
+                registered.increment();
+                department(e.department()).registered.increment();
+                ages.incrementAndGet(ageBand(e.age()));
+                Hour h = hour(e.timestamp());
+                if (h != null) {
+                    h.arrivals.increment();
+                }
+            }
+            case UNDONE -> {
+                // A registration made by mistake: take it back out
+                Arrival a = arrivals.remove(e.token());
+                undone.increment();
+                if (a == null) {
+                    return;
+                }
+                registered.decrement();
+                department(a.department()).registered.decrement();
+                ages.decrementAndGet(ageBand(e.age()));
+                Hour h = hour(a.at());
+                if (h != null) {
+                    h.arrivals.decrement();
+                }
+            }
+            case DELETED -> {
+                arrivals.remove(e.token());
+                cancelled.increment();
+            }
+            case CALLED -> {
+                called.increment();
+                Department d = department(e.department());
+                d.called.increment();
+                Hour h = hour(e.timestamp());
+                if (h != null) {
+                    h.called.increment();
+                }
+                Arrival a = arrivals.remove(e.token());
+                if (a == null) {
+                    return;
+                }
+                long wait = Math.max(0, e.timestamp() - a.at());
+                waits.increment();
+                waitMs.add(wait);
+                maxWaitMs.accumulateAndGet(wait, Math::max);
+                waitBuckets.incrementAndGet(waitBucket(wait));
+                d.waits.increment();
+                d.waitMs.add(wait);
+                if (h != null) {
+                    h.waits.increment();
+                    h.waitMs.add(wait);
+                }
+            }
+        }
+    }
+
+    private void sweepEarlierDays(long at) {
+        long day = Math.floorDiv(localHour(at), (long) HOURS);
+        long swept = sweptDay.get();
+        if (day > swept && sweptDay.compareAndSet(swept, day)) {
+            long dayStart = day * HOURS * HOUR_MS - offsetMillis(at);
+            arrivals.values().removeIf(a -> a.at() < dayStart);
+        }
+    }
+
+    // Patients whose wait is still open, for tests
+    int trackedArrivals() {
+        return arrivals.size();
+    }
+
+    private Department department(String code) {
+        return departments.computeIfAbsent(code == null ? "?" : code, k -> new Department());
+    }
+
+    private static int ageBand(int age) {
+        return Math.max(0, Math.min(AGE_BANDS - 1, age / 10));
+    }
+
+    static int waitBucket(long waitMs) {
+        double seconds = waitMs / 1000.0;
+        if (seconds < 1) {
+            return 0;
+        }
+        return Math.min(WAIT_BUCKETS - 1, 1 + (int) (Math.log(seconds) / LOG_GROWTH));
+    }
+
+    // Upper end of a bucket, so a percentile is never under-reported
+    private static long bucketLimitMs(int bucket) {
+        return Math.round(Math.pow(GROWTH, bucket) * 1000);
+    }
+
+    // Hours are counted in local time, which is not a whole number of hours
+    // off UTC everywhere (India is 5:30 ahead)
+    private long localHour(long at) {
+        return Math.floorDiv(at + offsetMillis(at), HOUR_MS);
+    }
+
+    private long offsetMillis(long at) {
+        return clock.getZone().getRules().getOffset(Instant.ofEpochMilli(at)).getTotalSeconds() * 1000L;
+    }
+
+    // The slot for this clock hour, taking it over from the hour 24 earlier;
+    // null for events older than the slot's current hour
+    private Hour hour(long at) {
+        long hour = localHour(at);
+        int slot = (int) Math.floorMod(hour, (long) HOURS);
+        while (true) {
+            Hour current = hours.get(slot);
+            if (current != null && current.hour >= hour) {
+                return current.hour == hour ? current : null;
+            }
+            Hour fresh = new Hour(hour);
+            if (hours.compareAndSet(slot, current, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        long now = clock.millis();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("since", Instant.ofEpochMilli(startedAt).toString());
+        stats.put("registered", registered.sum());
+        stats.put("called", called.sum());
+        stats.put("cancelled", cancelled.sum());
+        stats.put("undone", undone.sum());
+        stats.put("wait", waitStats());
+
+        List<Map<String, Object>> hourly = new ArrayList<>(HOURS);
+        long currentHour = localHour(now);
+        for (long hour = currentHour - HOURS + 1; hour <= currentHour; hour++) {
+            Hour h = hours.get((int) Math.floorMod(hour, (long) HOURS));
+            if (h == null || h.hour != hour) {
+                continue;
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("hour", LocalDateTime.ofEpochSecond(hour * HOUR_MS / 1000, 0, ZoneOffset.UTC).toString());
+            m.put("arrivals", h.arrivals.sum());
+            m.put("called", h.called.sum());
+            m.put("avgWaitMinutes", minutes(h.waitMs.sum(), h.waits.sum()));
+            hourly.add(m);
+        }
+        stats.put("hourly", hourly);
+
+        Map<String, Object> byAge = new LinkedHashMap<>();
+        for (int band = 0; band < AGE_BANDS; band++) {
+            byAge.put(band == AGE_BANDS - 1 ? band * 10 + "+" : band * 10 + "-" + (band * 10 + 9), ages.get(band));
+        }
+        stats.put("ages", byAge);
+
+        Map<String, Object> byDepartment = new LinkedHashMap<>();
+        departments.forEach((code, d) -> {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("registered", d.registered.sum());
+            m.put("called", d.called.sum());
+            m.put("avgWaitMinutes", minutes(d.waitMs.sum(), d.waits.sum()));
+            byDepartment.put(code, m);
+        });
+        stats.put("departments", byDepartment);
+        return stats;
+    }
+
+    private Map<String, Object> waitStats() {
+        long[] counts = new long[WAIT_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < WAIT_BUCKETS; i++) {
+            counts[i] = waitBuckets.get(i);
+            total += counts[i];
+        }
+        Map<String, Object> wait = new LinkedHashMap<>();
+        wait.put("samples", total);
+        wait.put("avgMinutes", minutes(waitMs.sum(), waits.sum()));
+        wait.put("p50Minutes", minutes(percentileMs(counts, total, 0.50), 1));
+        wait.put("p90Minutes", minutes(percentileMs(counts, total, 0.90), 1));
+        wait.put("p99Minutes", minutes(percentileMs(counts, total, 0.99), 1));
+        wait.put("maxMinutes", minutes(maxWaitMs.get(), 1));
+        return wait;
+    }
+
+    // Smallest bucket limit with at least this fraction of the samples at or below it
+    private long percentileMs(long[] counts, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketLimitMs(i), maxWaitMs.get());
+            }
+        }
+        return maxWaitMs.get();
+    }
+
+    private static double minutes(long totalMs, long count) {
+        return count == 0 ? 0.0 : Math.round(totalMs / (double) count / 6_000.0) / 10.0;
+    }
+}
@@ -2,21 +2,20 @@ package com.example.demo;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
+import jakarta.annotation.PostConstruct;
+
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
+@Lazy
 @RequestMapping("/api/razorpay")
 @CrossOrigin(origins = "*")
 public class RazorpayController {
@@ -27,15 +26,56 @@ public class RazorpayController {
     @Value("${razorpay.key_secret:}")
     private String keySecret;
 
+    @Value("${razorpay.webhook_secret:}")
+    private String webhookSecret;
+
+    private static final int MAX_IDEMPOTENCY_KEY = 64;
+
     private final ObjectMapper mapper = new ObjectMapper();
+    private final PaymentGatewayClient gateway;
+    private final PaymentOrderCache orders;
+    private final PaymentReconciler reconciler;
+
+    private SignatureVerifier verifier;
+    private SignatureVerifier webhookVerifier;
+
+    public RazorpayController(PaymentGatewayClient gateway, PaymentOrderCache orders, PaymentReconciler reconciler) {
+        this.gateway = gateway;
+        this.orders = orders;
+        this.reconciler = reconciler;
+    }
+
+    @PostConstruct
+    void initVerifier() {
+        if (keySecret != null && !keySecret.isBlank()) {
+            verifier = new SignatureVerifier(keySecret);
+        }
+        if (webhookSecret != null && !webhookSecret.isBlank()) {
+            webhookVerifier = new SignatureVerifier(webhookSecret);
+        }
+    }
 
     @PostMapping("/create-order")
-    public ResponseEntity<String> createOrder(@RequestBody Map<String, Object> body) throws Exception {
-        // Expect { amount: number (INR), currency?: 'INR', receipt?: 'rcpt_1' }
+    public CompletableFuture<ResponseEntity<String>> createOrder(@RequestBody Map<String, Object> body,
+                                                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) throws Exception {
+        // Expect { amount: number (INR), currency?: 'INR', receipt?: 'rcpt_1', idempotencyKey?: '...' }
         double amountInr = body.getOrDefault("amount", 0) instanceof Number ? ((Number) body.get("amount")).doubleValue() : Double.parseDouble(body.get("amount").toString());
         int amountPaise = (int) Math.round(amountInr * 100);
         String currency = (String) body.getOrDefault("currency", "INR");
-        String receipt = (String) body.getOrDefault("receipt", "rcpt_" + System.currentTimeMillis());
+
+        // Header first, then body field, then a client-chosen receipt
+        String key = idempotencyKey;
+        if (key == null || key.isBlank()) {
+            Object fromBody = body.get("idempotencyKey") != null ? body.get("idempotencyKey") : body.get("receipt");
+            key = fromBody == null ? null : fromBody.toString();
+        }
+        if (key != null && (key.isBlank() || key.length() > MAX_IDEMPOTENCY_KEY)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body("{\"status\":\"BAD_IDEMPOTENCY_KEY\"}"));
+        }
+        // Razorpay caps receipts at 40 characters
+        String receipt = body.containsKey("receipt") ? body.get("receipt").toString()
+                : key != null ? truncate("rcpt_" + key, 40) : "rcpt_" + System.currentTimeMillis();
 
         Map<String, Object> payload = new HashMap<>();
         payload.put("amount", amountPaise);
@@ -43,29 +83,41 @@ public class RazorpayController {
         payload.put("receipt", receipt);
         payload.put("payment_capture", 1);
 
-        if (keyId == null || keyId.isBlank() || keySecret == null || keySecret.isBlank()) {
-            // Return a mock order so frontend can proceed in demo mode
-            Map<String, Object> mock = new HashMap<>();
-            mock.put("id", "order_mock_" + System.currentTimeMillis());
-            mock.put("amount", amountPaise);
-            mock.put("currency", currency);
-            mock.put("key", keyId);
-            return ResponseEntity.ok(mapper.writeValueAsString(mock));
+        if (key == null) {
+            return newOrder(payload);
         }
+        return orders.getOrCreate(key, amountPaise + ":" + currency, () -> newOrder(payload));
+    }
 
-        String auth = Base64.getEncoder().encodeToString((keyId + ":" + keySecret).getBytes(StandardCharsets.UTF_8));
+    private CompletableFuture<ResponseEntity<String>> newOrder(Map<String, Object> payload) {
+        try {
+            if (keyId == null || keyId.isBlank() || keySecret == null || keySecret.isBlank()) {
+                // Return a mock order so frontend can proceed in demo mode
+                Map<String, Object> mock = new HashMap<>();
+                mock.put("id", "order_mock_" + System.currentTimeMillis());
+                mock.put("amount", payload.get("amount"));
+                mock.put("currency", payload.get("currency"));
+                mock.put("key", keyId);
+                return CompletableFuture.completedFuture(ResponseEntity.ok(mapper.writeValueAsString(mock)));
+            }
+
+            // Return backend response directly; the servlet thread is released while we wait
+            return gateway.post("/v1/orders", mapper.writeValueAsString(payload))
+                    .thenApply(RazorpayController::relay)
+                    .exceptionally(this::gatewayError);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.razorpay.com/v1/orders"))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Basic " + auth)
-                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(payload)))
-                .build();
+    // Orders created vs. duplicates answered from the idempotency cache
+    @GetMapping("/order-cache-stats")
+    public Map<String, Object> orderCacheStats() {
+        return orders.stats();
+    }
 
-        HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
-        // Return backend response directly
-        return ResponseEntity.status(resp.statusCode()).body(resp.body());
+    private static String truncate(String s, int max) {
+        return s.length() <= max ? s : s.substring(0, max);
     }
 
     @GetMapping("/public-key")
@@ -77,12 +129,12 @@ public class RazorpayController {
     }
 
     @PostMapping("/create-payment-link")
-    public ResponseEntity<String> createPaymentLink(@RequestBody Map<String, Object> body) throws Exception {
+    public CompletableFuture<ResponseEntity<String>> createPaymentLink(@RequestBody Map<String, Object> body) throws Exception {
         // Minimal implementation to create a payment link (test keys required)
         if (keyId == null || keyId.isBlank() || keySecret == null || keySecret.isBlank()) {
             Map<String, Object> mock = new HashMap<>();
             mock.put("short_url", "https://rzp.io/i/mock-payment-link");
-            return ResponseEntity.ok(mapper.writeValueAsString(mock));
+            return CompletableFuture.completedFuture(ResponseEntity.ok(mapper.writeValueAsString(mock)));
         }
 
         Map<String, Object> payload = new HashMap<>();
@@ -99,19 +151,34 @@ public class RazorpayController {
         }
         payload.put("customer", customer);
 
-        String auth = Base64.getEncoder().encodeToString((keyId + ":" + keySecret).getBytes(StandardCharsets.UTF_8));
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.razorpay.com/v1/payment_links"))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Basic " + auth)
-                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(payload)))
-                .build();
+        return gateway.post("/v1/payment_links", mapper.writeValueAsString(payload))
+                .thenApply(RazorpayController::relay)
+                .exceptionally(this::gatewayError);
+    }
+
+    // Retry/circuit-breaker counters and gateway latency
+    @GetMapping("/gateway-stats")
+    public Map<String, Object> gatewayStats() {
+        return gateway.stats();
+    }
 
-        HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+    private static ResponseEntity<String> relay(HttpResponse<String> resp) {
         return ResponseEntity.status(resp.statusCode()).body(resp.body());
     }
 
+    private ResponseEntity<String> gatewayError(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        boolean open = cause instanceof PaymentGatewayClient.GatewayUnavailableException;
+        Map<String, Object> body = new HashMap<>();
+        body.put("status", open ? "GATEWAY_UNAVAILABLE" : "GATEWAY_ERROR");
+        body.put("message", String.valueOf(cause.getMessage()));
+        try {
+            return ResponseEntity.status(open ? 503 : 502).body(mapper.writeValueAsString(body));
+        } catch (Exception e) {
+            return ResponseEntity.status(502).body("{\"status\":\"GATEWAY_ERROR\"}");
+        }
+    }
+
     @PostMapping("/verify")
     public ResponseEntity<?> verifyPayment(@RequestBody Map<String, String> body) throws Exception {
         // body should contain: razorpay_order_id, razorpay_payment_id, razorpay_signature
@@ -128,23 +195,35 @@ public class RazorpayController {
             return ResponseEntity.ok(Map.of("status", "VERIFIED_DEMO"));
         }
 
-        String payload = orderId + "|" + paymentId;
-        Mac mac = Mac.getInstance("HmacSHA256");
-        mac.init(new SecretKeySpec(keySecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
-        byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
-        String expected = bytesToHex(digest);
-
-        // Razorpay gives signature as hex; however sometimes uses base64 — try both
-        String sigLower = signature.toLowerCase();
-        if (expected.equalsIgnoreCase(sigLower) || Base64.getEncoder().encodeToString(digest).equals(signature)) {
+        // Razorpay gives signature as hex; base64 is accepted too
+        if (verifier.verify(orderId, paymentId, signature)) {
             return ResponseEntity.ok(Map.of("status", "VERIFIED"));
         }
         return ResponseEntity.status(400).body(Map.of("status", "INVALID_SIGNATURE"));
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) sb.append(String.format("%02x", b));
-        return sb.toString();
+    // Gateway callbacks (payment.authorized, payment.captured, ...). The body is
+    // verified and stored before the 200; PaymentReconciler does the rest.
+    @PostMapping("/webhook")
+    public ResponseEntity<?> webhook(@RequestBody byte[] body,
+                                     @RequestHeader(value = "X-Razorpay-Signature", required = false) String signature) {
+        if (webhookVerifier == null) {
+            return ResponseEntity.status(503).body(Map.of("status", "WEBHOOK_NOT_CONFIGURED"));
+        }
+        if (!webhookVerifier.verify(body, signature)) {
+            reconciler.recordInvalidSignature();
+            return ResponseEntity.status(400).body(Map.of("status", "INVALID_SIGNATURE"));
+        }
+        if (!reconciler.submit(body)) {
+            // The gateway retries failed deliveries, so shedding load here is safe
+            return ResponseEntity.status(503).header("Retry-After", "5").body(Map.of("status", "BUSY"));
+        }
+        return ResponseEntity.ok(Map.of("status", "QUEUED"));
+    }
+
+    // Webhook throughput, duplicates and ingestion-to-commit lag
+    @GetMapping("/webhook-stats")
+    public Map<String, Object> webhookStats() {
+        return reconciler.stats();
     }
 }
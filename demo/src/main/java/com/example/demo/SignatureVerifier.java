@@ -0,0 +1,167 @@
+package com.example.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+// HMAC-SHA256 signature checks for Razorpay (checkout "order|payment" and
+// webhook bodies). Keyed Mac instances are cloned from one prototype and
+// pooled, since request threads are virtual and a ThreadLocal would be
+// rebuilt for almost every request. The hex signature is decoded in place and
+// compared with the raw digest in constant time, so the common path does not
+// build any strings; base64 signatures are still accepted as a fallback.
+public final class SignatureVerifier {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int DIGEST_LENGTH = 32;
+
+    // A pre-keyed Mac plus scratch buffers, used by one thread at a time
+    private static final class State {
+        final Mac mac;
+        final byte[] digest = new byte[DIGEST_LENGTH];
+        byte[] scratch = new byte[128];
+
+        State(Mac mac) {
+            this.mac = mac;
+        }
+    }
+
+    private final Mac prototype;
+    private final BlockingQueue<State> pool;
+
+    public SignatureVerifier(String secret) {
+        try {
+            prototype = Mac.getInstance(ALGORITHM);
+            prototype.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+        pool = new ArrayBlockingQueue<>(Math.max(4, Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    // Checkout callback: signature over "orderId|paymentId"
+    public boolean verify(String orderId, String paymentId, String signature) {
+        State s = borrow();
+        try {
+            update(s, orderId);
+            s.mac.update((byte) '|');
+            update(s, paymentId);
+            return matches(s, signature);
+        } finally {
+            release(s);
+        }
+    }
+
+    // Webhooks: signature over the raw request body
+    public boolean verify(byte[] payload, String signature) {
+        State s = borrow();
+        try {
+            s.mac.update(payload);
+            return matches(s, signature);
+        } finally {
+            release(s);
+        }
+    }
+
+    // Verifies a burst of webhook bodies with one Mac; result[i] is for payloads[i]
+    public boolean[] verifyAll(byte[][] payloads, String[] signatures) {
+        boolean[] result = new boolean[payloads.length];
+        State s = borrow();
+        try {
+            for (int i = 0; i < payloads.length; i++) {
+                s.mac.update(payloads[i]);
+                result[i] = matches(s, signatures[i]);
+            }
+        } finally {
+            release(s);
+        }
+        return result;
+    }
+
+    private State borrow() {
+        State s = pool.poll();
+        if (s != null) {
+            return s;
+        }
+        try {
+            return new State((Mac) prototype.clone());
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Mac provider does not support clone", e);
+        }
+    }
+
+    private void release(State s) {
+        s.mac.reset();
+        pool.offer(s);
+    }
+
+    // ASCII ids go through the scratch buffer; anything else is encoded normally
+    private static void update(State s, String value) {
+        int n = value.length();
+        if (n > s.scratch.length) {
+            s.scratch = new byte[Math.max(n, s.scratch.length * 2)];
+        }
+        byte[] buf = s.scratch;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                s.mac.update(buf, 0, i);
+                s.mac.update(value.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buf[i] = (byte) c;
+        }
+        s.mac.update(buf, 0, n);
+    }
+
+    private static boolean matches(State s, String signature) {
+        try {
+            s.mac.doFinal(s.digest, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        if (signature == null) {
+            return false;
+        }
+        if (signature.length() == DIGEST_LENGTH * 2) {
+            return hexEquals(s.digest, signature);
+        }
+        // Fallback: some integrations send the digest base64-encoded
+        try {
+            return MessageDigest.isEqual(s.digest, Base64.getDecoder().decode(signature));
+        } catch (IllegalArgumentException notBase64) {
+            return false;
+        }
+    }
+
+    // Constant time with respect to the digest: every byte is compared
+    private static boolean hexEquals(byte[] digest, String hex) {
+        int diff = 0;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            int hi = nibble(hex.charAt(2 * i));
+            int lo = nibble(hex.charAt(2 * i + 1));
+            // A non-hex character yields -1 and sets bits outside the low byte
+            diff |= ((hi << 4) | lo) ^ (digest[i] & 0xff);
+            diff |= (hi | lo) & ~0xf;
+        }
+        return diff == 0;
+    }
+
+    private static int nibble(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        int lower = c | 0x20;
+        if (lower >= 'a' && lower <= 'f') {
+            return lower - 'a' + 10;
+        }
+        return -1;
+    }
+}
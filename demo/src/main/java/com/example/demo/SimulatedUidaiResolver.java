@@ -0,0 +1,21 @@
+package com.example.demo;
+
+import org.springframework.stereotype.Component;
+
+import com.example.Patient;
+
+// Stand-in for the remote UIDAI lookup: makes up a readable name from the last
+// four digits. Replace with a server-side UIDAI client once registered.
+@Component
+public class SimulatedUidaiResolver implements IdentityResolver {
+
+    @Override
+    public Patient resolve(long aadhaar) {
+        long suffix = aadhaar % 10_000;
+        StringBuilder name = new StringBuilder("Patient ");
+        for (long d = 1000; d > 1 && suffix < d; d /= 10) {
+            name.append('0');
+        }
+        return new Patient(name.append(suffix).toString(), 30, "PENDING");
+    }
+}
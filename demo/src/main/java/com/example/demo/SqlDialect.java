@@ -0,0 +1,45 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// The few statements that differ between MySQL and embedded H2. H2 runs in
+// MySQL mode, so everything else (ON DUPLICATE KEY, INSERT IGNORE, FROM DUAL,
+// the table DDL) is shared.
+public enum SqlDialect {
+
+    MYSQL("UPDATE payments p JOIN payment_registrations r ON r.order_id = p.order_id "
+            + "SET p.token = r.token, p.reconciled_at = CURRENT_TIMESTAMP WHERE p.order_id = ? AND p.token IS NULL",
+            // Connector/J only streams rows with this sentinel fetch size
+            Integer.MIN_VALUE),
+
+    // H2 has no multi-table UPDATE
+    H2("UPDATE payments p SET token = (SELECT r.token FROM payment_registrations r WHERE r.order_id = p.order_id), "
+            + "reconciled_at = CURRENT_TIMESTAMP WHERE p.order_id = ? AND p.token IS NULL "
+            + "AND EXISTS (SELECT 1 FROM payment_registrations r WHERE r.order_id = p.order_id)",
+            500);
+
+    private final String reconcilePayments;
+    private final int streamingFetchSize;
+
+    SqlDialect(String reconcilePayments, int streamingFetchSize) {
+        this.reconcilePayments = reconcilePayments;
+        this.streamingFetchSize = streamingFetchSize;
+    }
+
+    // Copies the registration token onto the payments of one order (the only
+    // parameter) if the order was linked to one; idx_payments_order keeps it to
+    // that order's rows
+    public String reconcilePayments() {
+        return reconcilePayments;
+    }
+
+    // Fetch size for reading a large result set row by row
+    public int streamingFetchSize() {
+        return streamingFetchSize;
+    }
+
+    public static SqlDialect of(Connection conn) throws SQLException {
+        return "H2".equalsIgnoreCase(conn.getMetaData().getDatabaseProductName()) ? H2 : MYSQL;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.demo;
+
+import java.util.Map;
+
+import org.springframework.context.annotation.Lazy;
+import org.springframework.web.bind.annotation.*;
+
+import com.example.QueueManager;
+
+// Figures for hospital administrators, answered from memory (see QueueStatistics)
+@RestController
+@Lazy
+@RequestMapping("/api")
+@CrossOrigin(origins = "*")
+public class StatsController {
+
+    private final QueueStatistics statistics;
+    private final QueueManager manager;
+
+    public StatsController(QueueStatistics statistics, QueueManager manager) {
+        this.statistics = statistics;
+        this.manager = manager;
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = statistics.snapshot();
+        stats.put("waiting", manager.waitingCount());
+        return stats;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.demo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+// Local stand-in for the Razorpay REST API so order creation can be load tested
+// offline. Only active with --spring.profiles.active=stub-gateway, which also
+// points razorpay.base-url here. Latency and failure rate are configurable.
+@RestController
+@Profile("stub-gateway")
+@RequestMapping("/stub/razorpay/v1")
+public class StubGatewayController {
+
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double failureRate;
+    private final AtomicLong ids = new AtomicLong();
+
+    public StubGatewayController(@Value("${stub.gateway.latency-ms:80}") long latencyMs,
+                                 @Value("${stub.gateway.jitter-ms:40}") long jitterMs,
+                                 @Value("${stub.gateway.failure-rate:0.0}") double failureRate) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.failureRate = failureRate;
+    }
+
+    @PostMapping("/orders")
+    public ResponseEntity<?> createOrder(@RequestBody Map<String, Object> body) throws InterruptedException {
+        if (simulate()) {
+            return ResponseEntity.status(503).body(Map.of("error", Map.of("code", "SERVER_ERROR")));
+        }
+        Map<String, Object> order = new LinkedHashMap<>();
+        order.put("id", "order_stub_" + ids.incrementAndGet());
+        order.put("entity", "order");
+        order.put("amount", body.get("amount"));
+        order.put("currency", body.getOrDefault("currency", "INR"));
+        order.put("receipt", body.get("receipt"));
+        order.put("status", "created");
+        return ResponseEntity.ok(order);
+    }
+
+    @PostMapping("/payment_links")
+    public ResponseEntity<?> createPaymentLink(@RequestBody Map<String, Object> body) throws InterruptedException {
+        if (simulate()) {
+            return ResponseEntity.status(503).body(Map.of("error", Map.of("code", "SERVER_ERROR")));
+        }
+        long id = ids.incrementAndGet();
+        return ResponseEntity.ok(Map.of("id", "plink_stub_" + id, "short_url", "https://rzp.io/i/stub-" + id,
+                "amount", body.get("amount"), "status", "created"));
+    }
+
+    // Sleeps for the configured latency (cheap on virtual threads); true = fail this call
+    private boolean simulate() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Thread.sleep(latencyMs + (jitterMs > 0 ? random.nextLong(jitterMs) : 0));
+        return failureRate > 0 && random.nextDouble() < failureRate;
+    }
+}
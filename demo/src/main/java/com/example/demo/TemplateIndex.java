@@ -0,0 +1,219 @@
+package com.example.demo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.Patient;
+
+// 1:N fingerprint matcher. Every template is reduced to a 256-bit code; codes of
+// all enrolled templates sit back to back in one long[] (4 longs each), and a
+// search is a linear scan of XOR + popcount (Long.bitCount is an intrinsic),
+// split across the common fork-join pool once the index is large. Enrollment
+// appends under a lock and publishes a new immutable view, so searches never
+// block. The index holds at most maxSize templates (32 bytes of code each) and
+// lives in memory only: enrollments are gone after a restart.
+@Component
+public class TemplateIndex {
+
+    public static final int WORDS = 4;
+    public static final int BITS = WORDS * 64;
+    public static final int CODE_BYTES = WORDS * 8;
+
+    // Below this, splitting costs more than it saves
+    static final int PARALLEL_THRESHOLD = 16_384;
+    private static final int SHINGLE = 4;
+
+    public record Match(Patient patient, double score) {
+    }
+
+    // What searches see: the first `size` entries of the arrays
+    private record View(long[] codes, Patient[] owners, int size) {
+    }
+
+    private volatile View view = new View(new long[64 * WORDS], new Patient[64], 0);
+    private final ForkJoinPool pool;
+    private final int maxSize;
+
+    public TemplateIndex() {
+        this(Integer.MAX_VALUE);
+    }
+
+    @Autowired
+    public TemplateIndex(@Value("${biometric.index.max-size:200000}") int maxSize) {
+        this(ForkJoinPool.commonPool(), maxSize);
+    }
+
+    public TemplateIndex(ForkJoinPool pool, int maxSize) {
+        this.pool = pool;
+        this.maxSize = maxSize;
+    }
+
+    // A template of exactly CODE_BYTES is taken as an already packed code;
+    // anything else is reduced with SimHash over 4-byte shingles, so templates
+    // that share most of their bytes end up with nearby codes.
+    public static long[] encode(ByteBuffer template) {
+        int from = template.position(), n = template.remaining();
+        long[] code = new long[WORDS];
+        if (n == CODE_BYTES) {
+            for (int w = 0; w < WORDS; w++) {
+                code[w] = template.getLong(from + w * 8);
+            }
+            return code;
+        }
+        int[] votes = new int[BITS];
+        int shingles = Math.max(1, n - SHINGLE + 1);
+        for (int s = 0; s < shingles; s++) {
+            long shingle = 0;
+            for (int i = s; i < Math.min(n, s + SHINGLE); i++) {
+                shingle = (shingle << 8) | (template.get(from + i) & 0xff);
+            }
+            for (int w = 0; w < WORDS; w++) {
+                long h = mix(shingle + w * 0x9E3779B97F4A7C15L);
+                for (int bit = 0; bit < 64; bit++) {
+                    votes[w * 64 + bit] += (int) ((h >>> bit) & 1) * 2 - 1;
+                }
+            }
+        }
+        for (int b = 0; b < BITS; b++) {
+            if (votes[b] > 0) {
+                code[b >>> 6] |= 1L << (b & 63);
+            }
+        }
+        return code;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // False if the index is full
+    public synchronized boolean enroll(Patient patient, long[] code) {
+        View v = view;
+        if (v.size() >= maxSize) {
+            return false;
+        }
+        long[] codes = v.codes();
+        Patient[] owners = v.owners();
+        if (v.size() == owners.length) {
+            int capacity = (int) Math.min(owners.length * 2L, maxSize);
+            codes = Arrays.copyOf(codes, capacity * WORDS);
+            owners = Arrays.copyOf(owners, capacity);
+        }
+        // Slots past v.size() are not read by anyone until the new view is published
+        System.arraycopy(code, 0, codes, v.size() * WORDS, WORDS);
+        owners[v.size()] = patient;
+        view = new View(codes, owners, v.size() + 1);
+        return true;
+    }
+
+    public int size() {
+        return view.size();
+    }
+
+    // Best `k` enrolled templates scoring at least minScore (1.0 = identical code), best first
+    public List<Match> search(long[] probe, int k, double minScore) {
+        View v = view;
+        int maxDistance = (int) Math.floor((1.0 - minScore) * BITS);
+        TopK top = v.size() < PARALLEL_THRESHOLD
+                ? scan(v, probe, 0, v.size(), k, maxDistance)
+                : pool.invoke(new SearchTask(v, probe, 0, v.size(), k, maxDistance));
+        List<Match> matches = new ArrayList<>(top.count);
+        for (int i = 0; i < top.count; i++) {
+            matches.add(new Match(v.owners()[top.index[i]], 1.0 - top.distance[i] / (double) BITS));
+        }
+        return matches;
+    }
+
+    private static TopK scan(View v, long[] probe, int from, int to, int k, int maxDistance) {
+        long p0 = probe[0], p1 = probe[1], p2 = probe[2], p3 = probe[3];
+        long[] codes = v.codes();
+        TopK top = new TopK(k, maxDistance);
+        for (int i = from, o = from * WORDS; i < to; i++, o += WORDS) {
+            int d = Long.bitCount(codes[o] ^ p0) + Long.bitCount(codes[o + 1] ^ p1)
+                    + Long.bitCount(codes[o + 2] ^ p2) + Long.bitCount(codes[o + 3] ^ p3);
+            if (d <= top.cutoff) {
+                top.offer(i, d);
+            }
+        }
+        return top;
+    }
+
+    private static final class SearchTask extends RecursiveTask<TopK> {
+        private final View view;
+        private final long[] probe;
+        private final int from, to, k, maxDistance;
+
+        SearchTask(View view, long[] probe, int from, int to, int k, int maxDistance) {
+            this.view = view;
+            this.probe = probe;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.maxDistance = maxDistance;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return scan(view, probe, from, to, k, maxDistance);
+            }
+            int mid = (from + to) >>> 1;
+            SearchTask left = new SearchTask(view, probe, from, mid, k, maxDistance);
+            left.fork();
+            TopK right = new SearchTask(view, probe, mid, to, k, maxDistance).compute();
+            TopK merged = left.join();
+            for (int i = 0; i < right.count; i++) {
+                merged.offer(right.index[i], right.distance[i]);
+            }
+            return merged;
+        }
+    }
+
+    // The k smallest distances seen so far, kept sorted (k is small)
+    private static final class TopK {
+        final int[] index;
+        final int[] distance;
+        int count;
+        // Anything farther than this cannot get in
+        int cutoff;
+
+        TopK(int k, int maxDistance) {
+            index = new int[Math.max(1, k)];
+            distance = new int[Math.max(1, k)];
+            cutoff = maxDistance;
+        }
+
+        void offer(int i, int d) {
+            if (d > cutoff) {
+                return;
+            }
+            int last = index.length - 1;
+            if (count == index.length && (d > distance[last] || (d == distance[last] && i > index[last]))) {
+                return;
+            }
+            int pos = count < index.length ? count++ : index.length - 1;
+            // Ties keep enrollment order
+            while (pos > 0 && (distance[pos - 1] > d || (distance[pos - 1] == d && index[pos - 1] > i))) {
+                index[pos] = index[pos - 1];
+                distance[pos] = distance[pos - 1];
+                pos--;
+            }
+            index[pos] = i;
+            distance[pos] = d;
+            if (count == index.length) {
+                cutoff = Math.min(cutoff, distance[count - 1]);
+            }
+        }
+    }
+}
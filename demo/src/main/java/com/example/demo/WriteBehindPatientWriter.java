@@ -0,0 +1,352 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.Patient;
+import com.example.PatientWriter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Write-behind mode: a change is acknowledged once it is in the local journal,
+// then a flusher thread writes changes to MySQL in JDBC batches whenever
+// batchSize changes are waiting or maxDelay has passed. When the database lags,
+// at most `capacity` changes are held; after that callers wait up to
+// offerTimeout and are then rejected. Journal records that were never
+// checkpointed are replayed on startup. A batch the database rejects for good
+// is retried one change at a time; the changes it still rejects are
+// quarantined (see Journal) so they do not hold up the queue.
+public class WriteBehindPatientWriter implements PatientWriter, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindPatientWriter.class);
+    private static final long MAX_BACKOFF_MS = 5_000;
+
+    private static final class Op {
+        final long seq;
+        final Journal.Record record;
+        final boolean replay;
+
+        Op(long seq, Journal.Record record, boolean replay) {
+            this.seq = seq;
+            this.record = record;
+            this.replay = replay;
+        }
+    }
+
+    private final DBConnection db;
+    private final Journal journal;
+    private final Clock clock;
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final long offerTimeoutMs;
+    private final Semaphore capacity;
+    private final LinkedBlockingQueue<Op> ops = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong maxBatch = new AtomicLong();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder quarantined = new LongAdder();
+    private final Timer batchTimer;
+    private final Counter rejectedCounter;
+
+    public WriteBehindPatientWriter(DBConnection db, Journal journal, int batchSize, long maxDelayMs,
+                                    int capacity, long offerTimeoutMs, MeterRegistry registry) {
+        this(db, journal, batchSize, maxDelayMs, capacity, offerTimeoutMs, Clock.systemDefaultZone(), registry);
+    }
+
+    public WriteBehindPatientWriter(DBConnection db, Journal journal, int batchSize, long maxDelayMs,
+                                    int capacity, long offerTimeoutMs, Clock clock, MeterRegistry registry) {
+        this.db = db;
+        this.journal = journal;
+        this.clock = clock;
+        this.batchTimer = KioskMeters.dbQuery(registry, "batch");
+        this.rejectedCounter = KioskMeters.fallback(registry, "writer_rejected");
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.capacity = new Semaphore(capacity);
+
+        List<Journal.Record> pending = journal.pending();
+        for (Journal.Record r : pending) {
+            ops.add(new Op(r.seq, r, true)); // replays do not take capacity permits
+        }
+        if (!pending.isEmpty()) {
+            log.info("Replaying {} journaled queue changes", pending.size());
+        }
+        flusher = new Thread(this::runFlusher, "queue-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void insert(Patient p) {
+        LocalDate day = p.getVisitDay() == null ? LocalDate.now(clock) : p.getVisitDay();
+        enqueue(p.getToken(), day, () -> journal.appendAdd(p, day), Journal.ADD, p);
+    }
+
+    @Override
+    public void delete(String token, LocalDate day) {
+        enqueue(token, day, () -> journal.appendDelete(token, day), Journal.DELETE, null);
+    }
+
+    @Override
+    public void called(String token, LocalDate day) {
+        enqueue(token, day, () -> journal.appendCalled(token, day), Journal.CALLED, null);
+    }
+
+    private interface Append {
+        long run() throws IOException;
+    }
+
+    // The day comes with the change, not from when it is flushed
+    private void enqueue(String token, LocalDate day, Append append, byte type, Patient p) {
+        try {
+            if (!capacity.tryAcquire(offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                rejectedCounter.increment();
+                throw new RejectedExecutionException("Write-behind queue full; database is lagging");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for write-behind capacity");
+        }
+        // Journal order and flush order must match, or a checkpoint could skip a change
+        synchronized (ops) {
+            long seq;
+            try {
+                seq = append.run();
+            } catch (IOException e) {
+                capacity.release();
+                rejected.increment();
+                rejectedCounter.increment();
+                throw new RejectedExecutionException("Could not journal change for " + token, e);
+            }
+            Journal.Record record = p == null
+                    ? new Journal.Record(seq, type, token, "", 0, 0, day)
+                    : new Journal.Record(seq, type, token, p.getName(), p.getAge(), p.getArrivedAt(), day);
+            ops.add(new Op(seq, record, false));
+        }
+    }
+
+    private void runFlusher() {
+        List<Op> batch = new ArrayList<>(batchSize);
+        long backoffMs = 100;
+        while (running || !ops.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty() && !collect(batch)) {
+                    continue;
+                }
+                try {
+                    flush(batch);
+                    capacity.release((int) batch.stream().filter(op -> !op.replay).count());
+                    batch.clear();
+                } catch (SQLException e) {
+                    if (PatientStatements.isTransient(e)) {
+                        throw e;
+                    }
+                    isolate(batch);
+                }
+                backoffMs = 100;
+            } catch (SQLException e) {
+                // Keep the batch and retry; new changes pile up (bounded) meanwhile
+                flushFailures.increment();
+                log.warn("Write-behind flush failed, retrying in {}ms: {}", backoffMs, e.getMessage());
+                if (!running) {
+                    return; // journal still holds the batch for replay
+                }
+                sleep(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Flushes a rejected batch one change at a time, quarantining and
+    // checkpointing past each change the database still rejects. A transient
+    // failure leaves the rest in the batch for the usual retry.
+    private void isolate(List<Op> batch) throws SQLException {
+        for (Iterator<Op> it = batch.iterator(); it.hasNext(); ) {
+            Op op = it.next();
+            try {
+                flush(List.of(op));
+            } catch (SQLException e) {
+                if (PatientStatements.isTransient(e)) {
+                    throw e;
+                }
+                quarantine(op, e);
+            }
+            if (!op.replay) {
+                capacity.release();
+            }
+            it.remove();
+        }
+    }
+
+    private void quarantine(Op op, SQLException e) {
+        try {
+            journal.quarantine(op.record, e.getSQLState() + " " + e.getMessage());
+        } catch (IOException io) {
+            log.error("Could not quarantine change to {}", op.record.token, io);
+        }
+        journal.checkpoint(op.seq);
+        quarantined.increment();
+        log.error("Database rejected change to {}, quarantined: {}", op.record.token, e.getMessage());
+    }
+
+    // Waits for the first change, then gathers more until the batch is full or maxDelay passes
+    private boolean collect(List<Op> batch) throws InterruptedException {
+        Op first = ops.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < batchSize) {
+            ops.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+            Op next = ops.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return true;
+    }
+
+    // Inserts go before calls and deletes, which can only refer to a token added earlier
+    private void flush(List<Op> batch) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = db.getConnection()) {
+            conn.setAutoCommit(false);
+            // Replayed inserts may already be in the table if we crashed before checkpointing
+            try (PreparedStatement insert = conn.prepareStatement(PatientStatements.INSERT);
+                 PreparedStatement insertIfAbsent = conn.prepareStatement(PatientStatements.INSERT_IF_ABSENT);
+                 PreparedStatement called = conn.prepareStatement(PatientStatements.CALLED);
+                 PreparedStatement delete = conn.prepareStatement(PatientStatements.DELETE)) {
+                boolean inserts = false, replays = false, calls = false, deletes = false;
+                for (Op op : batch) {
+                    Journal.Record r = op.record;
+                    LocalDate day = r.day;
+                    if (r.type == Journal.DELETE) {
+                        delete.setString(1, r.token);
+                        delete.setObject(2, day);
+                        delete.addBatch();
+                        deletes = true;
+                    } else if (r.type == Journal.CALLED) {
+                        called.setString(1, r.token);
+                        called.setObject(2, day);
+                        called.addBatch();
+                        calls = true;
+                    } else if (op.replay) {
+                        insertIfAbsent.setString(1, r.name);
+                        insertIfAbsent.setInt(2, r.age);
+                        insertIfAbsent.setString(3, r.token);
+                        insertIfAbsent.setObject(4, day);
+                        insertIfAbsent.setLong(5, r.arrivedAt);
+                        insertIfAbsent.setString(6, r.token);
+                        insertIfAbsent.setObject(7, day);
+                        insertIfAbsent.addBatch();
+                        replays = true;
+                    } else {
+                        insert.setString(1, r.name);
+                        insert.setInt(2, r.age);
+                        insert.setString(3, r.token);
+                        insert.setObject(4, day);
+                        insert.setLong(5, r.arrivedAt);
+                        insert.addBatch();
+                        inserts = true;
+                    }
+                }
+                if (replays) insertIfAbsent.executeBatch();
+                if (inserts) insert.executeBatch();
+                if (calls) called.executeBatch();
+                if (deletes) delete.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        journal.checkpoint(batch.get(batch.size() - 1).seq);
+
+        long took = System.nanoTime() - start;
+        batchTimer.record(took, TimeUnit.NANOSECONDS);
+        batches.increment();
+        flushed.add(batch.size());
+        flushNanos.add(took);
+        maxFlushNanos.accumulateAndGet(took, Math::max);
+        maxBatch.accumulateAndGet(batch.size(), Math::max);
+    }
+
+    @Override
+    public List<Journal.Record> pending() {
+        return journal.pending();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long batchCount = batches.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", "write-behind");
+        stats.put("queueDepth", ops.size());
+        stats.put("batches", batchCount);
+        stats.put("flushed", flushed.sum());
+        stats.put("avgBatchSize", batchCount == 0 ? 0.0 : flushed.sum() / (double) batchCount);
+        stats.put("maxBatchSize", maxBatch.get());
+        stats.put("avgFlushMs", batchCount == 0 ? 0.0 : flushNanos.sum() / (double) batchCount / 1_000_000);
+        stats.put("maxFlushMs", maxFlushNanos.get() / 1_000_000.0);
+        stats.put("flushFailures", flushFailures.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("quarantined", quarantined.sum());
+        stats.put("journalBytes", journal.usedBytes());
+        return stats;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Flush what is queued; anything left over stays in the journal for replay
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        flusher.join(10_000);
+    }
+}
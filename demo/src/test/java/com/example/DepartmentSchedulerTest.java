@@ -0,0 +1,144 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DepartmentSchedulerTest {
+
+    private static final long MINUTE = 60_000;
+
+    // Time only moves when the test says so
+    private static final class TestClock extends Clock {
+        long millis = 1_700_000_000_000L;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    private TestClock clock;
+    private DepartmentScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, String> departments = new LinkedHashMap<>();
+        departments.put("HOS", "General");
+        departments.put("CAR", "Cardiologist|Cardiology");
+        departments.put("ENT", "ENT");
+        clock = new TestClock();
+        scheduler = new DepartmentScheduler(departments, 60, Duration.ofMinutes(30), Duration.ofMinutes(15),
+                Duration.ofMinutes(5), clock);
+    }
+
+    private Patient join(String token, int age, Priority priority) {
+        Patient p = new Patient("P-" + token, age, token);
+        p.setPriority(priority);
+        scheduler.enqueue(p);
+        return p;
+    }
+
+    @Test
+    void resolvesDepartmentsFromCodesAndDoctorNames() {
+        assertEquals("CAR", scheduler.resolve("Dr. Vijay Pathak (Cardiologist)"));
+        assertEquals("CAR", scheduler.resolve("car"));
+        assertEquals("ENT", scheduler.resolve("Dr. Pawan Singhal (ENT Surgeon)"));
+        assertEquals("HOS", scheduler.resolve("Dr. Meena (Dermatologist)"));
+        assertEquals("HOS", scheduler.resolve(null));
+        assertEquals("CAR", scheduler.departmentOf("CAR012"));
+        assertEquals("CAR", scheduler.departmentOf("CAR-N1.T3KX9A-001"));
+        assertEquals("HOS", scheduler.departmentOf("XYZ7"));
+    }
+
+    @Test
+    void callsByPriorityWithinEachDepartment() {
+        join("CAR001", 30, null);
+        clock.millis += MINUTE;
+        Patient elderly = join("CAR002", 72, null);
+        clock.millis += MINUTE;
+        join("CAR003", 30, Priority.APPOINTMENT);
+        clock.millis += MINUTE;
+        join("CAR004", 30, Priority.EMERGENCY);
+        join("HOS001", 30, Priority.EMERGENCY);
+
+        assertEquals(Priority.ELDERLY, elderly.getPriority());
+        assertEquals("CAR", elderly.getDepartment());
+        assertEquals(0, scheduler.position("CAR004"));
+        assertEquals(1, scheduler.position("CAR003"));
+        assertEquals(2, scheduler.position("CAR002"));
+        assertEquals(3, scheduler.position("CAR001"));
+        assertEquals(0, scheduler.position("HOS001"));
+        assertEquals(List.of("CAR004", "CAR003", "CAR002", "CAR001"),
+                scheduler.snapshot("CAR").stream().map(Patient::getToken).toList());
+
+        assertEquals("CAR004", scheduler.poll("CAR").getToken());
+        assertEquals("CAR003", scheduler.poll("CAR").getToken());
+        assertEquals("CAR002", scheduler.remove("CAR002").getToken());
+        assertEquals(0, scheduler.position("CAR001"));
+        assertEquals("CAR001", scheduler.poll("CAR").getToken());
+        assertNull(scheduler.poll("CAR"));
+        assertEquals(1, scheduler.size());
+        assertEquals("HOS001", scheduler.poll().getToken());
+    }
+
+    @Test
+    void headStartOnlyOvertakesRecentArrivals() {
+        join("HOS001", 30, null);
+        clock.millis += 10 * MINUTE;
+        join("HOS002", 70, null);   // 15 min head start: ahead of HOS001
+        clock.millis += 10 * MINUTE;
+        join("HOS003", 70, null);   // arrived 20 min after HOS001: behind it
+
+        assertEquals(List.of("HOS002", "HOS001", "HOS003"),
+                scheduler.snapshot().stream().map(Patient::getToken).toList());
+        assertEquals(2, scheduler.position("HOS003"));
+        assertEquals("HOS002", scheduler.poll().getToken());
+        assertEquals("HOS001", scheduler.poll().getToken());
+        assertEquals("HOS003", scheduler.poll().getToken());
+    }
+
+    @Test
+    void waitEstimateFollowsTheCallRate() {
+        for (int i = 1; i <= 30; i++) {
+            join(String.format("ENT%03d", i), 30, null);
+        }
+        assertEquals(10 * 5 * MINUTE, scheduler.estimatedWaitMillis("ENT011"));
+
+        // A doctor calling every two minutes
+        for (int i = 0; i < 15; i++) {
+            scheduler.poll("ENT");
+            clock.millis += 2 * MINUTE;
+        }
+        long service = scheduler.estimatedWaitMillis("ENT017") - scheduler.estimatedWaitMillis("ENT016");
+        assertTrue(service > 2 * MINUTE && service < 2 * MINUTE + 15_000, "service interval " + service);
+        assertEquals(-1, scheduler.estimatedWaitMillis("ENT001"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class QueueEngineTest {
+
+    @Test
+    void positionsFollowArrivalOrderAcrossRemovals() {
+        QueueEngine queue = new QueueEngine();
+        for (int i = 1; i <= 5; i++) {
+            queue.enqueue(new Patient("P" + i, 30, "HOS00" + i));
+        }
+        assertEquals(0, queue.position("HOS001"));
+        assertEquals(4, queue.position("HOS005"));
+
+        queue.remove("HOS003");
+        assertEquals(3, queue.position("HOS005"));
+        assertEquals("HOS001", queue.poll().getToken());
+        assertEquals(2, queue.position("HOS005"));
+        assertEquals("HOS002", queue.poll().getToken());
+        assertEquals("HOS004", queue.poll().getToken());
+        assertEquals(0, queue.position("HOS005"));
+        assertEquals(-1, queue.position("HOS003"));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void concurrentProducersAndConsumersNeitherLoseNorDuplicatePatients() throws Exception {
+        QueueEngine queue = new QueueEngine();
+        int producers = 4;
+        int perProducer = 50_000;
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger produced = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(producers * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    String token = "T" + id + "-" + i;
+                    queue.enqueue(new Patient("x", 40, token));
+                    produced.incrementAndGet();
+                    if (i % 10 == 0 && queue.remove(token) != null && !taken.add(token)) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        int total = producers * perProducer;
+        for (int c = 0; c < producers; c++) {
+            futures.add(pool.submit(() -> {
+                while (taken.size() < total) {
+                    Patient p = queue.poll();
+                    if (p != null && !taken.add(p.getToken())) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(0, duplicates.get());
+        assertEquals(total, taken.size());
+        assertEquals(0, queue.size());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void positionsAreExactAfterConcurrentEnqueuesAndDuplicates() throws Exception {
+        QueueEngine queue = new QueueEngine();
+        int producers = 8;
+        int perProducer = 2_000;
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            futures.add(pool.submit(() -> {
+                go.await();
+                for (int i = 0; i < perProducer; i++) {
+                    // Clocks read slightly out of order, and every other token sent twice
+                    long arrivedAt = 1_000_000 + i * 10L + ThreadLocalRandom.current().nextInt(50);
+                    String token = "T" + id + "-" + i;
+                    queue.enqueue(new Patient("x", 40, token), arrivedAt);
+                    if (i % 2 == 0) {
+                        queue.enqueue(new Patient("y", 40, token), arrivedAt);
+                    }
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        for (int i = 0; i < 100; i++) {
+            queue.poll();
+        }
+        List<Patient> waiting = queue.snapshot();
+        for (int i = 0; i < waiting.size(); i += 7) {
+            queue.remove(waiting.get(i).getToken());
+        }
+        waiting = queue.snapshot();
+        assertEquals(waiting.size(), queue.size());
+        for (int i = 0; i < waiting.size(); i++) {
+            assertEquals(i, queue.position(waiting.get(i).getToken()), waiting.get(i).getToken());
+        }
+
+        List<Long> arrivals = new ArrayList<>();
+        queue.forEachWaiting((p, arrivedAt) -> arrivals.add(arrivedAt));
+        for (int i = 1; i < arrivals.size(); i++) {
+            assertTrue(arrivals.get(i - 1) <= arrivals.get(i), "arrivals out of queue order at " + i);
+        }
+        long cutoff = arrivals.get(arrivals.size() / 2);
+        assertEquals(arrivals.stream().filter(t -> t < cutoff).count(), queue.countArrivedBefore(cutoff));
+    }
+}
@@ -0,0 +1,132 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.Journal;
+
+// A single node, without a shared log, on a clock the test moves
+class QueueManagerTest {
+
+    private static final ZoneId KOLKATA = ZoneId.of("Asia/Kolkata");
+
+    private static final class TestClock extends Clock {
+        volatile long millis;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return KOLKATA;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    // Each change as "OP token day"
+    private final List<String> writes = new CopyOnWriteArrayList<>();
+    private final PatientWriter recording = new PatientWriter() {
+        @Override
+        public void insert(Patient p) {
+            writes.add("INSERT " + p.getToken() + " " + p.getVisitDay());
+        }
+
+        @Override
+        public void delete(String token, LocalDate day) {
+            writes.add("DELETE " + token + " " + day);
+        }
+
+        @Override
+        public void called(String token, LocalDate day) {
+            writes.add("CALLED " + token + " " + day);
+        }
+
+        @Override
+        public List<Journal.Record> pending() {
+            return List.of();
+        }
+
+        @Override
+        public Map<String, Object> stats() {
+            return Map.of();
+        }
+    };
+
+    private final PatientRepository noRows = new PatientRepository() {
+        @Override
+        public List<Patient> loadWaiting() {
+            return List.of();
+        }
+
+        @Override
+        public List<PatientRow> listPatients(long afterId, int limit) {
+            return List.of();
+        }
+
+        @Override
+        public void forEachPatient(long afterId, RowHandler handler) {
+        }
+    };
+
+    private TestClock clock;
+    private QueueManager manager;
+
+    @BeforeEach
+    void setUp() {
+        clock = new TestClock();
+        // 23:30 on 1 March in Kolkata
+        clock.millis = Instant.parse("2024-03-01T18:00:00Z").toEpochMilli();
+        DepartmentScheduler scheduler = new DepartmentScheduler(Map.of("HOS", "General"), 60, Duration.ofMinutes(30),
+                Duration.ofMinutes(15), Duration.ofMinutes(5), clock);
+        TokenAllocator tokens = new TokenAllocator(new TokenAllocatorTest.SharedBlockSource(), 5, true, clock);
+        manager = new QueueManager(noRows, tokens, recording, scheduler, clock);
+        manager.loadWaiting();
+    }
+
+    @Test
+    void firstChangeAfterMidnightStartsTheNewDay() {
+        Patient first = manager.addPatient("First", 30);
+        Patient second = manager.addPatient("Second", 31);
+        assertEquals("HOS001", first.getToken());
+        assertEquals("HOS002", second.getToken());
+        manager.callNext();
+
+        // 00:30 on 2 March: tokens start again at HOS001 while Second is still waiting
+        clock.millis += Duration.ofHours(1).toMillis();
+        Patient next = manager.addPatient("Next", 40);
+        assertEquals("HOS001", next.getToken());
+        assertEquals("Next", next.getName());
+        assertEquals(List.of("Next"), manager.waitingPatients().stream().map(Patient::getName).toList());
+        assertEquals(Instant.parse("2024-03-01T18:30:00Z").toEpochMilli(), manager.dayStart());
+
+        manager.callNext();
+        assertEquals(List.of(
+                "INSERT HOS001 2024-03-01",
+                "INSERT HOS002 2024-03-01",
+                "CALLED HOS001 2024-03-01",
+                "INSERT HOS001 2024-03-02",
+                "CALLED HOS001 2024-03-02"), writes);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TokenAllocatorTest {
+
+    // Stand-in for token_sequences: one counter per sequence, shared by all "nodes"
+    static class SharedBlockSource implements TokenAllocator.BlockSource {
+        private final Map<String, Long> next = new HashMap<>();
+        volatile boolean down;
+
+        @Override
+        public synchronized long reserve(String sequence, int size, long floor) throws SQLException {
+            if (down) {
+                throw new SQLException("db down");
+            }
+            long start = Math.max(next.getOrDefault(sequence, 1L), floor);
+            next.put(sequence, start + size);
+            return start;
+        }
+    }
+
+    @Test
+    void tokensStayUniqueAcrossThreadsAndNodes() throws Exception {
+        SharedBlockSource source = new SharedBlockSource();
+        int nodes = 4;
+        int threadsPerNode = 8;
+        int perThread = 10_000;
+        List<TokenAllocator> allocators = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            allocators.add(new TokenAllocator(source, 50, false));
+        }
+
+        Set<String> issued = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(nodes * threadsPerNode);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (TokenAllocator allocator : allocators) {
+            for (int t = 0; t < threadsPerNode; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        issued.add(allocator.next("HOS"));
+                    }
+                    return null;
+                }));
+            }
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(nodes * threadsPerNode * perThread, issued.size(), "duplicate tokens were issued");
+    }
+
+    @Test
+    void blocksIssuedWhileDbIsDownAreNotReissued() {
+        SharedBlockSource source = new SharedBlockSource();
+        TokenAllocator allocator = new TokenAllocator(source, 5, false);
+
+        assertEquals("HOS001", allocator.next("HOS"));
+        source.down = true;
+        Set<String> issued = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 12; i++) {
+            issued.add(allocator.next("HOS"));
+        }
+        source.down = false;
+        for (int i = 0; i < 12; i++) {
+            assertTrue(issued.add(allocator.next("HOS")));
+        }
+    }
+
+    @Test
+    void offlineTokensStayUniqueAcrossRestartsAndNodes() {
+        SharedBlockSource source = new SharedBlockSource();
+        Clock boot = Clock.fixed(Instant.parse("2026-01-01T09:00:00Z"), ZoneOffset.UTC);
+        Clock reboot = Clock.fixed(Instant.parse("2026-01-01T09:05:00Z"), ZoneOffset.UTC);
+        TokenAllocator node1 = new TokenAllocator(source, 5, false, boot, TokenAllocator.offlineNamespace("n1", boot));
+        Set<String> issued = ConcurrentHashMap.newKeySet();
+        issued.add(node1.next("HOS"));
+
+        // DB goes down; node 1 restarts during the outage and node 2 starts next to it
+        source.down = true;
+        for (int i = 0; i < 12; i++) {
+            assertTrue(issued.add(node1.next("HOS")));
+        }
+        TokenAllocator restarted = new TokenAllocator(source, 5, false, reboot,
+                TokenAllocator.offlineNamespace("n1", reboot));
+        TokenAllocator node2 = new TokenAllocator(source, 5, false, boot, TokenAllocator.offlineNamespace("n2", boot));
+        for (int i = 0; i < 12; i++) {
+            assertTrue(issued.add(restarted.next("HOS")));
+            assertTrue(issued.add(node2.next("HOS")));
+        }
+        assertTrue(issued.contains("HOS-N1." + Long.toString(boot.millis() / 1000, 36).toUpperCase() + "-001"));
+
+        // Back online, numbering continues from the shared sequence
+        source.down = false;
+        for (int i = 0; i < 12; i++) {
+            assertTrue(issued.add(restarted.next("HOS")));
+            assertTrue(issued.add(node2.next("HOS")));
+        }
+        assertTrue(issued.contains("HOS006"));
+    }
+
+    @Test
+    void sequencesAreSeparatePerPrefixAndDay() {
+        SharedBlockSource source = new SharedBlockSource();
+        Clock day1 = Clock.fixed(Instant.parse("2026-01-01T09:00:00Z"), ZoneOffset.UTC);
+        Clock day2 = Clock.fixed(Instant.parse("2026-01-02T09:00:00Z"), ZoneOffset.UTC);
+
+        TokenAllocator monday = new TokenAllocator(source, 10, true, day1);
+        assertEquals("HOS001", monday.next("HOS"));
+        assertEquals("HOS002", monday.next("HOS"));
+        assertEquals("CAR001", monday.next("CAR"));
+
+        TokenAllocator tuesday = new TokenAllocator(source, 10, true, day2);
+        assertEquals("HOS001", tuesday.next("HOS"));
+        assertEquals("HOS1000", TokenAllocator.format("HOS", 1000));
+    }
+}
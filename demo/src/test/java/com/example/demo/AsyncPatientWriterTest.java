@@ -0,0 +1,137 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.Patient;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AsyncPatientWriterTest {
+
+    // One character more than patients.name takes
+    private static final String TOO_LONG = "x".repeat(256);
+
+    @TempDir
+    Path dir;
+
+    private DBConnection db;
+
+    @BeforeEach
+    void setUp() {
+        db = TestDatabases.h2("async");
+    }
+
+    private List<String> rows() throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT token, status FROM patients ORDER BY id")) {
+            while (rs.next()) {
+                rows.add(rs.getString(1) + ":" + rs.getString(2));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    void rejectedRowIsQuarantinedWithoutStartingAnOutage() throws Exception {
+        Path file = dir.resolve("queue.journal");
+        try (Journal journal = new Journal(file, 64 * 1024)) {
+            AsyncPatientWriter writer = new AsyncPatientWriter(db, journal, 50, new SimpleMeterRegistry());
+            writer.insert(new Patient(TOO_LONG, 30, "HOS001"));
+            writer.insert(new Patient("Asha", 30, "HOS002"));
+            writer.close();
+
+            assertEquals(false, writer.stats().get("outage"));
+            assertEquals(1L, writer.stats().get("quarantined"));
+            assertEquals(0L, journal.pendingCount());
+        }
+        assertEquals(List.of("HOS002:WAITING"), rows());
+        List<String> quarantined = Files.readAllLines(dir.resolve("queue.journal.quarantine"), StandardCharsets.UTF_8);
+        assertEquals(1, quarantined.size());
+        assertEquals("HOS001", quarantined.get(0).split("\t")[3]);
+    }
+
+    @Test
+    void replayQuarantinesRecordsTheDatabaseRejects() throws Exception {
+        Path file = dir.resolve("queue.journal");
+        try (Journal journal = new Journal(file, 64 * 1024)) {
+            // Left over from an outage
+            journal.appendAdd(new Patient(TOO_LONG, 30, "HOS001"), LocalDate.now());
+            journal.appendAdd(new Patient("Asha", 30, "HOS002"), LocalDate.now());
+            journal.appendCalled("HOS002", LocalDate.now());
+            journal.appendAdd(new Patient("Ravi", 41, "HOS003"), LocalDate.now());
+
+            AsyncPatientWriter writer = new AsyncPatientWriter(db, journal, 50, new SimpleMeterRegistry());
+            for (int i = 0; i < 100 && journal.pendingCount() > 0; i++) {
+                Thread.sleep(20);
+            }
+            writer.close();
+
+            assertEquals(0L, journal.pendingCount());
+            assertEquals(false, writer.stats().get("outage"));
+            assertEquals(1L, journal.quarantinedCount());
+        }
+        assertEquals(List.of("HOS002:CALLED", "HOS003:WAITING"), rows());
+    }
+
+    @Test
+    void replayKeepsTheDayTheChangeWasMadeOn() throws Exception {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        Path file = dir.resolve("queue.journal");
+        try (Journal journal = new Journal(file, 64 * 1024)) {
+            // Journaled before midnight, replayed after
+            journal.appendAdd(new Patient("Asha", 30, "HOS001"), yesterday);
+            journal.appendCalled("HOS001", yesterday);
+            journal.appendAdd(new Patient("Ravi", 41, "HOS002"), yesterday);
+
+            AsyncPatientWriter writer = new AsyncPatientWriter(db, journal, 50, new SimpleMeterRegistry());
+            for (int i = 0; i < 100 && journal.pendingCount() > 0; i++) {
+                Thread.sleep(20);
+            }
+            writer.close();
+            assertEquals(0L, journal.pendingCount());
+        }
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT DISTINCT visit_date FROM patients")) {
+            rs.next();
+            assertEquals(yesterday, rs.getObject(1, LocalDate.class));
+        }
+        assertEquals(List.of("HOS001:CALLED", "HOS002:WAITING"), rows());
+    }
+
+    @Test
+    void rowsAreStampedWithTheServiceDayNotTheDatabaseDate() throws Exception {
+        // 00:30 on 2 March in Kolkata, still 1 March in UTC
+        Clock clock = Clock.fixed(Instant.parse("2024-03-01T19:00:00Z"), ZoneId.of("Asia/Kolkata"));
+        try (Journal journal = new Journal(dir.resolve("queue.journal"), 64 * 1024)) {
+            AsyncPatientWriter writer = new AsyncPatientWriter(db, journal, 50, clock, new SimpleMeterRegistry());
+            writer.insert(new Patient("Asha", 30, "HOS001"));
+            writer.close();
+        }
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT visit_date FROM patients")) {
+            rs.next();
+            assertEquals(LocalDate.of(2024, 3, 2), rs.getObject(1, LocalDate.class));
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.DepartmentScheduler;
+import com.example.Patient;
+import com.example.PatientWriter;
+import com.example.QueueManager;
+import com.example.TokenAllocator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Several nodes in one JVM, each with its own QueueManager, sharing an
+// in-memory H2 database the way real nodes share MySQL
+class ClusterQueueLogTest {
+
+    private static final PatientWriter NO_WRITES = new PatientWriter() {
+        @Override
+        public void insert(Patient p) {
+        }
+
+        @Override
+        public void delete(String token, LocalDate day) {
+        }
+
+        @Override
+        public void called(String token, LocalDate day) {
+        }
+
+        @Override
+        public List<Journal.Record> pending() {
+            return List.of();
+        }
+
+        @Override
+        public Map<String, Object> stats() {
+            return Map.of();
+        }
+    };
+
+    private DBConnection db;
+    private final List<ClusterQueueLog> logs = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        db = TestDatabases.h2("cluster");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (ClusterQueueLog log : logs) {
+            log.close();
+        }
+    }
+
+    private QueueManager node(String id) throws Exception {
+        return node(id, Clock.systemDefaultZone(), NO_WRITES);
+    }
+
+    private QueueManager node(String id, Clock clock) throws Exception {
+        return node(id, clock, NO_WRITES);
+    }
+
+    private QueueManager node(String id, Clock clock, PatientWriter writer) throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Map<String, String> departments = new LinkedHashMap<>();
+        departments.put("HOS", "General");
+        departments.put("CAR", "Cardiologist");
+        DepartmentScheduler scheduler = new DepartmentScheduler(departments, 60, Duration.ofMinutes(30),
+                Duration.ofMinutes(15), Duration.ofMinutes(5), Clock.systemUTC());
+        TokenAllocator tokens = new TokenAllocator(new JdbcTokenBlockSource(db, registry), 5, false);
+        QueueManager manager = new QueueManager(new JdbcPatientRepository(db), tokens, writer, scheduler);
+        ClusterQueueLog log = new ClusterQueueLog(db, manager, "test", id, 10, clock, registry);
+        log.start();
+        logs.add(log);
+        return manager;
+    }
+
+    // Until every running node has applied the same last entry
+    private void awaitConverged() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Set<Object> seqs = ConcurrentHashMap.newKeySet();
+            for (ClusterQueueLog log : logs) {
+                seqs.add(log.stats().get("appliedSeq"));
+            }
+            if (seqs.size() == 1) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Nodes did not converge");
+    }
+
+    private static List<String> tokens(List<Patient> patients) {
+        return patients.stream().map(Patient::getToken).toList();
+    }
+
+    @Test
+    void nodesHoldTheSameQueueAndNeverCallAPatientTwice() throws Exception {
+        QueueManager a = node("a");
+        QueueManager b = node("b");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> adds = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                QueueManager target = t % 2 == 0 ? a : b;
+                int thread = t;
+                adds.add(pool.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        target.addPatient("P" + thread + "-" + i, 20 + i * 2, "kiosk-" + thread,
+                                i % 3 == 0 ? "CAR" : null, null);
+                    }
+                }));
+            }
+            for (Future<?> f : adds) {
+                f.get();
+            }
+            awaitConverged();
+            assertEquals(200, a.waitingCount());
+            assertEquals(tokens(a.waitingPatients()), tokens(b.waitingPatients()));
+
+            Set<String> called = ConcurrentHashMap.newKeySet();
+            List<Future<Integer>> calls = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                QueueManager target = t % 2 == 0 ? a : b;
+                calls.add(pool.submit(() -> {
+                    int n = 0;
+                    Patient next;
+                    while ((next = target.callNext()) != null) {
+                        assertTrue(called.add(next.getToken()), "called twice: " + next.getToken());
+                        n++;
+                    }
+                    return n;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> f : calls) {
+                total += f.get();
+            }
+            assertEquals(200, total);
+            awaitConverged();
+            assertEquals(0, a.waitingCount());
+            assertEquals(0, b.waitingCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void anotherNodeTakesOverWhenOneStops() throws Exception {
+        QueueManager a = node("a");
+        QueueManager b = node("b");
+        Patient first = a.addPatient("First", 30, "kiosk-1", "CAR", null);
+        Patient second = a.addPatient("Second", 30, "kiosk-1", "CAR", null);
+        b.addPatient("Third", 70, "kiosk-2", null, null);
+        awaitConverged();
+
+        logs.remove(0).close();   // node a goes away
+        assertEquals(first.getToken(), b.callNext("CAR").getToken());
+
+        // A node started later rebuilds the same queue, undo history included
+        QueueManager c = node("c");
+        awaitConverged();
+        assertEquals(tokens(b.waitingPatients()), tokens(c.waitingPatients()));
+        assertEquals(second.getToken(), c.undoLastEntry("kiosk-1").getToken());
+        awaitConverged();
+        assertEquals(List.of("HOS"), b.waitingPatients().stream().map(Patient::getDepartment).toList());
+        assertEquals(0, b.positionOf(b.waitingPatients().get(0).getToken()));
+    }
+
+    private void logEntry(long seq, String op, String token, long atMs) throws Exception {
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(ClusterQueueLog.APPEND)) {
+            stmt.setString(1, "test");
+            stmt.setLong(2, seq);
+            stmt.setString(3, op);
+            stmt.setString(4, token);
+            stmt.setString(5, token == null ? null : "HOS");
+            stmt.setString(6, token == null ? null : "Old " + token);
+            stmt.setInt(7, 30);
+            stmt.setString(8, null);
+            stmt.setString(9, token == null ? null : "kiosk-1");
+            stmt.setString(10, "gone");
+            stmt.setLong(11, atMs);
+            stmt.executeUpdate();
+        }
+    }
+
+    private List<Long> logSeqs() throws Exception {
+        List<Long> seqs = new ArrayList<>();
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT seq FROM queue_log ORDER BY seq")) {
+            while (rs.next()) {
+                seqs.add(rs.getLong(1));
+            }
+        }
+        return seqs;
+    }
+
+    @Test
+    void newDayDropsEarlierPatientsAndTrimsTheLog() throws Exception {
+        long today = LocalDate.now(ZoneOffset.UTC).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long day = Duration.ofDays(1).toMillis();
+        long hour = Duration.ofHours(1).toMillis();
+        // Two days left behind by nodes that are gone
+        logEntry(1, "NEW_DAY", null, today - 2 * day);
+        logEntry(2, "ADD", "HOS-901", today - 2 * day + hour);
+        logEntry(3, "NEW_DAY", null, today - day);
+        logEntry(4, "ADD", "HOS-902", today - day + hour);
+
+        QueueManager a = node("a", Clock.systemUTC());
+        assertEquals(0, a.waitingCount());
+        // Today's marker went in as 5; everything before yesterday's marker is gone
+        assertEquals(List.of(3L, 4L, 5L), logSeqs());
+
+        Patient today1 = a.addPatient("Today", 30, "kiosk-1", null, null);
+        QueueManager b = node("b", Clock.systemUTC());
+        awaitConverged();
+        assertEquals(List.of(today1.getToken()), tokens(b.waitingPatients()));
+        assertEquals(List.of(3L, 4L, 5L, 6L), logSeqs());
+    }
+
+    @Test
+    void rowIsOnlyWrittenOnceTheLogHasTheChange() throws Exception {
+        List<String> inserted = new ArrayList<>();
+        PatientWriter recording = new PatientWriter() {
+            @Override
+            public void insert(Patient p) {
+                inserted.add(p.getToken());
+            }
+
+            @Override
+            public void delete(String token, LocalDate day) {
+            }
+
+            @Override
+            public void called(String token, LocalDate day) {
+            }
+
+            @Override
+            public List<Journal.Record> pending() {
+                return List.of();
+            }
+
+            @Override
+            public Map<String, Object> stats() {
+                return Map.of();
+            }
+        };
+        QueueManager a = node("a", Clock.systemDefaultZone(), recording);
+        Patient first = a.addPatient("First", 30, "kiosk-1", null, null);
+        assertEquals(List.of(first.getToken()), inserted);
+
+        try (Connection conn = db.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DROP TABLE queue_log");
+        }
+        assertThrows(RejectedExecutionException.class, () -> a.addPatient("Second", 30, "kiosk-1", null, null));
+        assertEquals(List.of(first.getToken()), inserted);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.Patient;
+
+class IdentityServiceTest {
+
+    private static final long KNOWN = 200000000001L;
+    private static final long UNKNOWN = 200000000002L;
+
+    // Knows KNOWN and counts every call per number
+    private final Map<Long, Integer> calls = new HashMap<>();
+    private final Patient resolved = new Patient("Kavya Rao", 27, "PENDING");
+    private final IdentityResolver stub = aadhaar -> {
+        calls.merge(aadhaar, 1, Integer::sum);
+        return aadhaar == UNKNOWN ? null : resolved;
+    };
+
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        now = 1_000_000_000L;
+    }
+
+    private IdentityService service(int maxEntries) {
+        // 600 s for people found, 60 s for numbers the resolver does not know
+        return new IdentityService(stub, maxEntries, 600, 60, () -> now);
+    }
+
+    private void advanceSeconds(long seconds) {
+        now += TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    @Test
+    void normalizeKeepsOnlyTwelveDigits() {
+        assertEquals(123456789012L, IdentityService.normalize("1234 5678 9012"));
+        assertEquals(123456789012L, IdentityService.normalize("1234-5678-9012"));
+        assertEquals(12345678901L, IdentityService.normalize("0123 4567 8901"));
+        assertEquals(IdentityService.INVALID, IdentityService.normalize("1234 5678 9012 3"));
+        assertEquals(IdentityService.INVALID, IdentityService.normalize("1234 5678 901"));
+        assertEquals(IdentityService.INVALID, IdentityService.normalize(""));
+        assertEquals(IdentityService.INVALID, IdentityService.normalize(null));
+    }
+
+    @Test
+    void unknownNumbersExpireBeforeKnownOnes() {
+        IdentityService identity = service(100);
+        assertSame(resolved, identity.lookup(Long.toString(KNOWN)));
+        assertNull(identity.lookup(Long.toString(UNKNOWN)));
+
+        // Both served from the cache inside the negative TTL
+        advanceSeconds(59);
+        assertSame(resolved, identity.lookup(Long.toString(KNOWN)));
+        assertNull(identity.lookup(Long.toString(UNKNOWN)));
+        assertEquals(1, calls.get(KNOWN));
+        assertEquals(1, calls.get(UNKNOWN));
+
+        // Past it only the unknown number goes back to the resolver
+        advanceSeconds(2);
+        identity.lookup(Long.toString(KNOWN));
+        identity.lookup(Long.toString(UNKNOWN));
+        assertEquals(1, calls.get(KNOWN));
+        assertEquals(2, calls.get(UNKNOWN));
+
+        // And past the positive TTL the known one does too
+        advanceSeconds(600);
+        identity.lookup(Long.toString(KNOWN));
+        assertEquals(2, calls.get(KNOWN));
+        assertEquals(1L, identity.stats().get("negativeHits"));
+    }
+
+    @Test
+    void leastRecentlyUsedNumberIsEvicted() {
+        IdentityService identity = service(2);
+        identity.lookup("200000000011");
+        identity.lookup("200000000012");
+        // Touch the first so the second is now the eldest
+        identity.lookup("200000000011");
+        identity.lookup("200000000013");
+        assertEquals(2, identity.stats().get("cacheSize"));
+
+        identity.lookup("200000000011");
+        identity.lookup("200000000012");
+        assertEquals(1, calls.get(200000000011L));
+        assertEquals(2, calls.get(200000000012L));
+    }
+
+    @Test
+    void demoNumbersNeverReachTheResolver() {
+        IdentityService identity = service(2);
+        assertEquals("Rahul Kumar", identity.lookup("1234 5678 9012").getName());
+        assertEquals(Map.of(), calls);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.DepartmentScheduler;
+import com.example.Patient;
+import com.example.PatientRow;
+import com.example.PatientWriter;
+import com.example.QueueManager;
+import com.example.TokenAllocator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Runs against H2 in MySQL mode, the engine behind kiosk.persistence=embedded
+class JdbcPatientRepositoryTest {
+
+    // The stored rows registered an hour before the test
+    private static final long ARRIVED = System.currentTimeMillis() - Duration.ofHours(1).toMillis();
+
+    private DBConnection db;
+    private JdbcPatientRepository repository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = TestDatabases.h2("repo");
+        repository = new JdbcPatientRepository(db);
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PatientStatements.INSERT)) {
+            for (int i = 1; i <= 5; i++) {
+                stmt.setString(1, "P" + i);
+                stmt.setInt(2, 20 + i);
+                stmt.setString(3, "HOS00" + i);
+                stmt.setObject(4, LocalDate.now());
+                stmt.setLong(5, ARRIVED + i);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Test
+    void schemaBootstrapsOnEmbeddedDatabase() {
+        assertEquals(SqlDialect.H2, db.dialect());
+        assertEquals(true, db.poolStats().get("schemaReady"));
+    }
+
+    @Test
+    void readsRowsInIdOrder() throws Exception {
+        List<Patient> all = repository.loadWaiting();
+        assertEquals(5, all.size());
+        assertEquals("HOS001", all.get(0).getToken());
+
+        List<PatientRow> page = repository.listPatients(0, 2);
+        assertEquals(List.of("HOS001", "HOS002"), page.stream().map(PatientRow::token).toList());
+        List<PatientRow> next = repository.listPatients(page.get(1).id(), 10);
+        assertEquals(3, next.size());
+
+        List<String> streamed = new ArrayList<>();
+        repository.forEachPatient(next.get(0).id(), row -> streamed.add(row.token()));
+        assertEquals(List.of("HOS004", "HOS005"), streamed);
+    }
+
+    @Test
+    void reloadedPatientsKeepTheirRegistrationTime() throws Exception {
+        List<Patient> all = repository.loadWaiting();
+        assertEquals(ARRIVED + 1, all.get(0).getArrivedAt());
+
+        // An elderly patient's 15 minute head start must not carry them past
+        // patients who have been waiting an hour, restart or not
+        DepartmentScheduler scheduler = new DepartmentScheduler(Map.of("HOS", "General"), 60, Duration.ofMinutes(30),
+                Duration.ofMinutes(15), Duration.ofMinutes(5), Clock.systemUTC());
+        TokenAllocator tokens = new TokenAllocator(new JdbcTokenBlockSource(db, new SimpleMeterRegistry()), 5, false);
+        QueueManager manager = new QueueManager(repository, tokens, new PatientWriter() {
+            @Override
+            public void insert(Patient p) {
+            }
+
+            @Override
+            public void delete(String token, LocalDate day) {
+            }
+
+            @Override
+            public void called(String token, LocalDate day) {
+            }
+
+            @Override
+            public List<Journal.Record> pending() {
+                return List.of();
+            }
+
+            @Override
+            public Map<String, Object> stats() {
+                return Map.of();
+            }
+        }, scheduler);
+        manager.loadWaiting();
+        Patient elderly = manager.addPatient("Elder", 70);
+        assertEquals(5, manager.positionOf(elderly.getToken()));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class JdbcTokenBlockSourceTest {
+
+    @Test
+    void nodesSeedingANewSequenceTogetherGetDisjointBlocks() throws Exception {
+        DBConnection db = TestDatabases.h2("tokens");
+        int nodes = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(nodes);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<Long>> starts = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                JdbcTokenBlockSource source = new JdbcTokenBlockSource(db, new SimpleMeterRegistry());
+                starts.add(pool.submit(() -> {
+                    go.await();
+                    return source.reserve("CAR-20260101", 20, 1);
+                }));
+            }
+            go.countDown();
+            Set<Long> seen = new TreeSet<>();
+            for (Future<Long> f : starts) {
+                assertTrue(seen.add(f.get()));
+            }
+            // One block after another from 1, nobody fell back to offline tokens
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                expected.add(1L + i * 20L);
+            }
+            assertEquals(expected, new ArrayList<>(seen));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void plainSequenceContinuesAfterTokensAlreadyIssued() throws Exception {
+        DBConnection db = TestDatabases.h2("tokens");
+        try (Connection conn = db.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO patients (name, age, token) VALUES ('A', 30, 'HOS007'), ('B', 31, 'HOS012')");
+        }
+        JdbcTokenBlockSource source = new JdbcTokenBlockSource(db, new SimpleMeterRegistry());
+        assertEquals(13, source.reserve("HOS", 20, 1));
+        assertEquals(33, source.reserve("HOS", 20, 1));
+    }
+}
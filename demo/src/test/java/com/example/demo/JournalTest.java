@@ -0,0 +1,129 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.Patient;
+
+class JournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pendingRecordsSurviveReopenAndCompaction() throws Exception {
+        Path file = dir.resolve("queue.journal");
+        try (Journal journal = new Journal(file, 8192)) {
+            for (int i = 1; i <= 50; i++) {
+                journal.appendAdd(new Patient("P" + i, 30, "HOS" + i), LocalDate.now());
+            }
+            journal.checkpoint(40);
+            journal.appendDelete("HOS45", LocalDate.now());
+        }
+
+        try (Journal journal = new Journal(file, 8192)) {
+            List<Journal.Record> pending = journal.pending();
+            assertEquals(11, pending.size());
+            assertEquals("HOS41", pending.get(0).token);
+            assertEquals(Journal.DELETE, pending.get(10).type);
+
+            // Far more than fits in 8 KB: only works if checkpointed records are compacted away
+            journal.checkpoint(pending.get(10).seq);
+            for (int i = 0; i < 500; i++) {
+                journal.checkpoint(journal.appendAdd(new Patient("Q" + i, 40, "Q" + i), LocalDate.now()));
+            }
+            Patient last = new Patient("Last", 50, "LAST");
+            last.setArrivedAt(1_700_000_000_123L);
+            journal.appendAdd(last, LocalDate.now());
+        }
+
+        try (Journal journal = new Journal(file, 8192)) {
+            List<Journal.Record> pending = journal.pending();
+            assertEquals(1, pending.size());
+            assertEquals("Last", pending.get(0).name);
+            assertEquals(LocalDate.now(), pending.get(0).day);
+            assertEquals(1_700_000_000_123L, pending.get(0).toPatient().getArrivedAt());
+        }
+    }
+
+    @Test
+    void tornRecordAtTheEndIsIgnored() throws Exception {
+        Path file = dir.resolve("torn.journal");
+        int end;
+        try (Journal journal = new Journal(file, 4096)) {
+            journal.appendAdd(new Patient("A", 30, "HOS001"), LocalDate.now());
+            journal.appendAdd(new Patient("B", 31, "HOS002"), LocalDate.now());
+            end = journal.usedBytes();
+        }
+        // Corrupt one byte inside the last record
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[] { 0x7f }), Journal.HEADER + end - 3);
+        }
+        try (Journal journal = new Journal(file, 4096)) {
+            assertEquals(1, journal.pending().size());
+            journal.appendAdd(new Patient("C", 32, "HOS003"), LocalDate.now());
+            assertEquals("HOS003", journal.pending().get(1).token);
+        }
+    }
+
+    @Test
+    void crashDuringCompactionLeavesTheLiveRegionIntact() throws Exception {
+        Path file = dir.resolve("compact.journal");
+        try (Journal journal = new Journal(file, 4096)) {
+            for (int i = 1; i <= 10; i++) {
+                journal.appendAdd(new Patient("P" + i, 30, "HOS" + i), LocalDate.now());
+            }
+            journal.checkpoint(5);
+        }
+        // Power cut halfway through copying the tail: the other region holds a
+        // partial copy, the header still names the first one
+        int otherRegion = Journal.HEADER + (4096 - Journal.HEADER) / 2;
+        byte[] partial = new byte[100];
+        Arrays.fill(partial, (byte) 0x55);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(partial), otherRegion);
+        }
+
+        try (Journal journal = new Journal(file, 4096)) {
+            assertEquals(List.of("HOS6", "HOS7", "HOS8", "HOS9", "HOS10"),
+                    journal.pending().stream().map(r -> r.token).toList());
+            // Later compactions write over the leftovers cleanly
+            journal.checkpoint(10);
+            for (int i = 0; i < 300; i++) {
+                journal.checkpoint(journal.appendAdd(new Patient("Q" + i, 40, "Q" + i), LocalDate.now()));
+            }
+            journal.appendAdd(new Patient("Last", 50, "LAST"), LocalDate.now());
+        }
+        try (Journal journal = new Journal(file, 4096)) {
+            assertEquals(List.of("LAST"), journal.pending().stream().map(r -> r.token).toList());
+        }
+    }
+
+    @Test
+    void oversizedFieldsAreCutAndDoNotBreakReopen() throws Exception {
+        Path file = dir.resolve("long.journal");
+        String name = "न".repeat(40_000); // 3 bytes each in UTF-8
+        try (Journal journal = new Journal(file, 64 * 1024)) {
+            journal.appendAdd(new Patient(name, 30, "HOS001"), LocalDate.now());
+            journal.appendAdd(new Patient("B", 31, "HOS002"), LocalDate.now());
+        }
+        try (Journal journal = new Journal(file, 64 * 1024)) {
+            List<Journal.Record> pending = journal.pending();
+            assertEquals(2, pending.size());
+            assertEquals(Journal.MAX_FIELD_BYTES / 3, pending.get(0).name.length());
+            assertTrue(name.startsWith(pending.get(0).name));
+            assertEquals("HOS002", pending.get(1).token);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.Patient;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PatientArchiverTest {
+
+    private JdbcDataSource ds;
+    private DBConnection db;
+    private LocalDate today;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ds = TestDatabases.h2DataSource("archive");
+        db = new DBConnection(ds);
+    }
+
+    private void insertDay(Connection conn, LocalDate day, String prefix, int count, int called) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO patients (name, age, token, visit_date, status) VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < count; i++) {
+                stmt.setString(1, "P" + i);
+                stmt.setInt(2, 30);
+                stmt.setString(3, prefix + i);
+                stmt.setDate(4, Date.valueOf(day));
+                stmt.setString(5, i < called ? "CALLED" : "WAITING");
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static List<String> column(Connection conn, String sql) throws SQLException {
+        List<String> values = new ArrayList<>();
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                values.add(rs.getString(1));
+            }
+        }
+        return values;
+    }
+
+    @Test
+    void movesPastDaysInBatchesAndKeepsToday() throws Exception {
+        db.initSchema();
+        try (Connection conn = db.getConnection()) {
+            today = LocalDate.now();
+            insertDay(conn, today.minusDays(2), "HOS", 5, 5);
+            insertDay(conn, today.minusDays(1), "HOS", 6, 4);
+            try (PreparedStatement stmt = conn.prepareStatement(PatientStatements.INSERT)) {
+                stmt.setString(1, "Today");
+                stmt.setInt(2, 40);
+                stmt.setString(3, "HOS0");   // tokens recur daily with reset-daily
+                stmt.setObject(4, today);
+                stmt.setLong(5, System.currentTimeMillis());
+                stmt.executeUpdate();
+            }
+        }
+        PatientArchiver archiver = new PatientArchiver(db, 4, LocalTime.MIDNIGHT, Clock.systemDefaultZone(),
+                new SimpleMeterRegistry());
+
+        assertEquals(11, archiver.archiveBefore(today));
+        assertEquals(0, archiver.archiveBefore(today));
+        try (Connection conn = db.getConnection()) {
+            assertEquals(List.of("HOS0"), column(conn, "SELECT token FROM patients"));
+            assertEquals(List.of("CALLED", "MISSED"),
+                    column(conn, "SELECT DISTINCT status FROM patients_history ORDER BY status"));
+            assertEquals(List.of("2"), column(conn, "SELECT COUNT(*) FROM patients_history WHERE status = 'MISSED'"));
+        }
+        assertEquals(11L, archiver.stats().get("archived"));
+        List<Patient> waiting = new JdbcPatientRepository(db).loadWaiting();
+        assertEquals(List.of("Today"), waiting.stream().map(Patient::getName).toList());
+    }
+
+    @Test
+    void upgradesAnOldTableWithoutDroppingTodaysQueue() throws Exception {
+        try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE patients (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255), "
+                    + "age INT, token VARCHAR(50))");
+            stmt.executeUpdate("INSERT INTO patients (name, age, token) VALUES ('Old', 50, 'HOS001')");
+        }
+        db.initSchema();
+
+        assertEquals(List.of("HOS001"),
+                new JdbcPatientRepository(db).loadWaiting().stream().map(Patient::getToken).toList());
+    }
+}
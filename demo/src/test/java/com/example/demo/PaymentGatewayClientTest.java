@@ -0,0 +1,32 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentGatewayClientTest {
+
+    @Test
+    void circuitGaugeReportsDocumentedValues() {
+        assertEquals(0, PaymentGatewayClient.circuitValue(CircuitBreaker.State.CLOSED));
+        assertEquals(1, PaymentGatewayClient.circuitValue(CircuitBreaker.State.HALF_OPEN));
+        assertEquals(2, PaymentGatewayClient.circuitValue(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    void circuitGaugeShowsOpenAfterFailures() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Nothing listens on port 1; one failure opens the circuit
+        PaymentGatewayClient gateway = new PaymentGatewayClient(registry, "http://localhost:1", "", "",
+                1_000, 1_000, 0, 10, 1, 60_000);
+        try {
+            gateway.post("/v1/orders", "{}").join();
+        } catch (CompletionException expected) {
+        }
+        assertEquals(2.0, registry.get("kiosk.gateway.circuit").gauge().value());
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+class PaymentOrderCacheTest {
+
+    private final PaymentOrderCache cache = new PaymentOrderCache(null, false, 100, 30);
+
+    @Test
+    void duplicateTapsShareOneGatewayCall() {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<ResponseEntity<String>> gateway = new CompletableFuture<>();
+
+        CompletableFuture<ResponseEntity<String>> first = cache.getOrCreate("k1", "20000:INR", () -> {
+            calls.incrementAndGet();
+            return gateway;
+        });
+        // Second tap while the first call is still in flight
+        CompletableFuture<ResponseEntity<String>> second = cache.getOrCreate("k1", "20000:INR", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(ResponseEntity.ok("other"));
+        });
+        gateway.complete(ResponseEntity.ok("{\"id\":\"order_1\"}"));
+
+        assertEquals(1, calls.get());
+        assertEquals("{\"id\":\"order_1\"}", first.join().getBody());
+        assertEquals("{\"id\":\"order_1\"}", second.join().getBody());
+        assertEquals("true", second.join().getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(1L, cache.stats().get("joinedInFlight"));
+    }
+
+    @Test
+    void failedAttemptCanBeRetriedAndKeyCannotChangeAmount() {
+        cache.getOrCreate("k2", "20000:INR", () -> CompletableFuture.completedFuture(ResponseEntity.status(502).body("err"))).join();
+        ResponseEntity<String> retry = cache.getOrCreate("k2", "20000:INR",
+                () -> CompletableFuture.completedFuture(ResponseEntity.ok("order_2"))).join();
+        assertEquals("order_2", retry.getBody());
+
+        ResponseEntity<String> reused = cache.getOrCreate("k2", "50000:INR",
+                () -> CompletableFuture.completedFuture(ResponseEntity.ok("order_3"))).join();
+        assertEquals(409, reused.getStatusCode().value());
+        assertEquals(1L, cache.stats().get("conflicts"));
+    }
+}
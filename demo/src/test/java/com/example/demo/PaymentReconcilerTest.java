@@ -0,0 +1,135 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentReconcilerTest {
+
+    private static byte[] webhook(String event, String status) {
+        return webhook("pay_1", event, status);
+    }
+
+    private static byte[] webhook(String paymentId, String event, String status) {
+        return ("{\"event\":\"" + event + "\",\"payload\":{\"payment\":{\"entity\":"
+                + "{\"id\":\"" + paymentId + "\",\"order_id\":\"order_1\",\"status\":\"" + status
+                + "\",\"amount\":20000}}}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void await(PaymentReconciler reconciler, String stat, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while ((long) reconciler.stats().get(stat) < count && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static List<String> query(DBConnection db, String sql) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                rows.add(rs.getString(1));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    void linksPaymentsToRegistrationsOnEmbeddedDatabase() throws Exception {
+        DBConnection db = TestDatabases.h2("reconcile");
+        PaymentReconciler reconciler = new PaymentReconciler(db, new SimpleMeterRegistry(), 100, 1, 10, 100);
+        try {
+            reconciler.submit(webhook("payment.captured", "captured"));
+            reconciler.link("order_1", "HOS007");
+            // A late, out-of-order event must not downgrade the payment
+            reconciler.submit(webhook("payment.authorized", "authorized"));
+
+            await(reconciler, "paymentsWritten", 2);
+        } finally {
+            reconciler.close();
+        }
+
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT status, token FROM payments WHERE payment_id = 'pay_1'")) {
+            rs.next();
+            assertEquals("captured", rs.getString("status"));
+            assertEquals("HOS007", rs.getString("token"));
+        }
+    }
+
+    @Test
+    void eventStoredBeforeARestartIsAppliedOnStartup() throws Exception {
+        DBConnection db = TestDatabases.h2("reconcile");
+        // Acknowledged to the gateway, then the node went down before a worker got to it
+        try (Connection conn = db.getConnection();
+             PreparedStatement insert = conn.prepareStatement("INSERT INTO payment_events (body) VALUES (?)")) {
+            insert.setBytes(1, webhook("payment.captured", "captured"));
+            insert.executeUpdate();
+        }
+        PaymentReconciler reconciler = new PaymentReconciler(db, new SimpleMeterRegistry(), 100, 1, 10, 100);
+        try {
+            await(reconciler, "paymentsWritten", 1);
+        } finally {
+            reconciler.close();
+        }
+
+        assertEquals(1L, reconciler.stats().get("recovered"));
+        assertEquals(List.of("captured"), query(db, "SELECT status FROM payments WHERE payment_id = 'pay_1'"));
+        assertEquals(List.of(), query(db, "SELECT id FROM payment_events"));
+    }
+
+    @Test
+    void rejectedEventIsSetAsideWithoutHoldingUpTheBatch() throws Exception {
+        DBConnection db = TestDatabases.h2("reconcile");
+        PaymentReconciler reconciler = new PaymentReconciler(db, new SimpleMeterRegistry(), 100, 1, 10, 100);
+        try {
+            // payments.status is VARCHAR(32)
+            reconciler.submit(webhook("pay_bad", "payment.captured", "x".repeat(33)));
+            reconciler.submit(webhook("pay_2", "payment.captured", "captured"));
+            await(reconciler, "paymentsWritten", 1);
+        } finally {
+            reconciler.close();
+        }
+
+        assertEquals(1L, reconciler.stats().get("failed"));
+        assertEquals(List.of("pay_2"), query(db, "SELECT payment_id FROM payments"));
+        List<String> setAside = query(db, "SELECT body FROM payment_events WHERE failed_at IS NOT NULL");
+        assertEquals(1, setAside.size());
+    }
+
+    @Test
+    void linkSurvivesAFullQueueAndARestart() throws Exception {
+        DBConnection db = TestDatabases.h2("reconcile");
+        // Paid before registering: the payment is in, waiting for its registration
+        try (Connection conn = db.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO payments (payment_id, order_id, event, status, amount) "
+                    + "VALUES ('pay_1', 'order_1', 'payment.captured', 'captured', 20000)");
+        }
+        // No workers and room for one item: the second link finds the queue full
+        PaymentReconciler stalled = new PaymentReconciler(db, new SimpleMeterRegistry(), 1, 0, 10, 100);
+        stalled.link("order_0", "HOS001");
+        stalled.link("order_1", "HOS007");
+        assertEquals(1L, stalled.stats().get("queueFull"));
+        stalled.close();
+
+        PaymentReconciler restarted = new PaymentReconciler(db, new SimpleMeterRegistry(), 100, 1, 10, 100);
+        try {
+            await(restarted, "reconciled", 1);
+        } finally {
+            restarted.close();
+        }
+        assertEquals(List.of("HOS007"), query(db, "SELECT token FROM payments WHERE payment_id = 'pay_1'"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import com.example.DepartmentScheduler;
+import com.example.Patient;
+import com.example.PatientRow;
+import com.example.PatientWriter;
+import com.example.Priority;
+import com.example.QueueManager;
+import com.example.TokenAllocator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Listing, export and position endpoints, called directly on H2 in MySQL mode
+class QueueControllerTest {
+
+    private static final PatientWriter NO_WRITES = new PatientWriter() {
+        @Override
+        public void insert(Patient p) {
+        }
+
+        @Override
+        public void delete(String token, LocalDate day) {
+        }
+
+        @Override
+        public void called(String token, LocalDate day) {
+        }
+
+        @Override
+        public List<Journal.Record> pending() {
+            return List.of();
+        }
+
+        @Override
+        public Map<String, Object> stats() {
+            return Map.of();
+        }
+    };
+
+    private DBConnection db;
+    private QueueManager manager;
+    private QueueEventBroadcaster events;
+    private QueueController controller;
+
+    @BeforeEach
+    void setUp() {
+        db = TestDatabases.h2("queue");
+        Map<String, String> departments = new LinkedHashMap<>();
+        departments.put("HOS", "General");
+        departments.put("CAR", "Cardiologist");
+        DepartmentScheduler scheduler = new DepartmentScheduler(departments, 60, Duration.ofMinutes(30),
+                Duration.ofMinutes(15), Duration.ofMinutes(5), Clock.systemUTC());
+        TokenAllocator tokens = new TokenAllocator(new JdbcTokenBlockSource(db, new SimpleMeterRegistry()), 20, false);
+        manager = new QueueManager(new JdbcPatientRepository(db), tokens, NO_WRITES, scheduler);
+        events = new QueueEventBroadcaster(16, 0, 60_000);
+        controller = new QueueController(manager, events);
+    }
+
+    @AfterEach
+    void tearDown() {
+        events.close();
+    }
+
+    private void insertRows(int count) throws Exception {
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PatientStatements.INSERT)) {
+            for (int i = 1; i <= count; i++) {
+                stmt.setString(1, "P" + i);
+                stmt.setInt(2, 30);
+                stmt.setString(3, "HOS" + i);
+                stmt.setObject(4, LocalDate.now());
+                stmt.setLong(5, System.currentTimeMillis());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> body(ResponseEntity<?> response) {
+        return (Map<String, Object>) response.getBody();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> tokens(Map<String, Object> page) {
+        return ((List<PatientRow>) page.get("items")).stream().map(PatientRow::token).toList();
+    }
+
+    @Test
+    void pagesFollowNextAfterIdToTheEnd() throws Exception {
+        insertRows(7);
+
+        Map<String, Object> first = body(controller.page(0, 3));
+        assertEquals(List.of("HOS1", "HOS2", "HOS3"), tokens(first));
+        Map<String, Object> second = body(controller.page((long) first.get("nextAfterId"), 3));
+        assertEquals(List.of("HOS4", "HOS5", "HOS6"), tokens(second));
+        Map<String, Object> last = body(controller.page((long) second.get("nextAfterId"), 3));
+        assertEquals(List.of("HOS7"), tokens(last));
+        assertNull(last.get("nextAfterId"));
+
+        // Limits are clamped to 1..500
+        assertEquals(1, tokens(body(controller.page(0, 0))).size());
+        assertEquals(7, tokens(body(controller.page(0, 10_000))).size());
+    }
+
+    @Test
+    void exportStreamsPastOneFetchBatch() throws Exception {
+        int rows = SqlDialect.H2.streamingFetchSize() * 2 + 100;
+        insertRows(rows);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.export(0).getBody().writeTo(out);
+        JsonNode all = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(rows, all.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals("HOS" + (i + 1), all.get(i).get("token").asText());
+        }
+
+        out.reset();
+        long afterId = all.get(rows - 150).get("id").asLong();
+        controller.export(afterId).getBody().writeTo(out);
+        JsonNode tail = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(149, tail.size());
+        assertEquals("HOS" + rows, tail.get(148).get("token").asText());
+    }
+
+    @Test
+    void positionCountsPatientsCalledFirst() {
+        Patient a = manager.addPatient("A", 30, "k1", "HOS", null);
+        Patient b = manager.addPatient("B", 31, "k1", "HOS", null);
+        // Elderly: a 15 minute head start puts them ahead of A and B
+        Patient c = manager.addPatient("C", 70, "k1", "HOS", null);
+        Patient d = manager.addPatient("D", 40, "k1", "CAR", null);
+
+        assertEquals(0, body(controller.position(c.getToken())).get("position"));
+        assertEquals(1, body(controller.position(a.getToken())).get("position"));
+        assertEquals(2, body(controller.position(b.getToken())).get("position"));
+        // Other departments do not count
+        assertEquals(0, body(controller.position(d.getToken())).get("position"));
+
+        Patient e = manager.addPatient("E", 25, "k1", "HOS", Priority.EMERGENCY);
+        assertEquals(0, body(controller.position(e.getToken())).get("position"));
+        assertEquals(3, body(controller.position(b.getToken())).get("position"));
+
+        controller.callNext("HOS");
+        assertEquals(0, body(controller.position(c.getToken())).get("position"));
+        assertEquals(2, body(controller.position(b.getToken())).get("position"));
+
+        ResponseEntity<?> gone = controller.position(e.getToken());
+        assertEquals(404, gone.getStatusCode().value());
+        assertEquals("NOT_WAITING", body(gone).get("status"));
+    }
+}
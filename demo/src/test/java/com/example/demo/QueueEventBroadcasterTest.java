@@ -0,0 +1,131 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.QueueEvent;
+
+class QueueEventBroadcasterTest {
+
+    // Display board that records the tokens it was sent
+    static class RecordingSink implements QueueEventBroadcaster.Sink {
+        final List<String> tokens = new CopyOnWriteArrayList<>();
+        final CountDownLatch done;
+        final CountDownLatch closed = new CountDownLatch(1);
+        final int expected;
+
+        RecordingSink(CountDownLatch done, int expected) {
+            this.done = done;
+            this.expected = expected;
+        }
+
+        @Override
+        public void send(List<QueueEvent> events, boolean resync) {
+            for (QueueEvent e : events) {
+                tokens.add(e.token());
+            }
+            if (tokens.size() == expected) {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    @Test
+    void everyDisplayReceivesEveryEventInOrder() throws Exception {
+        int displays = 20;
+        int events = 30;
+        CountDownLatch done = new CountDownLatch(displays);
+        List<RecordingSink> sinks = new ArrayList<>();
+        List<String> sent = new ArrayList<>();
+        try (QueueEventBroadcaster broadcaster = new QueueEventBroadcaster(256, 5, 15_000)) {
+            for (int i = 0; i < displays; i++) {
+                RecordingSink sink = new RecordingSink(done, events);
+                sinks.add(sink);
+                broadcaster.subscribe(sink);
+            }
+            for (int i = 0; i < events; i++) {
+                sent.add("HOS" + i);
+                broadcaster.onEvent(new QueueEvent(QueueEvent.Type.ADDED, "HOS" + i, "HOS", "P" + i, 30, i + 1,
+                        System.currentTimeMillis()));
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS), "not every display received every event");
+            // Counted once send() returns, which can be just after the last sink saw its events
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (broadcaster.deliveredCount() < (long) displays * events && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, broadcaster.droppedCount());
+            assertEquals((long) displays * events, broadcaster.deliveredCount());
+        }
+        for (RecordingSink sink : sinks) {
+            assertEquals(sent, sink.tokens);
+        }
+    }
+
+    @Test
+    void cancelledDisplayIsDroppedWithoutWaitingForAHeartbeat() throws Exception {
+        try (QueueEventBroadcaster broadcaster = new QueueEventBroadcaster(16, 0, 60_000)) {
+            RecordingSink sink = new RecordingSink(new CountDownLatch(1), 1);
+            QueueEventBroadcaster.Subscription subscription = broadcaster.subscribe(sink);
+            assertEquals(1, broadcaster.subscriberCount());
+            subscription.cancel();
+            assertEquals(0, broadcaster.subscriberCount());
+            assertTrue(sink.closed.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void slowDisplayIsToldToResyncInsteadOfBlockingOthers() throws Exception {
+        CountDownLatch resynced = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueueEventBroadcaster.Sink slow = new QueueEventBroadcaster.Sink() {
+            @Override
+            public void send(List<QueueEvent> events, boolean resync) throws java.io.IOException {
+                if (resync) {
+                    resynced.countDown();
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new java.io.IOException(e);
+                }
+            }
+
+            @Override
+            public void heartbeat() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (QueueEventBroadcaster broadcaster = new QueueEventBroadcaster(4, 0, 15_000)) {
+            broadcaster.subscribe(slow);
+            for (int i = 0; i < 20; i++) {
+                broadcaster.onEvent(new QueueEvent(QueueEvent.Type.ADDED, "HOS" + i, "HOS", "P", 30, i, 0));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            broadcaster.onEvent(new QueueEvent(QueueEvent.Type.CALLED, "HOS0", "HOS", "P", 30, 0, 0));
+            assertTrue(resynced.await(5, TimeUnit.SECONDS));
+            assertTrue(broadcaster.droppedCount() > 0);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.QueueEvent;
+
+class QueueStatisticsTest {
+
+    private static final long MINUTE = 60_000;
+    // 2026-03-02 09:10 in Kolkata
+    private static final long MORNING = Instant.parse("2026-03-02T03:40:00Z").toEpochMilli();
+
+    private static QueueEvent event(QueueEvent.Type type, String token, int age, long at) {
+        return new QueueEvent(type, token, token.substring(0, 3), "P", age, 0, at);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(Map<String, Object> map, String... path) {
+        Object value = map;
+        for (String key : path) {
+            value = ((Map<String, Object>) value).get(key);
+        }
+        return (T) value;
+    }
+
+    @Test
+    void aggregatesWaitsPerLocalHourAgeAndDepartment() {
+        QueueStatistics stats = new QueueStatistics(
+                Clock.fixed(Instant.ofEpochMilli(MORNING + 240 * MINUTE), ZoneId.of("Asia/Kolkata")));
+        // 100 patients a minute apart, each called after (i + 1) minutes
+        for (int i = 0; i < 100; i++) {
+            stats.onEvent(event(QueueEvent.Type.ADDED, (i % 2 == 0 ? "HOS" : "CAR") + i, 5 + i, MORNING + i * MINUTE));
+        }
+        for (int i = 0; i < 100; i++) {
+            stats.onEvent(event(QueueEvent.Type.CALLED, (i % 2 == 0 ? "HOS" : "CAR") + i, 5 + i,
+                    MORNING + i * MINUTE + (i + 1) * MINUTE));
+        }
+        stats.onEvent(event(QueueEvent.Type.ADDED, "HOS500", 40, MORNING + 110 * MINUTE));
+        stats.onEvent(event(QueueEvent.Type.UNDONE, "HOS500", 40, MORNING + 111 * MINUTE));
+
+        Map<String, Object> snapshot = stats.snapshot();
+        assertEquals(100L, snapshot.get("registered"));
+        assertEquals(100L, snapshot.get("called"));
+        assertEquals(1L, snapshot.get("undone"));
+        assertEquals(50.5, (double) get(snapshot, "wait", "avgMinutes"));
+        double p90 = get(snapshot, "wait", "p90Minutes");
+        assertTrue(p90 >= 90 && p90 <= 90 * 1.05, "p90 " + p90);
+        assertEquals(100.0, (double) get(snapshot, "wait", "maxMinutes"));
+
+        // Registrations 09:10-10:49 local time: 50 in the 09:00 hour, 50 in 10:00
+        List<Map<String, Object>> hourly = get(snapshot, "hourly");
+        assertEquals("2026-03-02T09:00", hourly.get(0).get("hour"));
+        assertEquals(50L, hourly.get(0).get("arrivals"));
+        assertEquals(50L, hourly.get(1).get("arrivals"));
+        assertEquals(100L, hourly.stream().mapToLong(h -> (long) h.get("called")).sum());
+
+        assertEquals(5L, (long) get(snapshot, "ages", "0-9"));
+        assertEquals(15L, (long) get(snapshot, "ages", "90+"));
+        assertEquals(50L, (long) get(snapshot, "departments", "CAR", "called"));
+    }
+
+    @Test
+    void patientsLeftWaitingAreForgottenOnANewDay() {
+        QueueStatistics stats = new QueueStatistics(Clock.fixed(Instant.ofEpochMilli(MORNING), ZoneId.of("Asia/Kolkata")));
+        for (int i = 0; i < 1_000; i++) {
+            stats.onEvent(event(QueueEvent.Type.ADDED, "HOS" + i, 30, MORNING + i * MINUTE / 10));
+        }
+        assertEquals(1_000, stats.trackedArrivals());
+        // 23:55 the same day still counts as that day
+        stats.onEvent(event(QueueEvent.Type.ADDED, "CAR1", 30, MORNING + 885 * MINUTE));
+        assertEquals(1_001, stats.trackedArrivals());
+
+        // 00:05 the next day (Kolkata): only the new registration is tracked
+        stats.onEvent(event(QueueEvent.Type.ADDED, "CAR2", 30, MORNING + 895 * MINUTE));
+        assertEquals(1, stats.trackedArrivals());
+        stats.onEvent(event(QueueEvent.Type.CALLED, "HOS0", 30, MORNING + 896 * MINUTE));
+        assertEquals(0L, (long) get(stats.snapshot(), "wait", "samples"));
+    }
+
+    @Test
+    void waitBucketsGrowByFivePercent() {
+        assertEquals(0, QueueStatistics.waitBucket(999));
+        int hour = QueueStatistics.waitBucket(3_600_000);
+        assertTrue(QueueStatistics.waitBucket(3_600_000 * 105 / 100 + 1_000) > hour);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+class SignatureVerifierTest {
+
+    private static final String SECRET = "test_secret";
+
+    private final SignatureVerifier verifier = new SignatureVerifier(SECRET);
+
+    private static byte[] hmac(String payload) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void acceptsHexInEitherCaseAndBase64() throws Exception {
+        byte[] digest = hmac("order_1|pay_1");
+        String hex = HexFormat.of().formatHex(digest);
+
+        assertTrue(verifier.verify("order_1", "pay_1", hex));
+        assertTrue(verifier.verify("order_1", "pay_1", hex.toUpperCase()));
+        assertTrue(verifier.verify("order_1", "pay_1", Base64.getEncoder().encodeToString(digest)));
+        assertTrue(verifier.verify("ordér_1", "pay_1", HexFormat.of().formatHex(hmac("ordér_1|pay_1"))));
+    }
+
+    @Test
+    void rejectsWrongMalformedAndMissingSignatures() throws Exception {
+        String hex = HexFormat.of().formatHex(hmac("order_1|pay_1"));
+        char last = hex.charAt(63);
+        String flipped = hex.substring(0, 63) + (last == '0' ? '1' : '0');
+
+        assertFalse(verifier.verify("order_1", "pay_2", hex));
+        assertFalse(verifier.verify("order_1", "pay_1", flipped));
+        assertFalse(verifier.verify("order_1", "pay_1", hex.substring(0, 62) + "zz"));
+        assertFalse(verifier.verify("order_1", "pay_1", hex.substring(1)));
+        assertFalse(verifier.verify("order_1", "pay_1", null));
+        // A failed check must not leave state behind in the pooled Mac
+        assertTrue(verifier.verify("order_1", "pay_1", hex));
+    }
+
+    @Test
+    void batchAndConcurrentUseAgreeWithReference() throws Exception {
+        byte[][] bodies = new byte[50][];
+        String[] signatures = new String[50];
+        boolean[] expected = new boolean[50];
+        for (int i = 0; i < bodies.length; i++) {
+            String body = "{\"event\":\"payment.captured\",\"n\":" + i + "}";
+            bodies[i] = body.getBytes(StandardCharsets.UTF_8);
+            expected[i] = i % 3 != 0;
+            signatures[i] = HexFormat.of().formatHex(hmac(expected[i] ? body : body + "x"));
+        }
+        assertArrayEquals(expected, verifier.verifyAll(bodies, signatures));
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 2_000; i++) {
+                int n = i % bodies.length;
+                results.add(pool.submit(() -> verifier.verify(bodies[n], signatures[n]) == expected[n]));
+            }
+            for (Future<Boolean> r : results) {
+                assertTrue(r.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
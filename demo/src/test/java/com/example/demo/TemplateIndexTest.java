@@ -0,0 +1,114 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.Patient;
+
+class TemplateIndexTest {
+
+    private static long[] randomCode(SplittableRandom random) {
+        long[] code = new long[TemplateIndex.WORDS];
+        for (int w = 0; w < code.length; w++) {
+            code[w] = random.nextLong();
+        }
+        return code;
+    }
+
+    private static int distance(long[] a, long[] b) {
+        int d = 0;
+        for (int w = 0; w < a.length; w++) {
+            d += Long.bitCount(a[w] ^ b[w]);
+        }
+        return d;
+    }
+
+    @Test
+    void parallelSearchAgreesWithBruteForce() {
+        SplittableRandom random = new SplittableRandom(7);
+        TemplateIndex index = new TemplateIndex();
+        int n = TemplateIndex.PARALLEL_THRESHOLD * 3 + 17;
+        long[][] codes = new long[n][];
+        Patient[] patients = new Patient[n];
+        for (int i = 0; i < n; i++) {
+            codes[i] = randomCode(random);
+            patients[i] = new Patient("P" + i, 30, "PENDING");
+            index.enroll(patients[i], codes[i]);
+        }
+
+        // A noisy re-capture of an enrolled finger: 10 of 256 bits flipped
+        long[] probe = codes[40_000].clone();
+        for (int f = 0; f < 10; f++) {
+            int bit = random.nextInt(TemplateIndex.BITS);
+            probe[bit >>> 6] ^= 1L << (bit & 63);
+        }
+
+        List<TemplateIndex.Match> top = index.search(probe, 5, 0.0);
+        assertEquals(5, top.size());
+        assertSame(patients[40_000], top.get(0).patient());
+
+        Integer[] order = new Integer[n];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, (a, b) -> distance(codes[a], probe) != distance(codes[b], probe)
+                ? Integer.compare(distance(codes[a], probe), distance(codes[b], probe))
+                : Integer.compare(a, b));
+        for (int r = 0; r < 5; r++) {
+            assertSame(patients[order[r]], top.get(r).patient());
+        }
+    }
+
+    @Test
+    void thresholdRejectsUnrelatedTemplates() {
+        SplittableRandom random = new SplittableRandom(11);
+        TemplateIndex index = new TemplateIndex();
+        for (int i = 0; i < 1_000; i++) {
+            index.enroll(new Patient("P" + i, 30, "PENDING"), randomCode(random));
+        }
+        // Unrelated codes differ in about half their bits
+        assertTrue(index.search(randomCode(random), 3, 0.85).isEmpty());
+    }
+
+    @Test
+    void enrollmentStopsAtTheSizeLimit() {
+        SplittableRandom random = new SplittableRandom(5);
+        TemplateIndex index = new TemplateIndex(100);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(index.enroll(new Patient("P" + i, 30, "PENDING"), randomCode(random)));
+        }
+        long[] extra = randomCode(random);
+        assertFalse(index.enroll(new Patient("Extra", 30, "PENDING"), extra));
+        assertEquals(100, index.size());
+        assertTrue(index.search(extra, 1, 1.0).isEmpty());
+    }
+
+    @Test
+    void similarTemplatesGetNearbyCodes() {
+        SplittableRandom random = new SplittableRandom(3);
+        byte[] template = new byte[600];
+        random.nextBytes(template);
+        byte[] recapture = template.clone();
+        recapture[100] ^= 0x5a;
+        recapture[420] ^= 0x11;
+        byte[] other = new byte[600];
+        random.nextBytes(other);
+
+        long[] code = TemplateIndex.encode(ByteBuffer.wrap(template));
+        TemplateIndex index = new TemplateIndex();
+        Patient owner = new Patient("Owner", 40, "PENDING");
+        index.enroll(owner, code);
+
+        List<TemplateIndex.Match> hit = index.search(TemplateIndex.encode(ByteBuffer.wrap(recapture)), 1, 0.85);
+        assertEquals(1, hit.size());
+        assertSame(owner, hit.get(0).patient());
+        assertTrue(index.search(TemplateIndex.encode(ByteBuffer.wrap(other)), 1, 0.85).isEmpty());
+    }
+}
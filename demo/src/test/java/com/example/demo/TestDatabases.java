@@ -0,0 +1,35 @@
+package com.example.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+// In-memory H2 in MySQL mode, the engine behind kiosk.persistence=embedded.
+// Every call names a new database, so tests never see each other's rows; it
+// lives until the JVM exits.
+final class TestDatabases {
+
+    private static final AtomicLong DATABASES = new AtomicLong();
+
+    private TestDatabases() {
+    }
+
+    static String h2Url(String name) {
+        return "jdbc:h2:mem:" + name + DATABASES.incrementAndGet()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    }
+
+    // A bare database, for tests that set up tables themselves first
+    static JdbcDataSource h2DataSource(String name) {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL(h2Url(name));
+        return ds;
+    }
+
+    // A database with the application schema in place
+    static DBConnection h2(String name) {
+        DBConnection db = new DBConnection(h2DataSource(name));
+        db.initSchema();
+        return db;
+    }
+}
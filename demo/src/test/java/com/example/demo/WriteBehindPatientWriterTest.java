@@ -0,0 +1,51 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.Patient;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WriteBehindPatientWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rejectedChangeIsQuarantinedAndFreesItsCapacity() throws Exception {
+        DBConnection db = TestDatabases.h2("wb");
+
+        try (Journal journal = new Journal(dir.resolve("queue.journal"), 64 * 1024)) {
+            // Room for 3 unflushed changes, batched 10 at a time
+            WriteBehindPatientWriter writer = new WriteBehindPatientWriter(db, journal, 10, 50, 3, 2_000,
+                    new SimpleMeterRegistry());
+            writer.insert(new Patient("P1", 30, "HOS001"));
+            writer.insert(new Patient("x".repeat(256), 30, "HOS002"));
+            writer.insert(new Patient("P3", 30, "HOS003"));
+            // Only gets capacity once the batch above has been dealt with
+            for (int i = 4; i <= 9; i++) {
+                writer.insert(new Patient("P" + i, 30, "HOS00" + i));
+            }
+            writer.close();
+
+            assertEquals(1L, writer.stats().get("quarantined"));
+            assertEquals(0L, writer.stats().get("rejected"));
+            assertEquals(0L, journal.pendingCount());
+            assertEquals(1L, journal.quarantinedCount());
+        }
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM patients")) {
+            rs.next();
+            assertEquals(8, rs.getInt(1));
+        }
+    }
+}
@@ -1,9 +1,12 @@
-import React, { useState } from 'react';
+import React, { useRef, useState } from 'react';
 import axios from 'axios';
 
 
 const API_BASE_URL = (process.env.REACT_APP_API_BASE_URL || '').replace(/\/+$/, '');
 
+// Local fingerprint scanner bridge (scanner-bridge/ScannerBridge.java)
+const SCANNER_URL = (process.env.REACT_APP_SCANNER_URL || 'http://localhost:5000').replace(/\/+$/, '');
+
 const buildApi = (path = '') => {
   if (!API_BASE_URL) {
     console.error('REACT_APP_API_BASE_URL is not defined');
@@ -36,12 +39,16 @@ export default function KioskFrontend() {
   const [patient, setPatient] = useState({ name: '', age: '' });
   const [doctor, setDoctor] = useState(null);
   const [paymentMethod, setPaymentMethod] = useState('card');
+  const [booking, setBooking] = useState(null);
+  // One idempotency key per visit so repeated taps on "Pay" reuse the same order
+  const payAttemptRef = useRef(null);
   const doctors = [
-    { id: 1, name: 'Dr. Vijay Pathak (Cardiologist)', fee: 200, experience: '8 years' },
-    { id: 2, name: 'Dr. Sanjay Saran (Endocrinologist)', fee: 500, experience: '15 years' },
-    { id: 3, name: 'Dr. Pankaj Beniwal (Nephrologist)', fee: 450, experience: '10 years' },
-    { id: 4, name: 'Dr. Smriti Bhargava (Obstetrician)', fee: 300, experience: '7 years' },
-    { id: 5, name: 'Dr. Pawan Singhal (ENT Surgeon)', fee: 250, experience: '12 years' },
+    // department: the backend queue (and token prefix) this doctor calls from
+    { id: 1, name: 'Dr. Vijay Pathak (Cardiologist)', department: 'CAR', fee: 200, experience: '8 years' },
+    { id: 2, name: 'Dr. Sanjay Saran (Endocrinologist)', department: 'END', fee: 500, experience: '15 years' },
+    { id: 3, name: 'Dr. Pankaj Beniwal (Nephrologist)', department: 'NEP', fee: 450, experience: '10 years' },
+    { id: 4, name: 'Dr. Smriti Bhargava (Obstetrician)', department: 'OBS', fee: 300, experience: '7 years' },
+    { id: 5, name: 'Dr. Pawan Singhal (ENT Surgeon)', department: 'ENT', fee: 250, experience: '12 years' },
   ];
 
   // Step 1: Fetch from UIDAI (Backend API)
@@ -82,9 +89,17 @@ const handleAadharSubmit = async () => {
 
   const handleBiometric = async () => {
     try {
-      // In real flow the scanner SDK will provide a template; here we use a mock template
-      const template = String(Date.now());
-      const res = await axios.post(buildApi('/api/biometric/authenticate'), { template, mode: 'mock' });
+      // Raw template bytes from the local scanner bridge; a mock template if it is not running
+      let template;
+      try {
+        const scan = await axios.get(`${SCANNER_URL}/capture.bin`, { responseType: 'arraybuffer', timeout: 10000 });
+        template = scan.data;
+      } catch (scanErr) {
+        console.warn('Scanner bridge unavailable, using a mock template', scanErr);
+        template = new TextEncoder().encode(String(Date.now()));
+      }
+      const res = await axios.post(buildApi('/api/biometric/authenticate?mode=mock'), template,
+        { headers: { 'Content-Type': 'application/octet-stream' } });
       setPatient(res.data);
       setStep(2);
     } catch (e) {
@@ -94,12 +109,15 @@ const handleAadharSubmit = async () => {
   };
 
   // Step 2 & 3: Finalize Appointment
-  const handleFinalSubmit = async () => {
+  const handleFinalSubmit = async (orderId) => {
     if (!doctor) { alert('Please select a doctor'); return; }
     try {
-      // include selected doctor and payment method in the booking payload
-      const payload = { ...patient, doctor, paymentMethod };
-      await axios.post(buildApi('/api/add-patient'), payload);
+      // include selected doctor and payment method in the booking payload;
+      // orderId lets the backend match the gateway's payment webhook to this booking
+      const payload = { ...patient, doctor, paymentMethod, ...(orderId ? { orderId } : {}) };
+      const res = await axios.post(buildApi('/api/add-patient'), payload);
+      setBooking(res.data);
+      payAttemptRef.current = null;
       setStep(4);
     } catch (e) {
       console.error('Booking error:', e);
@@ -169,7 +187,11 @@ const handlePayment = async () => {
     }
 
     // Create order (Razorpay Orders API) and open Checkout
-    const ordResp = await axios.post(buildApi('/api/razorpay/create-order'), { amount: doctor.fee });
+    if (!payAttemptRef.current) {
+      payAttemptRef.current = `${Date.now().toString(36)}-${Math.random().toString(36).slice(2, 10)}`;
+    }
+    const ordResp = await axios.post(buildApi('/api/razorpay/create-order'), { amount: doctor.fee },
+      { headers: { 'Idempotency-Key': `${payAttemptRef.current}-${doctor.id}` } });
     const ordData = typeof ordResp.data === 'string' ? JSON.parse(ordResp.data) : ordResp.data;
     const orderId = ordData.id || ordData.order_id || ordData.orderId || ordData.id;
     // If backend returned a mock order (demo mode) or didn't provide a public key,
@@ -215,7 +237,7 @@ const handlePayment = async () => {
           // Verify payment server-side
           await axios.post(buildApi('/api/razorpay/verify'), response);
           alert('Payment successful!');
-          await handleFinalSubmit();
+          await handleFinalSubmit(response.razorpay_order_id);
         } catch (err) {
           console.error('Payment/booking error:', err);
           const resp = err && err.response ? err.response : null;
@@ -311,6 +333,7 @@ const handlePayment = async () => {
               <p>Doctor: {doctor?.name}</p>
               <p>Fee: ₹{doctor?.fee} | Experience: {doctor?.experience}</p>
               <p>Payment Method: {paymentMethod}</p>
+              {booking && <p>Token: {booking.token} | Estimated wait: {Math.ceil(booking.estimatedWaitSeconds / 60)} min</p>}
               <p>Date: {new Date().toLocaleDateString()}</p>
             </div>
             <button style={uiStyles.button} onClick={() => window.print()}>Print Receipt</button>
@@ -1,25 +1,336 @@
 // Minimal local scanner bridge scaffold. Replace mock capture with vendor SDK calls.
+//
+// Requests are served on virtual threads, but only one thread ever talks to the
+// scanner: captures are queued to a single device worker that owns the device
+// and its pre-sized direct buffer, so concurrent requests wait their turn
+// instead of fighting over the hardware. A full queue is answered with 503.
+//
+//   GET /capture                     {"template":"<base64>"}
+//   GET /capture.bin                 the raw template (application/octet-stream)
+//   GET /capture/stream?count=N      N captures as chunked NDJSON, one line per capture
+//   GET /capture/stream.bin?count=N  N captures as frames: 4-byte big-endian length + template
+//   GET /metrics                     queue depth and capture latency histograms
+//
+// Options (system properties): scanner.port (5000), scanner.queue (64),
+// scanner.mockDelayMs (0, simulated capture time of the mock device).
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
-import java.net.InetSocketAddress;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ScannerBridge {
+
+    // Vendor templates (ISO/ANSI minutiae) are well under this
+    static final int MAX_TEMPLATE_BYTES = 4096;
+
+    static final byte[] JSON_PREFIX = "{\"template\":\"".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] JSON_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] JSON_BUSY = "{\"status\":\"BUSY\",\"message\":\"Scanner queue is full\"}".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] JSON_ERROR = "{\"status\":\"CAPTURE_FAILED\"}".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] LINE_SEQ = "{\"seq\":".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] LINE_TEMPLATE = ",\"template\":\"".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] LINE_END = "\"}\n".getBytes(StandardCharsets.US_ASCII);
+    static final int MAX_STREAM_COUNT = 100;
+
+    // The scanner; fills `into` with one template and returns its length
+    interface Device {
+        int capture(ByteBuffer into) throws IOException;
+    }
+
+    // TODO: call the Mantra SDK capture method here and return real template bytes
+    static final class MockDevice implements Device {
+        private final long delayMs;
+
+        MockDevice(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public int capture(ByteBuffer into) throws IOException {
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Capture interrupted");
+                }
+            }
+            byte[] template = ("mock-template-" + System.currentTimeMillis()).getBytes(StandardCharsets.US_ASCII);
+            into.put(template);
+            return template.length;
+        }
+    }
+
+    // Power-of-two microsecond buckets; bucket i holds samples below 2^i us
+    static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(40);
+        private final LongAdder count = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(1, nanos / 1_000);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+            count.increment();
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        // Upper bound of the bucket holding the given percentile
+        long percentileMicros(double p) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * p), seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(1L << i, maxMicros.get());
+                }
+            }
+            return maxMicros.get();
+        }
+
+        String toJson() {
+            return "{\"count\":" + count.sum() + ",\"p50Us\":" + percentileMicros(0.50) + ",\"p90Us\":" + percentileMicros(0.90)
+                    + ",\"p99Us\":" + percentileMicros(0.99) + ",\"maxUs\":" + maxMicros.get() + "}";
+        }
+    }
+
+    static final class CaptureRequest {
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+    }
+
+    // Single owner of the device and its direct buffer
+    static final class DeviceWorker implements Runnable {
+        private final Device device;
+        private final BlockingQueue<CaptureRequest> requests;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_TEMPLATE_BYTES);
+        final Histogram captureTime = new Histogram();
+        final Histogram totalTime = new Histogram();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        DeviceWorker(Device device, int queueSize) {
+            this.device = device;
+            this.requests = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        // Null when the queue is full
+        CompletableFuture<byte[]> submit() {
+            CaptureRequest req = new CaptureRequest();
+            if (!requests.offer(req)) {
+                rejected.increment();
+                return null;
+            }
+            return req.result;
+        }
+
+        int queueDepth() {
+            return requests.size();
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                CaptureRequest req;
+                try {
+                    req = requests.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    buffer.clear();
+                    int length = device.capture(buffer);
+                    byte[] template = new byte[length];
+                    buffer.flip();
+                    buffer.get(template, 0, length);
+                    long end = System.nanoTime();
+                    captureTime.record(end - start);
+                    totalTime.record(end - req.queuedAt);
+                    req.result.complete(template);
+                } catch (Exception e) {
+                    failed.increment();
+                    req.result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
     public static void main(String[] args) throws Exception {
-        HttpServer server = HttpServer.create(new InetSocketAddress(5000), 0);
+        int port = Integer.getInteger("scanner.port", 5000);
+        int queueSize = Integer.getInteger("scanner.queue", 64);
+        long mockDelayMs = Long.getLong("scanner.mockDelayMs", 0);
+
+        DeviceWorker worker = new DeviceWorker(new MockDevice(mockDelayMs), queueSize);
+        Thread deviceThread = new Thread(worker, "scanner-device");
+        deviceThread.setDaemon(true);
+        deviceThread.start();
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 128);
+        server.setExecutor(executor);
+
         server.createContext("/capture", exchange -> {
-            // TODO: call the Mantra SDK capture method here and return real template bytes
-            byte[] template = ("mock-template-" + System.currentTimeMillis()).getBytes();
-
-            String base64 = Base64.getEncoder().encodeToString(template);
-            String resp = "{\"template\":\"" + base64 + "\"}";
-            exchange.getResponseHeaders().add("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, resp.getBytes().length);
-            OutputStream os = exchange.getResponseBody();
-            os.write(resp.getBytes());
-            os.close();
+            try (exchange) {
+                if (!exchange.getRequestURI().getPath().equals("/capture")) {
+                    send(exchange, 404, "{\"status\":\"NOT_FOUND\"}".getBytes(StandardCharsets.US_ASCII));
+                    return;
+                }
+                byte[] template = capture(worker, exchange);
+                if (template == null) {
+                    return;
+                }
+                byte[] base64 = Base64.getEncoder().encode(template);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, JSON_PREFIX.length + base64.length + JSON_SUFFIX.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(JSON_PREFIX);
+                os.write(base64);
+                os.write(JSON_SUFFIX);
+            }
         });
+
+        // Binary transport: no Base64 (a third smaller) and no JSON to build or parse
+        server.createContext("/capture.bin", exchange -> {
+            try (exchange) {
+                byte[] template = capture(worker, exchange);
+                if (template == null) {
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+                exchange.sendResponseHeaders(200, template.length);
+                exchange.getResponseBody().write(template);
+            }
+        });
+
+        server.createContext("/capture/stream.bin", exchange -> {
+            try (exchange) {
+                int count = Math.max(1, Math.min(queryInt(exchange, "count", 5), MAX_STREAM_COUNT));
+                exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+                exchange.sendResponseHeaders(200, 0); // chunked
+                OutputStream os = exchange.getResponseBody();
+                byte[] header = new byte[4];
+                for (int i = 0; i < count; i++) {
+                    CompletableFuture<byte[]> pending = worker.submit();
+                    if (pending == null) {
+                        break;
+                    }
+                    byte[] template;
+                    try {
+                        template = pending.get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        break;
+                    }
+                    int n = template.length;
+                    header[0] = (byte) (n >>> 24);
+                    header[1] = (byte) (n >>> 16);
+                    header[2] = (byte) (n >>> 8);
+                    header[3] = (byte) n;
+                    os.write(header);
+                    os.write(template);
+                    os.flush();
+                }
+            }
+        });
+
+        server.createContext("/capture/stream", exchange -> {
+            try (exchange) {
+                int count = Math.max(1, Math.min(queryInt(exchange, "count", 5), MAX_STREAM_COUNT));
+                exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+                exchange.sendResponseHeaders(200, 0); // chunked
+                OutputStream os = exchange.getResponseBody();
+                for (int i = 0; i < count; i++) {
+                    CompletableFuture<byte[]> pending = worker.submit();
+                    if (pending == null) {
+                        break; // queue full: end the stream early
+                    }
+                    byte[] template;
+                    try {
+                        template = pending.get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        break;
+                    }
+                    os.write(LINE_SEQ);
+                    os.write(Integer.toString(i).getBytes(StandardCharsets.US_ASCII));
+                    os.write(LINE_TEMPLATE);
+                    os.write(Base64.getEncoder().encode(template));
+                    os.write(LINE_END);
+                    os.flush();
+                }
+            }
+        });
+
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                String json = "{\"queueDepth\":" + worker.queueDepth() + ",\"rejected\":" + worker.rejected.sum()
+                        + ",\"failed\":" + worker.failed.sum() + ",\"capture\":" + worker.captureTime.toJson()
+                        + ",\"total\":" + worker.totalTime.toJson() + "}";
+                send(exchange, 200, json.getBytes(StandardCharsets.US_ASCII));
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            deviceThread.interrupt();
+            executor.shutdown();
+        }));
         server.start();
-        System.out.println("ScannerBridge running on http://localhost:5000/capture");
+        System.out.println("ScannerBridge running on http://localhost:" + port + "/capture");
+    }
+
+    // Waits for the device worker; on failure the error response is already sent
+    static byte[] capture(DeviceWorker worker, HttpExchange exchange) throws IOException {
+        CompletableFuture<byte[]> pending = worker.submit();
+        if (pending == null) {
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            send(exchange, 503, JSON_BUSY);
+            return null;
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException | ExecutionException e) {
+            send(exchange, 500, JSON_ERROR);
+            return null;
+        }
+    }
+
+    static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    static int queryInt(HttpExchange exchange, String name, int fallback) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) {
+            return fallback;
+        }
+        for (String part : query.split("&")) {
+            int eq = part.indexOf('=');
+            if (eq > 0 && part.substring(0, eq).equals(name)) {
+                try {
+                    return Integer.parseInt(part.substring(eq + 1));
+                } catch (NumberFormatException e) {
+                    return fallback;
+                }
+            }
+        }
+        return fallback;
     }
 }